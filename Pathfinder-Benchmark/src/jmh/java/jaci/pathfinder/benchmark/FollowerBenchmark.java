@@ -0,0 +1,64 @@
+package jaci.pathfinder.benchmark;
+
+import jaci.pathfinder.Trajectory;
+import jaci.pathfinder.followers.EncoderFollower;
+import jaci.pathfinder.followers.Interpolation;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Following a trajectory, one call per control loop iteration. Each operation is a single calculate call, so
+ * the GC profiler shows whether following allocates.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class FollowerBenchmark {
+
+    Trajectory trajectory;
+    EncoderFollower follower;
+    int tick;
+    double time;
+
+    @Setup
+    public void setup() {
+        trajectory = WaypointCorpus.generate(WaypointCorpus.SLALOM);
+        follower = new EncoderFollower(trajectory);
+        follower.configureEncoder(0, 1000, 0.15);
+        follower.configurePIDVA(1.0, 0.0, 0.0, 1 / WaypointCorpus.MAX_VELOCITY, 0.0);
+    }
+
+    @Benchmark
+    public double calculate() {
+        if (follower.isFinished()) {
+            follower.reset();
+            tick = 0;
+        }
+        return follower.calculate(tick += 7);
+    }
+
+    @Benchmark
+    public double calculateLinear() {
+        follower.configureInterpolation(Interpolation.LINEAR);
+        return calculateTimed();
+    }
+
+    @Benchmark
+    public double calculateHermite() {
+        follower.configureInterpolation(Interpolation.HERMITE);
+        return calculateTimed();
+    }
+
+    private double calculateTimed() {
+        // A slightly irregular 200Hz loop
+        time += (tick++ & 1) == 0 ? 0.0048 : 0.0052;
+        if (time >= trajectory.length() * WaypointCorpus.DT) {
+            follower.reset();
+            time = 0;
+        }
+        return follower.calculate(tick, time);
+    }
+
+}
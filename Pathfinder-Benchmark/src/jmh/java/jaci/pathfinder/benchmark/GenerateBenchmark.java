@@ -0,0 +1,42 @@
+package jaci.pathfinder.benchmark;
+
+import jaci.pathfinder.Pathfinder;
+import jaci.pathfinder.Trajectory;
+import jaci.pathfinder.Waypoint;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Trajectory generation, for each fit method and sample count.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class GenerateBenchmark {
+
+    @Param({ WaypointCorpus.STRAIGHT, WaypointCorpus.S_CURVE, WaypointCorpus.EXAMPLE, WaypointCorpus.SLALOM })
+    public String path;
+
+    @Param({ "HERMITE_CUBIC", "HERMITE_QUINTIC" })
+    public Trajectory.FitMethod fit;
+
+    @Param({ "" + Trajectory.Config.SAMPLES_FAST, "" + Trajectory.Config.SAMPLES_LOW, "" + Trajectory.Config.SAMPLES_HIGH })
+    public int samples;
+
+    Waypoint[] waypoints;
+    Trajectory.Config config;
+
+    @Setup
+    public void setup() {
+        waypoints = WaypointCorpus.get(path);
+        config = WaypointCorpus.config(fit, samples);
+    }
+
+    @Benchmark
+    public Trajectory generate() {
+        return Pathfinder.generate(waypoints, config);
+    }
+
+}
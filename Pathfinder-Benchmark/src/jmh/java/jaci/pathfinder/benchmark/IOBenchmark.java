@@ -0,0 +1,77 @@
+package jaci.pathfinder.benchmark;
+
+import jaci.pathfinder.Pathfinder;
+import jaci.pathfinder.Trajectory;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading and writing trajectories in the binary and CSV formats. The small trajectory is a few hundred
+ * segments, the large one is the slalom path with a fine time step, for a few tens of thousands of segments.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class IOBenchmark {
+
+    @Param({ "small", "large" })
+    public String size;
+
+    Trajectory trajectory;
+    File binFile, csvFile, mappedFile, writeFile;
+
+    @Setup
+    public void setup() throws IOException {
+        if (size.equals("small")) {
+            trajectory = WaypointCorpus.generate(WaypointCorpus.EXAMPLE);
+        } else {
+            Trajectory.Config config = WaypointCorpus.config(Trajectory.FitMethod.HERMITE_CUBIC, Trajectory.Config.SAMPLES_LOW);
+            config.dt = 0.0005;
+            trajectory = Pathfinder.generate(WaypointCorpus.get(WaypointCorpus.SLALOM), config);
+        }
+
+        binFile = File.createTempFile("pathfinder-bench", ".bin");
+        csvFile = File.createTempFile("pathfinder-bench", ".csv");
+        mappedFile = File.createTempFile("pathfinder-bench", ".pftr");
+        writeFile = File.createTempFile("pathfinder-bench-out", ".csv");
+
+        Pathfinder.writeToFile(binFile, trajectory);
+        Pathfinder.writeToCSV(csvFile, trajectory);
+        Pathfinder.writeToMappedFile(mappedFile, trajectory);
+    }
+
+    @TearDown
+    public void teardown() {
+        binFile.delete();
+        csvFile.delete();
+        mappedFile.delete();
+        writeFile.delete();
+    }
+
+    @Benchmark
+    public Trajectory readFromFile() throws IOException {
+        return Pathfinder.readFromFile(binFile);
+    }
+
+    @Benchmark
+    public Trajectory readFromCSV() throws IOException {
+        return Pathfinder.readFromCSV(csvFile);
+    }
+
+    @Benchmark
+    public double readFromMappedFile() throws IOException {
+        // Touch the last segment, so the cost of reaching the data is included and not just opening the mapping
+        Trajectory traj = Pathfinder.readFromMappedFile(mappedFile);
+        return traj.getPosition(traj.length() - 1);
+    }
+
+    @Benchmark
+    public void writeToCSV() {
+        Pathfinder.writeToCSV(writeFile, trajectory);
+    }
+
+}
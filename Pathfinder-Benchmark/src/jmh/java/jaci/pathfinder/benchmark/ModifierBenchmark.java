@@ -0,0 +1,39 @@
+package jaci.pathfinder.benchmark;
+
+import jaci.pathfinder.Trajectory;
+import jaci.pathfinder.modifiers.SwerveModifier;
+import jaci.pathfinder.modifiers.TankModifier;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Modifying a generated trajectory for tank and swerve drivetrains.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ModifierBenchmark {
+
+    @Param({ WaypointCorpus.EXAMPLE, WaypointCorpus.SLALOM })
+    public String path;
+
+    Trajectory trajectory;
+
+    @Setup
+    public void setup() {
+        trajectory = WaypointCorpus.generate(path);
+    }
+
+    @Benchmark
+    public TankModifier tank() {
+        return new TankModifier(trajectory).modify(0.5);
+    }
+
+    @Benchmark
+    public SwerveModifier swerve() {
+        return new SwerveModifier(trajectory).modify(0.5, 0.6, SwerveModifier.Mode.SWERVE_DEFAULT);
+    }
+
+}
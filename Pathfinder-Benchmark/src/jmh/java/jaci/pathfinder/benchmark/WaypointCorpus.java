@@ -0,0 +1,74 @@
+package jaci.pathfinder.benchmark;
+
+import jaci.pathfinder.Pathfinder;
+import jaci.pathfinder.Trajectory;
+import jaci.pathfinder.Waypoint;
+
+/**
+ * A fixed set of representative paths for the benchmarks. These must not change, or results can no longer be
+ * compared against earlier runs. Add new paths under new names instead.
+ */
+public final class WaypointCorpus {
+
+    private WaypointCorpus() { }
+
+    public static final String STRAIGHT = "straight";
+    public static final String S_CURVE = "s-curve";
+    public static final String EXAMPLE = "example";
+    public static final String SLALOM = "slalom";
+
+    /**
+     * The configuration the benchmarks generate with, other than fit method and sample count
+     */
+    public static final double DT = 0.01, MAX_VELOCITY = 1.7, MAX_ACCELERATION = 2.0, MAX_JERK = 60.0;
+
+    public static Waypoint[] get(String name) {
+        switch (name) {
+            // A single straight drive, 3m forward
+            case STRAIGHT:
+                return new Waypoint[] {
+                    new Waypoint(0, 0, 0),
+                    new Waypoint(3, 0, 0)
+                };
+            // A lane change, the most common shape of autonomous path
+            case S_CURVE:
+                return new Waypoint[] {
+                    new Waypoint(0, 0, 0),
+                    new Waypoint(2, 1, 0),
+                    new Waypoint(4, 2, 0)
+                };
+            // The path from the README examples
+            case EXAMPLE:
+                return new Waypoint[] {
+                    new Waypoint(-4, -1, Pathfinder.d2r(-45)),
+                    new Waypoint(-2, -2, 0),
+                    new Waypoint(0, 0, 0)
+                };
+            // A long path weaving through a row of cones, with many splines
+            case SLALOM:
+                return new Waypoint[] {
+                    new Waypoint(0, 0, 0),
+                    new Waypoint(1.5, 0.75, Pathfinder.d2r(30)),
+                    new Waypoint(3, 1.2, 0),
+                    new Waypoint(4.5, 0.75, Pathfinder.d2r(-30)),
+                    new Waypoint(6, 0, 0),
+                    new Waypoint(7.5, -0.75, Pathfinder.d2r(-30)),
+                    new Waypoint(9, -1.2, 0),
+                    new Waypoint(10.5, -0.75, Pathfinder.d2r(30)),
+                    new Waypoint(12, 0, 0),
+                    new Waypoint(14, 1.5, Pathfinder.d2r(60))
+                };
+            default:
+                throw new IllegalArgumentException("No path in the corpus named " + name);
+        }
+    }
+
+    public static Trajectory.Config config(Trajectory.FitMethod fit, int samples) {
+        return new Trajectory.Config(fit, samples, DT, MAX_VELOCITY, MAX_ACCELERATION, MAX_JERK);
+    }
+
+    public static Trajectory generate(String name) {
+        return Pathfinder.generate(get(name), config(Trajectory.FitMethod.HERMITE_CUBIC, Trajectory.Config.SAMPLES_LOW));
+    }
+
+}
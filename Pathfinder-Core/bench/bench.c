@@ -0,0 +1,392 @@
+#include <pathfinder.h>
+
+#include <math.h>
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+
+#if defined(_WIN32)
+    #include <windows.h>
+#else
+    #include <time.h>
+#endif
+
+#include "corpus.h"
+
+/********************************************************************************************
+*   Benchmark and golden output suite for the core.
+*
+*   pathfinder_bench                        Time each stage, in ns per output segment
+*   pathfinder_bench --check <dir>          Compare output against the golden files in dir
+*   pathfinder_bench --write-golden <dir>   Regenerate the golden files in dir
+*
+*   Golden files hold the generated, tank and swerve trajectories of each path in the corpus,
+*   for each fit method, written to 12 significant digits. A value passes the check if it is
+*   within GOLDEN_TOLERANCE of the golden value, relative to the largest magnitude in that
+*   column of that output (or absolute, if the largest magnitude is below 1). Scaling by the
+*   column rather than the value keeps round-off in values that should be 0 (e.g. the jerk of
+*   a straight path) from failing the check. Changes that are expected to move the output by
+*   more than that must regenerate the golden files in the same commit.
+*********************************************************************************************/
+
+#define GOLDEN_TOLERANCE 1e-9
+#define GOLDEN_SAMPLES PATHFINDER_SAMPLES_LOW
+#define GOLDEN_DT 0.02
+
+#define BENCH_MIN_SECONDS 0.25
+
+typedef struct {
+    const char *name;
+    void (*fit)(Waypoint,Waypoint,Spline*);
+} BenchFit;
+
+static const BenchFit bench_fits[] = {
+    { "cubic", FIT_HERMITE_CUBIC },
+    { "quintic", FIT_HERMITE_QUINTIC }
+};
+
+#define BENCH_FIT_COUNT 2
+
+static double now_seconds() {
+#if defined(_WIN32)
+    LARGE_INTEGER freq, count;
+    QueryPerformanceFrequency(&freq);
+    QueryPerformanceCounter(&count);
+    return (double)count.QuadPart / (double)freq.QuadPart;
+#else
+    struct timespec ts;
+    clock_gettime(CLOCK_MONOTONIC, &ts);
+    return ts.tv_sec + ts.tv_nsec * 1e-9;
+#endif
+}
+
+// Generate a path, returning the segment count, or -1 on failure. The caller frees *out.
+static int generate(const BenchPath *path, const BenchFit *fit, int samples, double dt, Segment **out) {
+    TrajectoryCandidate cand;
+    if (pathfinder_prepare(path->points, path->length, fit->fit, samples, dt,
+            BENCH_MAX_VELOCITY, BENCH_MAX_ACCELERATION, BENCH_MAX_JERK, &cand) < 0)
+        return -1;
+
+    Segment *segs = malloc(cand.length * sizeof(Segment));
+    if (segs == NULL || pathfinder_generate(&cand, segs) < 0) {
+        free(segs);
+        return -1;
+    }
+    *out = segs;
+    return cand.length;
+}
+
+/********************************************************************************************
+*   Benchmark
+*********************************************************************************************/
+
+typedef struct {
+    const BenchPath *path;
+    const BenchFit *fit;
+    int samples;
+    TrajectoryCandidate cand;
+    Segment *source, *out[4];
+    FILE *csv;
+} BenchState;
+
+static void stage_prepare(BenchState *s) {
+    TrajectoryCandidate cand;
+    pathfinder_prepare(s->path->points, s->path->length, s->fit->fit, s->samples, BENCH_DT,
+        BENCH_MAX_VELOCITY, BENCH_MAX_ACCELERATION, BENCH_MAX_JERK, &cand);
+    free(cand.saptr); free(cand.laptr); free(cand.taptr);
+}
+
+static void stage_generate(BenchState *s) {
+    TrajectoryCandidate cand;
+    pathfinder_prepare(s->path->points, s->path->length, s->fit->fit, s->samples, BENCH_DT,
+        BENCH_MAX_VELOCITY, BENCH_MAX_ACCELERATION, BENCH_MAX_JERK, &cand);
+    pathfinder_generate(&cand, s->out[0]);
+}
+
+static void stage_spline_distance(BenchState *s) {
+    int i;
+    for (i = 0; i < s->path->length - 1; i++) {
+        Spline sp;
+        s->fit->fit(s->path->points[i], s->path->points[i + 1], &sp);
+        pf_spline_distance(&sp, s->samples);
+    }
+}
+
+static void stage_profile(BenchState *s) {
+    pf_trajectory_create(s->cand.info, s->cand.config, s->out[0]);
+}
+
+static void stage_tank(BenchState *s) {
+    pathfinder_modify_tank(s->source, s->cand.length, s->out[0], s->out[1], BENCH_WHEELBASE_WIDTH);
+}
+
+static void stage_swerve(BenchState *s) {
+    pathfinder_modify_swerve(s->source, s->cand.length, s->out[0], s->out[1], s->out[2], s->out[3],
+        BENCH_WHEELBASE_WIDTH, BENCH_WHEELBASE_DEPTH, SWERVE_DEFAULT);
+}
+
+static void stage_serialize_csv(BenchState *s) {
+    rewind(s->csv);
+    pathfinder_serialize_csv(s->csv, s->source, s->cand.length);
+}
+
+typedef struct {
+    const char *name;
+    void (*run)(BenchState *s);
+} BenchStage;
+
+static const BenchStage bench_stages[] = {
+    { "prepare", stage_prepare },
+    { "  spline_distance", stage_spline_distance },
+    { "prepare+generate", stage_generate },
+    { "  trajectory_profile", stage_profile },
+    { "modify_tank", stage_tank },
+    { "modify_swerve", stage_swerve },
+    { "serialize_csv", stage_serialize_csv }
+};
+
+#define BENCH_STAGE_COUNT ((int)(sizeof(bench_stages) / sizeof(bench_stages[0])))
+
+// Run a stage repeatedly for at least BENCH_MIN_SECONDS, returning ns per output segment
+static double time_stage(const BenchStage *stage, BenchState *s) {
+    long iterations = 0, batch = 1;
+    double start, elapsed;
+    stage->run(s);      // Warm up
+    start = now_seconds();
+    do {
+        long i;
+        for (i = 0; i < batch; i++)
+            stage->run(s);
+        iterations += batch;
+        batch *= 2;
+        elapsed = now_seconds() - start;
+    } while (elapsed < BENCH_MIN_SECONDS);
+    return elapsed * 1e9 / iterations / s->cand.length;
+}
+
+static int run_benchmark() {
+    static const int samples[] = { PATHFINDER_SAMPLES_FAST, PATHFINDER_SAMPLES_LOW, PATHFINDER_SAMPLES_HIGH };
+    int p, f, n, st;
+
+    printf("%-10s %-8s %-8s %-9s", "path", "fit", "samples", "segments");
+    for (st = 0; st < BENCH_STAGE_COUNT; st++)
+        printf(" %20s", bench_stages[st].name);
+    printf("\n(ns per segment)\n");
+
+    for (p = 0; p < BENCH_PATH_COUNT; p++) {
+        for (f = 0; f < BENCH_FIT_COUNT; f++) {
+            for (n = 0; n < 3; n++) {
+                BenchState s;
+                s.path = &bench_paths[p];
+                s.fit = &bench_fits[f];
+                s.samples = samples[n];
+
+                // Keep a prepared candidate around for the stages that start part way through
+                if (pathfinder_prepare(s.path->points, s.path->length, s.fit->fit, s.samples, BENCH_DT,
+                        BENCH_MAX_VELOCITY, BENCH_MAX_ACCELERATION, BENCH_MAX_JERK, &s.cand) < 0) {
+                    fprintf(stderr, "Could not prepare %s: %s\n", s.path->name, pathfinder_error());
+                    return 1;
+                }
+                s.source = malloc(s.cand.length * sizeof(Segment));
+                int i;
+                for (i = 0; i < 4; i++)
+                    s.out[i] = malloc(s.cand.length * sizeof(Segment));
+                s.csv = tmpfile();
+                if (pathfinder_generate(&s.cand, s.source) < 0 || s.csv == NULL) {
+                    fprintf(stderr, "Could not generate %s\n", s.path->name);
+                    return 1;
+                }
+
+                printf("%-10s %-8s %-8d %-9d", s.path->name, s.fit->name, s.samples, s.cand.length);
+                fflush(stdout);
+                for (st = 0; st < BENCH_STAGE_COUNT; st++) {
+                    printf(" %20.1f", time_stage(&bench_stages[st], &s));
+                    fflush(stdout);
+                }
+                printf("\n");
+
+                fclose(s.csv);
+                free(s.source);
+                for (i = 0; i < 4; i++)
+                    free(s.out[i]);
+            }
+        }
+    }
+    return 0;
+}
+
+/********************************************************************************************
+*   Golden output
+*********************************************************************************************/
+
+#define GOLDEN_OUTPUTS 5
+
+// The swerve front right and back left wheels go through the same code as the other two, so aren't stored
+static const char *golden_output_names[GOLDEN_OUTPUTS] = {
+    "generate", "tank_left", "tank_right", "swerve_front_left", "swerve_back_right"
+};
+
+// Generate every output for a path, returning the segment count, or -1 on failure. The caller frees outputs[].
+static int golden_outputs(const BenchPath *path, const BenchFit *fit, Segment *outputs[GOLDEN_OUTPUTS]) {
+    int length = generate(path, fit, GOLDEN_SAMPLES, GOLDEN_DT, &outputs[0]);
+    if (length < 0) return -1;
+
+    int i;
+    for (i = 1; i < GOLDEN_OUTPUTS; i++)
+        outputs[i] = malloc(length * sizeof(Segment));
+    Segment *unused = malloc(2 * length * sizeof(Segment));
+
+    pathfinder_modify_tank(outputs[0], length, outputs[1], outputs[2], BENCH_WHEELBASE_WIDTH);
+    pathfinder_modify_swerve(outputs[0], length, outputs[3], unused, unused + length, outputs[4],
+        BENCH_WHEELBASE_WIDTH, BENCH_WHEELBASE_DEPTH, SWERVE_DEFAULT);
+    free(unused);
+    return length;
+}
+
+static void golden_filename(char *buf, size_t size, const char *dir, const BenchPath *path, const BenchFit *fit) {
+    snprintf(buf, size, "%s/%s.%s.csv", dir, path->name, fit->name);
+}
+
+static int write_golden(const char *dir) {
+    int p, f, o, i;
+    for (p = 0; p < BENCH_PATH_COUNT; p++) {
+        for (f = 0; f < BENCH_FIT_COUNT; f++) {
+            Segment *outputs[GOLDEN_OUTPUTS];
+            int length = golden_outputs(&bench_paths[p], &bench_fits[f], outputs);
+            if (length < 0) {
+                fprintf(stderr, "Could not generate %s: %s\n", bench_paths[p].name, pathfinder_error());
+                return 1;
+            }
+
+            char filename[512];
+            golden_filename(filename, sizeof(filename), dir, &bench_paths[p], &bench_fits[f]);
+            FILE *fp = fopen(filename, "w");
+            if (fp == NULL) {
+                fprintf(stderr, "Could not open %s for writing\n", filename);
+                return 1;
+            }
+
+            fprintf(fp, "output,%s", CSV_LEADING_STRING);
+            for (o = 0; o < GOLDEN_OUTPUTS; o++) {
+                for (i = 0; i < length; i++) {
+                    Segment s = outputs[o][i];
+                    fprintf(fp, "%s,%.12g,%.12g,%.12g,%.12g,%.12g,%.12g,%.12g,%.12g\n", golden_output_names[o],
+                        s.dt, s.x, s.y, s.position, s.velocity, s.acceleration, s.jerk, s.heading);
+                }
+                free(outputs[o]);
+            }
+            fclose(fp);
+            printf("Wrote %s\n", filename);
+        }
+    }
+    return 0;
+}
+
+// Read one output's rows from a golden file into expected (8 values per segment, in Segment order)
+static int read_golden_output(FILE *fp, const char *filename, const char *output, int length, double *expected) {
+    char line[1024];
+    int i;
+    for (i = 0; i < length; i++) {
+        char name[64];
+        double *e = expected + i * 8;
+        if (fgets(line, sizeof(line), fp) == NULL
+                || sscanf(line, "%63[^,],%lf,%lf,%lf,%lf,%lf,%lf,%lf,%lf", name,
+                    &e[0], &e[1], &e[2], &e[3], &e[4], &e[5], &e[6], &e[7]) != 9
+                || strcmp(name, output) != 0) {
+            fprintf(stderr, "%s: expected a %s row for segment %d (has the segment count changed?)\n", filename, output, i);
+            return -1;
+        }
+    }
+    return 0;
+}
+
+static int check_golden(const char *dir) {
+    static const char *fields[8] = { "dt", "x", "y", "position", "velocity", "acceleration", "jerk", "heading" };
+    int p, f, o, i, k, failures = 0;
+
+    for (p = 0; p < BENCH_PATH_COUNT; p++) {
+        for (f = 0; f < BENCH_FIT_COUNT; f++) {
+            char filename[512];
+            golden_filename(filename, sizeof(filename), dir, &bench_paths[p], &bench_fits[f]);
+            FILE *fp = fopen(filename, "r");
+            if (fp == NULL) {
+                fprintf(stderr, "Missing golden file %s\n", filename);
+                failures++;
+                continue;
+            }
+
+            Segment *outputs[GOLDEN_OUTPUTS];
+            int length = golden_outputs(&bench_paths[p], &bench_fits[f], outputs);
+            if (length < 0) {
+                fprintf(stderr, "Could not generate %s: %s\n", bench_paths[p].name, pathfinder_error());
+                fclose(fp);
+                return 1;
+            }
+
+            char line[1024];
+            int file_failures = 0;
+            double worst = 0;
+            double *expected = malloc(length * 8 * sizeof(double));
+            fgets(line, sizeof(line), fp);      // Header
+
+            for (o = 0; o < GOLDEN_OUTPUTS && !file_failures; o++) {
+                if (read_golden_output(fp, filename, golden_output_names[o], length, expected) < 0) {
+                    file_failures++;
+                    break;
+                }
+
+                double scale[8];
+                for (k = 0; k < 8; k++) {
+                    scale[k] = 1.0;
+                    for (i = 0; i < length; i++)
+                        scale[k] = fmax(scale[k], fabs(expected[i * 8 + k]));
+                }
+
+                for (i = 0; i < length; i++) {
+                    Segment s = outputs[o][i];
+                    double actual[8] = { s.dt, s.x, s.y, s.position, s.velocity, s.acceleration, s.jerk, s.heading };
+                    for (k = 0; k < 8; k++) {
+                        double e = expected[i * 8 + k];
+                        double error = fabs(actual[k] - e) / scale[k];
+                        if (error > worst) worst = error;
+                        if (!(error <= GOLDEN_TOLERANCE) && !(isnan(e) && isnan(actual[k]))) {
+                            if (file_failures < 10)
+                                fprintf(stderr, "%s: %s[%d].%s is %.17g, expected %.12g\n", filename,
+                                    golden_output_names[o], i, fields[k], actual[k], e);
+                            file_failures++;
+                        }
+                    }
+                }
+            }
+            if (!file_failures && fgets(line, sizeof(line), fp) != NULL) {
+                fprintf(stderr, "%s: has more segments than were generated\n", filename);
+                file_failures++;
+            }
+
+            printf("%-48s %s (max relative error %.3g)\n", filename, file_failures ? "FAIL" : "OK", worst);
+            failures += file_failures;
+            free(expected);
+            for (o = 0; o < GOLDEN_OUTPUTS; o++)
+                free(outputs[o]);
+            fclose(fp);
+        }
+    }
+
+    if (failures) {
+        printf("%d value(s) outside the tolerance of %g\n", failures, GOLDEN_TOLERANCE);
+        return 1;
+    }
+    return 0;
+}
+
+int main(int argc, char **argv) {
+    if (argc == 3 && strcmp(argv[1], "--check") == 0)
+        return check_golden(argv[2]);
+    if (argc == 3 && strcmp(argv[1], "--write-golden") == 0)
+        return write_golden(argv[2]);
+    if (argc == 1)
+        return run_benchmark();
+
+    fprintf(stderr, "Usage: %s [--check <golden dir> | --write-golden <golden dir>]\n", argv[0]);
+    return 2;
+}
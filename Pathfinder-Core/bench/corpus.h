@@ -0,0 +1,55 @@
+#ifndef PATHFINDER_BENCH_CORPUS_H_DEF
+#define PATHFINDER_BENCH_CORPUS_H_DEF
+
+#include <pathfinder.h>
+
+// The fixed set of paths the benchmark and golden suite run against. These match
+// Pathfinder-Benchmark's WaypointCorpus. Don't change existing entries, or results and
+// golden files can no longer be compared, add new ones instead.
+
+#define BENCH_DT                0.01
+#define BENCH_MAX_VELOCITY      1.7
+#define BENCH_MAX_ACCELERATION  2.0
+#define BENCH_MAX_JERK          60.0
+
+#define BENCH_WHEELBASE_WIDTH   0.5
+#define BENCH_WHEELBASE_DEPTH   0.6
+
+typedef struct {
+    const char *name;
+    int length;
+    Waypoint points[10];
+} BenchPath;
+
+static const BenchPath bench_paths[] = {
+    { "straight", 2, {
+        { 0, 0, 0 },
+        { 3, 0, 0 }
+    } },
+    { "s-curve", 3, {
+        { 0, 0, 0 },
+        { 2, 1, 0 },
+        { 4, 2, 0 }
+    } },
+    { "example", 3, {
+        { -4, -1, -0.78539816339744828 },
+        { -2, -2, 0 },
+        { 0, 0, 0 }
+    } },
+    { "slalom", 10, {
+        { 0, 0, 0 },
+        { 1.5, 0.75, 0.52359877559829882 },
+        { 3, 1.2, 0 },
+        { 4.5, 0.75, -0.52359877559829882 },
+        { 6, 0, 0 },
+        { 7.5, -0.75, -0.52359877559829882 },
+        { 9, -1.2, 0 },
+        { 10.5, -0.75, 0.52359877559829882 },
+        { 12, 0, 0 },
+        { 14, 1.5, 1.0471975511965976 }
+    } }
+};
+
+#define BENCH_PATH_COUNT ((int)(sizeof(bench_paths) / sizeof(bench_paths[0])))
+
+#endif
@@ -11,6 +11,7 @@ extern "C" {
 #include "pathfinder/fit.h"
 #include "pathfinder/spline.h"
 #include "pathfinder/trajectory.h"
+#include "pathfinder/plan.h"
 
 #include "pathfinder/modifiers/tank.h"
 #include "pathfinder/modifiers/swerve.h"
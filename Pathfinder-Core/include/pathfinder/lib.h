@@ -7,4 +7,10 @@
     #define CAPI
 #endif
 
+#if defined(_MSC_VER)
+    #define PF_THREAD_LOCAL __declspec(thread)
+#else
+    #define PF_THREAD_LOCAL __thread
+#endif
+
 #endif
\ No newline at end of file
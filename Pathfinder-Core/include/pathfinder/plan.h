@@ -0,0 +1,25 @@
+#ifndef PATHFINDER_PLAN_H_DEF
+#define PATHFINDER_PLAN_H_DEF
+
+#include "pathfinder/lib.h"
+
+// A path plan keeps the fitted splines and arc length tables of a path between generations, so
+// moving a waypoint only refits the (at most 2) splines either side of it. Generating from a plan
+// only runs the profile and maps it onto the splines.
+
+CAPI int pathfinder_plan_create(PathPlan *plan, const Waypoint *path, int path_length, void (*fit)(Waypoint,Waypoint,Spline*),
+        int sample_count, double dt, double max_velocity, double max_acceleration, double max_jerk);
+CAPI void pathfinder_plan_free(PathPlan *plan);
+
+CAPI int pathfinder_plan_set_waypoint(PathPlan *plan, int index, Waypoint waypoint);
+// Returns -1, leaving the plan as it was, if the profile filter's scratch for the new limits couldn't be allocated
+CAPI int pathfinder_plan_configure(PathPlan *plan, double dt, double max_velocity, double max_acceleration, double max_jerk);
+
+// Fill a candidate that uses the plan's splines, returning the trajectory length. The candidate is
+// only valid until the plan is next changed, and must be generated with pathfinder_generate_candidate
+// (not pathfinder_generate, which would free the plan's arrays). pathfinder_plan_generate generates
+// with the plan's own scratch, so doesn't allocate.
+CAPI int pathfinder_plan_prepare(const PathPlan *plan, TrajectoryCandidate *cand);
+CAPI int pathfinder_plan_generate(const PathPlan *plan, Segment *segments);
+
+#endif
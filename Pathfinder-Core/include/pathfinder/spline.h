@@ -15,4 +15,26 @@ CAPI double pf_spline_angle(Spline s, double percentage);
 CAPI double pf_spline_distance(Spline *s, int sample_count);
 CAPI double pf_spline_progress_for_distance(Spline s, double distance, int sample_count);
 
+// Arc Length Tables hold the cumulative (knot-normalized) arc length at each of the
+// sample_count + 1 integration steps, so progress lookups don't have to re-integrate the spline.
+CAPI double pf_spline_distance_table(Spline *s, int sample_count, double *table);
+CAPI double pf_spline_progress_for_distance_table(Spline s, const double *table, double distance, int sample_count, int *cursor);
+
+// Adaptive tables split the spline into panels, integrating each with Gauss-Legendre quadrature
+// and splitting a panel only where its error is over the tolerance (in meters along the spline).
+// The table holds the panel count, then the (knot-normalized) arc length, t and integrand at each
+// panel edge, and needs PATHFINDER_ADAPTIVE_TABLE_SIZE doubles. A spline that would need more than
+// PATHFINDER_ADAPTIVE_MAX_PANELS to meet the tolerance is left over it, the estimated error and the
+// number of derivative evaluations used are given through error and evaluations (either may be NULL).
+#define PATHFINDER_ADAPTIVE_MAX_PANELS 512
+#define PATHFINDER_ADAPTIVE_TABLE_SIZE (1 + 3 * (PATHFINDER_ADAPTIVE_MAX_PANELS + 1))
+
+CAPI double pf_spline_distance_adaptive(Spline *s, double tolerance, double *table, double *error, int *evaluations);
+CAPI double pf_spline_progress_for_distance_adaptive(Spline s, const double *table, double distance, int *cursor);
+
+// Evaluate the spline at each of count percentages, writing the coordinates to x and y and the angle to
+// heading (which may be NULL). The same as calling pf_spline_coords and pf_spline_angle for each, up to
+// rounding, but the rotation is only calculated once and the polynomials are evaluated in Horner form.
+CAPI void pf_spline_evaluate(const Spline *s, const double *percentages, int count, double *x, double *y, double *heading);
+
 #endif
\ No newline at end of file
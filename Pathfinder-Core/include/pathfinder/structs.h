@@ -23,6 +23,8 @@ CAPI typedef struct {
 CAPI typedef struct {
     double dt, max_v, max_a, max_j, src_v, src_theta, dest_pos, dest_v, dest_theta;
     int sample_count;
+    // Arc length error tolerance (meters), or 0 to integrate with a fixed sample_count
+    double tolerance;
 } TrajectoryConfig;
 
 CAPI typedef struct {
@@ -33,11 +35,67 @@ CAPI typedef struct {
 CAPI typedef struct {
     Spline *saptr;
     double *laptr;
+    double *taptr;
     double totalLength;
     int length;
     int path_length;
     TrajectoryInfo info;
     TrajectoryConfig config;
+    // Estimated arc length error (NAN for a fixed sample count) and spline derivative evaluations
+    double arc_error;
+    int arc_evaluations;
+    // The profile filter's scratch (MAX(info.filter2, 1) doubles), owned with the candidate's other arrays,
+    // or NULL if the candidate has none and generating must allocate it. Set by pathfinder_prepare and
+    // pathfinder_prepare_into (within the lengths' allocation, so it is freed with laptr).
+    double *scratch;
 } TrajectoryCandidate;
 
+// The arrays of a candidate, kept by the caller between preparations so they are only allocated when a path
+// needs more than before. Zero it before first use, and free it with pathfinder_storage_free.
+CAPI typedef struct {
+    Spline *splines;
+    double *lengths;
+    double *tables;
+    int spline_capacity, length_capacity, table_capacity;
+} CandidateStorage;
+
+CAPI typedef struct {
+    int filter_1_l, filter_2_l, window, index;
+    double dt, v, impulse, f1_last, f2_sum;
+    double *f1_window;
+    Segment last_section;
+} ProfileFilter;
+
+CAPI typedef struct {
+    int spline_i, table_cursor;
+    double spline_pos_initial, splines_complete;
+} SplineCursor;
+
+CAPI typedef struct {
+    TrajectoryCandidate candidate;
+    ProfileFilter filter;
+    SplineCursor cursor;
+    int index;
+} TrajectoryStream;
+
+CAPI typedef struct {
+    Waypoint *points;
+    Spline *splines;
+    double *lengths;
+    double *tables;
+    int path_length;
+    void (*fit)(Waypoint,Waypoint,Spline*);
+    int sample_count;
+    double dt, max_velocity, max_acceleration, max_jerk;
+    // The profile filter's scratch, grown when the plan is configured with limits that need more
+    double *scratch;
+    int scratch_size;
+} PathPlan;
+
+CAPI typedef struct {
+    TrajectoryCandidate candidate;
+    int prepared;
+    char error[512];
+} GeneratorContext;
+
 #endif
\ No newline at end of file
@@ -5,14 +5,47 @@
 
 CAPI int pathfinder_prepare(const Waypoint *path, int path_length, void (*fit)(Waypoint,Waypoint,Spline*), int sample_count, double dt,
         double max_velocity, double max_acceleration, double max_jerk, TrajectoryCandidate *cand);
+
+// As above, but integrating the arc length of each spline adaptively to within the given tolerance
+// (in meters) instead of with a fixed number of samples. The candidate's arc_error and arc_evaluations
+// report the error reached and the work it took.
+CAPI int pathfinder_prepare_adaptive(const Waypoint *path, int path_length, void (*fit)(Waypoint,Waypoint,Spline*), double tolerance, double dt,
+        double max_velocity, double max_acceleration, double max_jerk, TrajectoryCandidate *cand);
         
+// As pathfinder_prepare (or pathfinder_prepare_adaptive when tolerance > 0), but the candidate's arrays are
+// kept in storage, which is only grown when they don't fit. The candidate is only valid until storage is next
+// prepared into or freed, and must be generated with pathfinder_generate_candidate2, using its scratch
+// (c->scratch, also kept in storage), not pathfinder_generate, which would free the arrays.
+CAPI int pathfinder_prepare_into(const Waypoint *path, int path_length, void (*fit)(Waypoint,Waypoint,Spline*), int sample_count,
+        double tolerance, double dt, double max_velocity, double max_acceleration, double max_jerk, TrajectoryCandidate *cand,
+        CandidateStorage *storage);
+CAPI void pathfinder_storage_free(CandidateStorage *storage);
+
 CAPI int pathfinder_prepare_LabVIEW(const Waypoint *path, int path_length, int sample_count, double dt,
         double max_velocity, double max_acceleration, double max_jerk);
         
 CAPI int pathfinder_generate_LabVIEW(Segment *segments);
 
+// Context handles for the LabVIEW entry points. Each context holds its own candidate and the error from
+// its last call, so separate contexts can be prepared and generated on any thread at the same time.
+CAPI GeneratorContext *pathfinder_context_create_LabVIEW();
+CAPI void pathfinder_context_free_LabVIEW(GeneratorContext *ctx);
+CAPI int pathfinder_context_prepare_LabVIEW(GeneratorContext *ctx, const Waypoint *path, int path_length, int sample_count,
+        double dt, double max_velocity, double max_acceleration, double max_jerk);
+CAPI int pathfinder_context_generate_LabVIEW(GeneratorContext *ctx, Segment *segments);
+CAPI int pathfinder_context_error_LabVIEW(GeneratorContext *ctx, char *buffer, int buffer_length);
+
+// Generates with the candidate's scratch, or allocates one if it has none, then frees the candidate's arrays.
 CAPI int pathfinder_generate(TrajectoryCandidate *c, Segment *segments);
 
+// As above, but leaves the candidate's arrays allocated (pathfinder_generate frees them), so the
+// candidate can be generated from again. The filter's scratch is allocated for each call, so the
+// same candidate can be generated from on several threads at once.
+CAPI int pathfinder_generate_candidate(const TrajectoryCandidate *c, Segment *segments);
+
+// As above, using a caller-provided scratch buffer of at least MAX(c->info.filter2, 1) doubles.
+CAPI int pathfinder_generate_candidate2(const TrajectoryCandidate *c, Segment *segments, double *scratch);
+
 CAPI void pf_trajectory_copy(Segment *src, Segment *dest, int length);
 
 CAPI TrajectoryInfo pf_trajectory_prepare(TrajectoryConfig c);
@@ -20,4 +53,27 @@ CAPI int pf_trajectory_create(TrajectoryInfo info, TrajectoryConfig c, Segment *
 CAPI int pf_trajectory_fromSecondOrderFilter(int filter_1_l, int filter_2_l, 
         double dt, double u, double v, double impulse, int len, Segment *t);
 
+// As above, but using a caller-provided scratch buffer of at least filter_2_l (info.filter2) doubles
+// instead of allocating one per call.
+CAPI int pf_trajectory_create2(TrajectoryInfo info, TrajectoryConfig c, Segment *seg, double *scratch);
+CAPI int pf_trajectory_fromSecondOrderFilter2(int filter_1_l, int filter_2_l, 
+        double dt, double u, double v, double impulse, int len, Segment *t, double *f1_window);
+
+// The second order filter as a resumable state, for generating the profile a block at a time.
+// f1_window must hold at least filter_2_l doubles, and stay allocated until the filter is done.
+CAPI void pf_profile_filter_begin(ProfileFilter *f, int filter_1_l, int filter_2_l, 
+        double dt, double u, double v, double impulse, double *f1_window);
+CAPI void pf_profile_filter_next(ProfileFilter *f, Segment *t, int count);
+
+// Streaming generation. Both the profile and the mapping onto the splines only ever move forward,
+// so the trajectory can be generated a block of segments at a time, in bounded memory.
+// pathfinder_stream_begin takes ownership of the candidate's arrays (as pathfinder_generate does),
+// and returns the total length of the trajectory. pathfinder_stream_next generates up to max
+// segments, returning the number generated (0 once the trajectory is complete). If the candidate has no
+// scratch the stream allocates its own, and if that fails pathfinder_stream_begin frees the candidate's
+// arrays and returns -1.
+CAPI int pathfinder_stream_begin(TrajectoryStream *s, const TrajectoryCandidate *c);
+CAPI int pathfinder_stream_next(TrajectoryStream *s, Segment *segments, int max);
+CAPI void pathfinder_stream_end(TrajectoryStream *s);
+
 #endif
\ No newline at end of file
@@ -4,8 +4,11 @@
 
 #include <stdio.h>
 
-static char error_buf[512];
-static int has_error = 0;
+// Error state is kept per thread, so concurrent generation on different threads
+// doesn't mix up (or clear) each other's errors.
+
+static PF_THREAD_LOCAL char error_buf[512];
+static PF_THREAD_LOCAL int has_error = 0;
 
 char * pathfinder_error() {
   return &error_buf[0];
@@ -13,7 +16,8 @@ char * pathfinder_error() {
 
 void pathfinder_set_error(const char *msg) {
   has_error++;
-  strcpy(error_buf, msg);
+  strncpy(error_buf, msg, sizeof(error_buf) - 1);
+  error_buf[sizeof(error_buf) - 1] = '\0';
   printf("[PATHFINDER ERROR] %s", msg);
 }
 
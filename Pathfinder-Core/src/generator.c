@@ -1,51 +1,169 @@
 #include "pathfinder.h"
 
+#include <limits.h>
+#include <stdint.h>
 #include <stdlib.h>
+#include <string.h>
 
-TrajectoryCandidate cand_LV;
+#if defined(_WIN32)
+    #include <windows.h>
+#else
+    #include <pthread.h>
+#endif
 
-int pathfinder_prepare(const Waypoint *path, int path_length, void (*fit)(Waypoint,Waypoint,Spline*), int sample_count, double dt,
-        double max_velocity, double max_acceleration, double max_jerk, TrajectoryCandidate *cand) {
-    if (path_length < 2) return -1;
+// Make sure a storage array holds at least count elements. Its contents are rebuilt on every prepare, so a
+// smaller array is replaced rather than copied. Returns NULL, with the old array freed, if it can't be.
+static void *storage_reserve(void *array, int *capacity, int count, size_t size) {
+    if (count <= *capacity) return array;
+    free(array);
+    array = malloc(count * size);
+    *capacity = array == NULL ? 0 : count;
+    return array;
+}
+
+// Fit the splines and build their arc length tables. With a tolerance the tables are adaptive, and
+// sample_count is only used as the size of each table. The arrays are kept in storage if there is one,
+// otherwise they are allocated for the candidate.
+static int prepare(const Waypoint *path, int path_length, void (*fit)(Waypoint,Waypoint,Spline*), int sample_count, double tolerance,
+        double dt, double max_velocity, double max_acceleration, double max_jerk, TrajectoryCandidate *cand, CandidateStorage *storage) {
+    if (path_length < 2) {
+        pathfinder_set_error("Prepare: a path needs at least 2 waypoints");
+        return -1;
+    }
+    if (sample_count < 1) {
+        pathfinder_set_error("Prepare: the sample count must be at least 1");
+        return -1;
+    }
     
-    cand->saptr = (Spline *)malloc((path_length - 1) * sizeof(Spline));
-    cand->laptr = (double *)malloc((path_length - 1) * sizeof(double));
+    // The profile filter's scratch only depends on the limits, so it can be allocated with the lengths
+    // (see TrajectoryCandidate.scratch) instead of on every generation
+    double filter2 = ceil((max_acceleration / max_jerk) / dt);
+    if (!(filter2 >= 0 && filter2 < INT_MAX / (int) sizeof(double))) {
+        pathfinder_set_error("Prepare: invalid configuration, check the max velocity, acceleration, jerk and dt");
+        return -1;
+    }
 
-    if (cand->saptr == NULL) {
-        pathfinder_set_error("Prepare: could not allocate splines array");
+    // The tables are indexed with ints, so their total size must fit one as well as fitting in memory
+    size_t table_size = tolerance > 0 ? PATHFINDER_ADAPTIVE_TABLE_SIZE : (size_t) sample_count + 1;
+    size_t table_total = (size_t) (path_length - 1) * table_size;
+    if (table_size > INT_MAX || table_total / table_size != (size_t) (path_length - 1) || table_total > INT_MAX
+            || table_total > SIZE_MAX / sizeof(double)) {
+        pathfinder_set_error("Prepare: could not allocate arc length table");
         return -1;
     }
+    int splines = path_length - 1, lengths = path_length - 1 + MAX((int) filter2, 1), tables = (int) table_total;
+    if (storage != NULL) {
+        storage->splines = (Spline *)storage_reserve(storage->splines, &storage->spline_capacity, splines, sizeof(Spline));
+        storage->lengths = (double *)storage_reserve(storage->lengths, &storage->length_capacity, lengths, sizeof(double));
+        storage->tables = (double *)storage_reserve(storage->tables, &storage->table_capacity, tables, sizeof(double));
+        cand->saptr = storage->splines;
+        cand->laptr = storage->lengths;
+        cand->taptr = storage->tables;
+    } else {
+        cand->saptr = (Spline *)malloc(splines * sizeof(Spline));
+        cand->laptr = (double *)malloc(lengths * sizeof(double));
+        cand->taptr = (double *)malloc(tables * sizeof(double));
+    }
 
-    if (cand->laptr == NULL) {
-        pathfinder_set_error("Prepare: could not allocate lengths array");
+    if (cand->saptr == NULL || cand->laptr == NULL || cand->taptr == NULL) {
+        if (cand->saptr == NULL)
+            pathfinder_set_error("Prepare: could not allocate splines array");
+        else if (cand->laptr == NULL)
+            pathfinder_set_error("Prepare: could not allocate lengths array");
+        else
+            pathfinder_set_error("Prepare: could not allocate arc length table");
+
+        // Storage keeps whatever it could allocate, for the next attempt
+        if (storage == NULL) {
+            free(cand->saptr);
+            free(cand->laptr);
+            free(cand->taptr);
+        }
         return -1;
     }
     double totalLength = 0;
+    double arc_error = tolerance > 0 ? 0 : NAN;
+    int arc_evaluations = 0;
     
     int i;
     for (i = 0; i < path_length-1; i++) {
         Spline s;
         fit(path[i], path[i+1], &s);
-        double dist = pf_spline_distance(&s, sample_count);
+        double dist;
+        if (tolerance > 0) {
+            double error;
+            int evaluations;
+            dist = pf_spline_distance_adaptive(&s, tolerance, cand->taptr + i * table_size, &error, &evaluations);
+            arc_error = MAX(arc_error, error);
+            arc_evaluations += evaluations;
+        } else {
+            dist = pf_spline_distance_table(&s, sample_count, cand->taptr + i * table_size);
+            arc_evaluations += sample_count + 2;
+        }
         cand->saptr[i] = s;
         cand->laptr[i] = dist;
         totalLength += dist;
     }
     
     TrajectoryConfig config = {dt, max_velocity, max_acceleration, max_jerk, 0, path[0].angle,
-        totalLength, 0, path[0].angle, sample_count};
+        totalLength, 0, path[0].angle, sample_count, tolerance};
     TrajectoryInfo info = pf_trajectory_prepare(config);
     int trajectory_length = info.length;
+
+    if (trajectory_length < 0) {
+        pathfinder_set_error("Prepare: invalid configuration, check the max velocity, acceleration, jerk and dt");
+        if (storage == NULL) {
+            free(cand->saptr);
+            free(cand->laptr);
+            free(cand->taptr);
+        }
+        return -1;
+    }
     
     cand->totalLength = totalLength;
     cand->length = trajectory_length;
     cand->path_length = path_length;
     cand->info = info;
     cand->config = config;
+    cand->arc_error = arc_error;
+    cand->arc_evaluations = arc_evaluations;
+    cand->scratch = cand->laptr + (path_length - 1);
     
     return trajectory_length;
 }
 
+int pathfinder_prepare(const Waypoint *path, int path_length, void (*fit)(Waypoint,Waypoint,Spline*), int sample_count, double dt,
+        double max_velocity, double max_acceleration, double max_jerk, TrajectoryCandidate *cand) {
+    return prepare(path, path_length, fit, sample_count, 0, dt, max_velocity, max_acceleration, max_jerk, cand, NULL);
+}
+
+int pathfinder_prepare_adaptive(const Waypoint *path, int path_length, void (*fit)(Waypoint,Waypoint,Spline*), double tolerance, double dt,
+        double max_velocity, double max_acceleration, double max_jerk, TrajectoryCandidate *cand) {
+    if (!(tolerance > 0)) {
+        pathfinder_set_error("Prepare: the arc length tolerance must be positive");
+        return -1;
+    }
+    return prepare(path, path_length, fit, PATHFINDER_ADAPTIVE_TABLE_SIZE - 1, tolerance, dt, max_velocity, max_acceleration, max_jerk, cand, NULL);
+}
+
+int pathfinder_prepare_into(const Waypoint *path, int path_length, void (*fit)(Waypoint,Waypoint,Spline*), int sample_count,
+        double tolerance, double dt, double max_velocity, double max_acceleration, double max_jerk, TrajectoryCandidate *cand,
+        CandidateStorage *storage) {
+    if (tolerance > 0)
+        sample_count = PATHFINDER_ADAPTIVE_TABLE_SIZE - 1;
+    return prepare(path, path_length, fit, sample_count, MAX(tolerance, 0), dt, max_velocity, max_acceleration, max_jerk, cand, storage);
+}
+
+void pathfinder_storage_free(CandidateStorage *storage) {
+    free(storage->splines);
+    free(storage->lengths);
+    free(storage->tables);
+    storage->splines = NULL;
+    storage->lengths = NULL;
+    storage->tables = NULL;
+    storage->spline_capacity = storage->length_capacity = storage->table_capacity = 0;
+}
+
 /********************************************************************************************
 *   LabVIEW memory allocation works different from C and a DLL call requires any memory 
 *   be allocated up front for pointers that are used as outputs (i.e. 'trajectory candidate').
@@ -57,34 +175,121 @@ int pathfinder_prepare(const Waypoint *path, int path_length, void (*fit)(Waypoi
 *   would need to know the sizeof 'Spline' and 'double' on the target and pre-allocate it.
 *   Instead, we keep it in the DLL memory and return a length instead of a status so we 
 *   an allow LabVIEW to create the segments array.
+*
+*   The candidate lives in a GeneratorContext. The functions without a context share one for the
+*   whole process, as they always have, so prepare and generate can be called from different
+*   threads (as LabVIEW may do). Calls to them are serialised by a lock. Callers that generate from
+*   more than one thread at once should create their own contexts with
+*   pathfinder_context_create_LabVIEW instead.
 *********************************************************************************************/
+static GeneratorContext ctx_LV;
+
+#if defined(_WIN32)
+    static SRWLOCK lock_LV = SRWLOCK_INIT;
+    #define LOCK_LV() AcquireSRWLockExclusive(&lock_LV)
+    #define UNLOCK_LV() ReleaseSRWLockExclusive(&lock_LV)
+#else
+    static pthread_mutex_t lock_LV = PTHREAD_MUTEX_INITIALIZER;
+    #define LOCK_LV() pthread_mutex_lock(&lock_LV)
+    #define UNLOCK_LV() pthread_mutex_unlock(&lock_LV)
+#endif
+
 int pathfinder_prepare_LabVIEW(const Waypoint *path, int path_length, int sample_count, double dt,
         double max_velocity, double max_acceleration, double max_jerk)
 {
-    return pathfinder_prepare(path,path_length,FIT_HERMITE_CUBIC,sample_count,dt,max_velocity,max_acceleration,max_jerk,&cand_LV);
+    LOCK_LV();
+    int ret = pathfinder_context_prepare_LabVIEW(&ctx_LV, path, path_length, sample_count, dt, max_velocity, max_acceleration, max_jerk);
+    UNLOCK_LV();
+    return ret;
 }
 
 int pathfinder_generate_LabVIEW(Segment *segments)
 {
-    return pathfinder_generate(&cand_LV,segments);
+    LOCK_LV();
+    int ret = pathfinder_context_generate_LabVIEW(&ctx_LV, segments);
+    UNLOCK_LV();
+    return ret;
 }
 
-int pathfinder_generate(TrajectoryCandidate *c, Segment *segments) {
-    int trajectory_length = c->length;
+GeneratorContext *pathfinder_context_create_LabVIEW() {
+    return (GeneratorContext *)calloc(1, sizeof(GeneratorContext));
+}
+
+void pathfinder_context_free_LabVIEW(GeneratorContext *ctx) {
+    if (ctx == NULL) return;
+    if (ctx->prepared) {
+        free(ctx->candidate.saptr);
+        free(ctx->candidate.laptr);
+        free(ctx->candidate.taptr);
+    }
+    free(ctx);
+}
+
+static void context_store_error(GeneratorContext *ctx) {
+    strncpy(ctx->error, pathfinder_error(), sizeof(ctx->error) - 1);
+    ctx->error[sizeof(ctx->error) - 1] = '\0';
+}
+
+int pathfinder_context_prepare_LabVIEW(GeneratorContext *ctx, const Waypoint *path, int path_length, int sample_count,
+        double dt, double max_velocity, double max_acceleration, double max_jerk) {
+    // Preparing twice without generating in between would otherwise leak the first candidate
+    if (ctx->prepared) {
+        free(ctx->candidate.saptr);
+        free(ctx->candidate.laptr);
+        free(ctx->candidate.taptr);
+        ctx->prepared = 0;
+    }
+    ctx->error[0] = '\0';
+
+    pathfinder_clear_errors();
+    int ret = pathfinder_prepare(path, path_length, FIT_HERMITE_CUBIC, sample_count, dt, max_velocity, max_acceleration, max_jerk, &ctx->candidate);
+    if (ret < 0) {
+        context_store_error(ctx);
+        return ret;
+    }
+    ctx->prepared = 1;
+    return ret;
+}
+
+int pathfinder_context_generate_LabVIEW(GeneratorContext *ctx, Segment *segments) {
+    if (!ctx->prepared) {
+        strcpy(ctx->error, "Generate: context has not been prepared");
+        return -1;
+    }
+    ctx->error[0] = '\0';
+
+    // pathfinder_generate frees the candidate whether it succeeds or not
+    pathfinder_clear_errors();
+    int ret = pathfinder_generate(&ctx->candidate, segments);
+    ctx->prepared = 0;
+    if (ret < 0)
+        context_store_error(ctx);
+    return ret;
+}
+
+int pathfinder_context_error_LabVIEW(GeneratorContext *ctx, char *buffer, int buffer_length) {
+    int len = (int) strlen(ctx->error);
+    if (buffer != NULL && buffer_length > 0) {
+        strncpy(buffer, ctx->error, buffer_length - 1);
+        buffer[buffer_length - 1] = '\0';
+    }
+    return len;
+}
+
+// Map the segments' positions onto the splines, setting their x, y and heading. The cursor
+// keeps the current spline between calls, so a trajectory can be mapped a block at a time.
+static void map_segments(const TrajectoryCandidate *c, SplineCursor *cursor, Segment *segments, int count) {
     int path_length = c->path_length;
-    double totalLength = c->totalLength;
-    
     Spline *splines = (c->saptr);
     double *splineLengths = (c->laptr);
+    double *arcTables = (c->taptr);
+    int sample_count = c->config.sample_count;
     
-    int trajectory_status = pf_trajectory_create(c->info, c->config, segments);
-    if (trajectory_status < 0) return trajectory_status;
-    
-    int spline_i = 0;
-    double spline_pos_initial = 0, splines_complete = 0;
+    int spline_i = cursor->spline_i, table_cursor = cursor->table_cursor;
+    double spline_pos_initial = cursor->spline_pos_initial, splines_complete = cursor->splines_complete;
     
     int i;
-    for (i = 0; i < trajectory_length; ++i) {
+    for (i = 0; i < count; ++i) {
         double pos = segments[i].position;
 
         int found = 0;
@@ -92,7 +297,10 @@ int pathfinder_generate(TrajectoryCandidate *c, Segment *segments) {
             double pos_relative = pos - spline_pos_initial;
             if (pos_relative <= splineLengths[spline_i]) {
                 Spline si = splines[spline_i];
-                double percentage = pf_spline_progress_for_distance(si, pos_relative, c->config.sample_count);
+                double percentage = c->config.tolerance > 0
+                    ? pf_spline_progress_for_distance_adaptive(si, arcTables + spline_i * (sample_count + 1), pos_relative, &table_cursor)
+                    : pf_spline_progress_for_distance_table(si, arcTables + spline_i * (sample_count + 1),
+                        pos_relative, sample_count, &table_cursor);
                 Coord coords = pf_spline_coords(si, percentage);
                 segments[i].heading = pf_spline_angle(si, percentage);
                 segments[i].x = coords.x;
@@ -102,6 +310,7 @@ int pathfinder_generate(TrajectoryCandidate *c, Segment *segments) {
                 splines_complete += splineLengths[spline_i];
                 spline_pos_initial = splines_complete;
                 spline_i += 1;
+                table_cursor = 0;
             } else {
                 Spline si = splines[path_length - 2];
                 segments[i].heading = pf_spline_angle(si, 1.0);
@@ -113,8 +322,84 @@ int pathfinder_generate(TrajectoryCandidate *c, Segment *segments) {
         }
     }
     
+    cursor->spline_i = spline_i;
+    cursor->table_cursor = table_cursor;
+    cursor->spline_pos_initial = spline_pos_initial;
+    cursor->splines_complete = splines_complete;
+}
+
+int pathfinder_generate(TrajectoryCandidate *c, Segment *segments) {
+    int ret = c->scratch != NULL ? pathfinder_generate_candidate2(c, segments, c->scratch)
+        : pathfinder_generate_candidate(c, segments);
+    
     free(c->saptr);
     free(c->laptr);
+    free(c->taptr);
     
-    return trajectory_length;
-}
\ No newline at end of file
+    return ret;
+}
+
+int pathfinder_generate_candidate(const TrajectoryCandidate *c, Segment *segments) {
+    double *scratch = (double *)malloc(MAX(c->info.filter2, 1) * sizeof(double));
+    if (scratch == NULL) {
+        pathfinder_set_error("Trajectory: could not allocate filter buffer");
+        return -1;
+    }
+    int ret = pathfinder_generate_candidate2(c, segments, scratch);
+    free(scratch);
+    return ret;
+}
+
+int pathfinder_generate_candidate2(const TrajectoryCandidate *c, Segment *segments, double *scratch) {
+    int trajectory_status = pf_trajectory_create2(c->info, c->config, segments, scratch);
+    if (trajectory_status < 0) return trajectory_status;
+    
+    SplineCursor cursor = {0, 0, 0, 0};
+    map_segments(c, &cursor, segments, c->length);
+    
+    return c->length;
+}
+
+int pathfinder_stream_begin(TrajectoryStream *s, const TrajectoryCandidate *c) {
+    SplineCursor cursor = {0, 0, 0, 0};
+    s->candidate = *c;
+    s->cursor = cursor;
+    s->index = 0;
+    // The filter's window is the candidate's scratch, freed with its arrays, or the stream's own if it has none
+    double *window = c->scratch;
+    if (window == NULL) {
+        window = (double *)malloc(MAX(c->info.filter2, 1) * sizeof(double));
+        if (window == NULL) {
+            pathfinder_set_error("Stream: could not allocate filter buffer");
+            s->filter.f1_window = NULL;
+            pathfinder_stream_end(s);
+            return -1;
+        }
+    }
+    pf_profile_filter_begin(&s->filter, c->info.filter1, c->info.filter2, c->info.dt, c->info.u, c->info.v, c->info.impulse,
+        window);
+    return c->length;
+}
+
+int pathfinder_stream_next(TrajectoryStream *s, Segment *segments, int max) {
+    int count = MIN(max, s->candidate.length - s->index);
+    if (count <= 0) return 0;
+    
+    // The heading pf_trajectory_create would give is replaced by the spline's, so it isn't calculated here
+    pf_profile_filter_next(&s->filter, segments, count);
+    map_segments(&s->candidate, &s->cursor, segments, count);
+    s->index += count;
+    return count;
+}
+
+void pathfinder_stream_end(TrajectoryStream *s) {
+    if (s->candidate.scratch == NULL)
+        free(s->filter.f1_window);
+    free(s->candidate.saptr);
+    free(s->candidate.laptr);
+    free(s->candidate.taptr);
+    s->filter.f1_window = NULL;
+    s->candidate.saptr = NULL;
+    s->candidate.laptr = NULL;
+    s->candidate.taptr = NULL;
+}
@@ -0,0 +1,153 @@
+#include "pathfinder.h"
+
+#include <limits.h>
+#include <stdint.h>
+#include <stdlib.h>
+#include <string.h>
+
+static void plan_fit(PathPlan *plan, int i) {
+    Spline *s = &plan->splines[i];
+    plan->fit(plan->points[i], plan->points[i + 1], s);
+    plan->lengths[i] = pf_spline_distance_table(s, plan->sample_count, plan->tables + i * (plan->sample_count + 1));
+}
+
+int pathfinder_plan_create(PathPlan *plan, const Waypoint *path, int path_length, void (*fit)(Waypoint,Waypoint,Spline*),
+        int sample_count, double dt, double max_velocity, double max_acceleration, double max_jerk) {
+    if (path_length < 2) {
+        pathfinder_set_error("Plan: a path needs at least 2 waypoints");
+        return -1;
+    }
+    if (sample_count < 1) {
+        pathfinder_set_error("Plan: the sample count must be at least 1");
+        return -1;
+    }
+    // As in pathfinder_prepare, the tables are indexed with ints, so their total size must fit one
+    size_t table_size = (size_t) sample_count + 1;
+    size_t table_total = (size_t) (path_length - 1) * table_size;
+    if (table_size > INT_MAX || table_total / table_size != (size_t) (path_length - 1) || table_total > INT_MAX
+            || table_total > SIZE_MAX / sizeof(double)) {
+        pathfinder_set_error("Plan: could not allocate arc length table");
+        return -1;
+    }
+
+    plan->scratch = NULL;
+    plan->scratch_size = 0;
+
+    plan->points = (Waypoint *)malloc(path_length * sizeof(Waypoint));
+    plan->splines = (Spline *)malloc((path_length - 1) * sizeof(Spline));
+    plan->lengths = (double *)malloc((path_length - 1) * sizeof(double));
+    plan->tables = (double *)malloc(table_total * sizeof(double));
+
+    if (plan->points == NULL || plan->splines == NULL || plan->lengths == NULL || plan->tables == NULL) {
+        pathfinder_set_error("Plan: could not allocate plan");
+        pathfinder_plan_free(plan);
+        return -1;
+    }
+
+    memcpy(plan->points, path, path_length * sizeof(Waypoint));
+    plan->path_length = path_length;
+    plan->fit = fit;
+    plan->sample_count = sample_count;
+    if (pathfinder_plan_configure(plan, dt, max_velocity, max_acceleration, max_jerk) < 0) {
+        pathfinder_plan_free(plan);
+        return -1;
+    }
+
+    int i;
+    for (i = 0; i < path_length - 1; i++)
+        plan_fit(plan, i);
+    return 0;
+}
+
+void pathfinder_plan_free(PathPlan *plan) {
+    free(plan->points);
+    free(plan->splines);
+    free(plan->lengths);
+    free(plan->tables);
+    free(plan->scratch);
+    plan->points = NULL;
+    plan->splines = NULL;
+    plan->lengths = NULL;
+    plan->tables = NULL;
+    plan->scratch = NULL;
+    plan->scratch_size = 0;
+    plan->path_length = 0;
+}
+
+int pathfinder_plan_set_waypoint(PathPlan *plan, int index, Waypoint waypoint) {
+    if (index < 0 || index >= plan->path_length) {
+        pathfinder_set_error("Plan: waypoint index out of range");
+        return -1;
+    }
+
+    plan->points[index] = waypoint;
+    if (index > 0)
+        plan_fit(plan, index - 1);
+    if (index < plan->path_length - 1)
+        plan_fit(plan, index);
+    return 0;
+}
+
+int pathfinder_plan_configure(PathPlan *plan, double dt, double max_velocity, double max_acceleration, double max_jerk) {
+    // As pf_trajectory_prepare finds the second filter's length
+    double filter2 = ceil((max_acceleration / max_jerk) / dt);
+    if (!(filter2 >= 0 && filter2 < INT_MAX / (int) sizeof(double))) {
+        pathfinder_set_error("Plan: invalid configuration, check the max velocity, acceleration, jerk and dt");
+        return -1;
+    }
+    int size = MAX((int) filter2, 1);
+    if (size > plan->scratch_size) {
+        double *scratch = (double *)realloc(plan->scratch, size * sizeof(double));
+        if (scratch == NULL) {
+            pathfinder_set_error("Plan: could not allocate filter buffer");
+            return -1;
+        }
+        plan->scratch = scratch;
+        plan->scratch_size = size;
+    }
+
+    plan->dt = dt;
+    plan->max_velocity = max_velocity;
+    plan->max_acceleration = max_acceleration;
+    plan->max_jerk = max_jerk;
+    return 0;
+}
+
+int pathfinder_plan_prepare(const PathPlan *plan, TrajectoryCandidate *cand) {
+    double totalLength = 0;
+    int i;
+    for (i = 0; i < plan->path_length - 1; i++)
+        totalLength += plan->lengths[i];
+
+    // Same as pathfinder_prepare, so a plan generates exactly what generating from scratch would
+    TrajectoryConfig config = {plan->dt, plan->max_velocity, plan->max_acceleration, plan->max_jerk, 0, plan->points[0].angle,
+        totalLength, 0, plan->points[0].angle, plan->sample_count, 0};
+    TrajectoryInfo info = pf_trajectory_prepare(config);
+
+    if (info.length < 0) {
+        pathfinder_set_error("Prepare: invalid configuration, check the max velocity, acceleration, jerk and dt");
+        return -1;
+    }
+
+    cand->saptr = plan->splines;
+    cand->laptr = plan->lengths;
+    cand->taptr = plan->tables;
+    cand->totalLength = totalLength;
+    cand->length = info.length;
+    cand->path_length = plan->path_length;
+    cand->info = info;
+    cand->config = config;
+    // The tables were built when the splines were fit, so preparing doesn't integrate anything
+    cand->arc_error = NAN;
+    cand->arc_evaluations = 0;
+    // The plan's scratch is only safe to use with the plan locked, so the candidate doesn't share it
+    cand->scratch = NULL;
+    return info.length;
+}
+
+int pathfinder_plan_generate(const PathPlan *plan, Segment *segments) {
+    TrajectoryCandidate cand;
+    if (pathfinder_plan_prepare(plan, &cand) < 0)
+        return -1;
+    return pathfinder_generate_candidate2(&cand, segments, plan->scratch);
+}
@@ -30,6 +30,10 @@ double pf_spline_angle(Spline s, double percentage) {
 }
 
 double pf_spline_distance(Spline *s, int sample_count) {
+    return pf_spline_distance_table(s, sample_count, NULL);
+}
+
+double pf_spline_distance_table(Spline *s, int sample_count, double *table) {
     double sample_count_d = (double) sample_count;
     
     double a = s->a; double b = s->b; double c = s->c; 
@@ -48,6 +52,7 @@ double pf_spline_distance(Spline *s, int sample_count) {
         dydt = pf_spline_deriv_2(a, b, c, d, e, knot, t);
         integrand = sqrt(1 + dydt*dydt) / sample_count_d;
         arc_length += (integrand + last_integrand) / 2;
+        if (table != NULL) table[i] = arc_length;
         last_integrand = integrand;
     }
     double al = knot * arc_length;
@@ -87,4 +92,185 @@ double pf_spline_progress_for_distance(Spline s, double distance, int sample_cou
             / (arc_length - last_arc_length) - 1) / sample_count_d;
     }
     return interpolated;
-}
\ No newline at end of file
+}
+
+double pf_spline_progress_for_distance_table(Spline s, const double *table, double distance, int sample_count, int *cursor) {
+    double sample_count_d = (double) sample_count;
+    
+    distance /= s.knot_distance;
+    
+    // Find the first sample whose cumulative arc length passes the distance. Callers querying in
+    // increasing order of distance can pass a cursor to scan forward from the previous result
+    // instead of searching the whole table.
+    int i;
+    if (cursor != NULL && *cursor >= 0 && *cursor <= sample_count 
+            && (*cursor == 0 || table[*cursor - 1] <= distance)) {
+        i = *cursor;
+        while (i <= sample_count && table[i] <= distance) i++;
+    } else {
+        int lo = 0, hi = sample_count + 1;
+        while (lo < hi) {
+            int mid = lo + (hi - lo) / 2;
+            if (table[mid] > distance) hi = mid;
+            else lo = mid + 1;
+        }
+        i = lo;
+    }
+    if (cursor != NULL) *cursor = i;
+    
+    if (i > sample_count) return 1.0;
+    
+    double arc_length = table[i];
+    double last_arc_length = i > 0 ? table[i - 1] : 0;
+    
+    double interpolated = i / sample_count_d;
+    if (arc_length != last_arc_length) {
+        interpolated += ((distance - last_arc_length)
+            / (arc_length - last_arc_length) - 1) / sample_count_d;
+    }
+    return interpolated;
+}
+
+// 5 point Gauss-Legendre nodes and weights on [-1, 1]. The centre node is first, so its
+// value can be handed down as the midpoint of the panel when it is split.
+static const double gl_nodes[5] = { 0.0, -0.5384693101056831, 0.5384693101056831, -0.9061798459386640, 0.9061798459386640 };
+static const double gl_weights[5] = { 0.5688888888888889, 0.4786286704993665, 0.4786286704993665, 0.2369268850561891, 0.2369268850561891 };
+
+typedef struct {
+    double a, b, c, d, e, knot, tolerance;
+    double *knots;
+    int panels, evaluations;
+    double length_error, map_error;
+} AdaptiveState;
+
+static double adaptive_integrand(AdaptiveState *st, double t) {
+    double dydt = pf_spline_deriv_2(st->a, st->b, st->c, st->d, st->e, st->knot, t);
+    st->evaluations++;
+    return sqrt(1 + dydt*dydt);
+}
+
+static double adaptive_gauss(AdaptiveState *st, double t0, double t1, double *mid) {
+    double half = (t1 - t0) / 2, centre = (t0 + t1) / 2, sum = 0;
+    int i;
+    for (i = 0; i < 5; i++) {
+        double g = adaptive_integrand(st, centre + half * gl_nodes[i]);
+        if (i == 0) *mid = g;
+        sum += gl_weights[i] * g;
+    }
+    return sum * half;
+}
+
+// Inverse of the arc length over a panel, as a cubic Hermite in t through the panel's ends
+// with slopes dt/ds = 1 / g.
+static double adaptive_hermite(double u, double h, double t0, double t1, double g0, double g1) {
+    double u2 = u * u, u3 = u2 * u;
+    return (2*u3 - 3*u2 + 1) * t0 + (u3 - 2*u2 + u) * h / g0
+        + (-2*u3 + 3*u2) * t1 + (u3 - u2) * h / g1;
+}
+
+// Refine a panel using at most budget panels, returning the number used. Each half gets half the
+// budget, with whatever the first half doesn't use passed on to the second, so a spline that runs
+// out of panels is left evenly short of the tolerance rather than only at its end.
+static int adaptive_panel(AdaptiveState *st, double t0, double t1, double g0, double g1, double whole, double gm, int depth, int budget) {
+    double tm = (t0 + t1) / 2, gl, gr;
+    double left = adaptive_gauss(st, t0, tm, &gl);
+    double right = adaptive_gauss(st, tm, t1, &gr);
+    
+    // Error of the (coarser) whole panel estimate, and of the inverse at the midpoint, in meters
+    double length_error = fabs(whole - (left + right)) * st->knot;
+    double map_error = fabs(adaptive_hermite(left / (left + right), left + right, t0, t1, g0, g1) - tm) * gm * st->knot;
+    
+    // Always split twice, as a panel symmetric about its midpoint has no inverse error there
+    if (budget >= 2 && (depth < 2 || length_error > st->tolerance / 2 * (t1 - t0) || map_error > st->tolerance / 2)) {
+        int used = adaptive_panel(st, t0, tm, g0, gm, left, gl, depth + 1, budget / 2);
+        return used + adaptive_panel(st, tm, t1, gm, g1, right, gr, depth + 1, budget - used);
+    }
+    
+    double *last = st->knots + 3 * st->panels;
+    double *next = last + 3;
+    next[0] = last[0] + left + right;
+    next[1] = t1;
+    next[2] = g1;
+    st->panels++;
+    st->length_error += length_error;
+    if (map_error > st->map_error) st->map_error = map_error;
+    return 1;
+}
+
+double pf_spline_distance_adaptive(Spline *s, double tolerance, double *table, double *error, int *evaluations) {
+    AdaptiveState st = { s->a, s->b, s->c, s->d, s->e, s->knot_distance, tolerance, table + 1, 0, 0, 0, 0 };
+    
+    double g0 = adaptive_integrand(&st, 0);
+    double g1 = adaptive_integrand(&st, 1);
+    double gm;
+    double whole = adaptive_gauss(&st, 0, 1, &gm);
+    
+    st.knots[0] = 0;
+    st.knots[1] = 0;
+    st.knots[2] = g0;
+    adaptive_panel(&st, 0, 1, g0, g1, whole, gm, 0, PATHFINDER_ADAPTIVE_MAX_PANELS);
+    table[0] = st.panels;
+    
+    if (error != NULL) *error = st.length_error + st.map_error;
+    if (evaluations != NULL) *evaluations = st.evaluations;
+    
+    double al = s->knot_distance * st.knots[3 * st.panels];
+    s->arc_length = al;
+    return al;
+}
+
+double pf_spline_progress_for_distance_adaptive(Spline s, const double *table, double distance, int *cursor) {
+    int panels = (int) table[0];
+    const double *knots = table + 1;
+    
+    distance /= s.knot_distance;
+    
+    // Find the first knot past the distance, as with the fixed tables
+    int i;
+    if (cursor != NULL && *cursor >= 1 && *cursor <= panels 
+            && knots[3 * (*cursor - 1)] <= distance) {
+        i = *cursor;
+        while (i <= panels && knots[3 * i] <= distance) i++;
+    } else {
+        int lo = 1, hi = panels + 1;
+        while (lo < hi) {
+            int mid = lo + (hi - lo) / 2;
+            if (knots[3 * mid] > distance) hi = mid;
+            else lo = mid + 1;
+        }
+        i = lo;
+    }
+    if (cursor != NULL) *cursor = i;
+    
+    if (i > panels) return 1.0;
+    
+    const double *k0 = knots + 3 * (i - 1), *k1 = knots + 3 * i;
+    double h = k1[0] - k0[0];
+    return adaptive_hermite((distance - k0[0]) / h, h, k0[1], k1[1], k0[2], k1[2]);
+}
+
+void pf_spline_evaluate(const Spline *s, const double *percentages, int count, double *x, double *y, double *heading) {
+    double a = s->a, b = s->b, c = s->c, d = s->d, e = s->e, knot = s->knot_distance;
+    double cos_theta = cos(s->angle_offset), sin_theta = sin(s->angle_offset);
+    double x_offset = s->x_offset, y_offset = s->y_offset;
+    
+    // Clamped into x first, as the comparisons would otherwise stop the main loop from being vectorized
+    int i;
+    for (i = 0; i < count; i++)
+        x[i] = MAX(MIN(percentages[i], 1), 0) * knot;
+    
+    for (i = 0; i < count; i++) {
+        double u = x[i];
+        double v = ((((a*u + b)*u + c)*u + d)*u + e)*u;
+        x[i] = u * cos_theta - v * sin_theta + x_offset;
+        y[i] = u * sin_theta + v * cos_theta + y_offset;
+    }
+    
+    if (heading == NULL) return;
+    
+    // As with pf_spline_angle, the percentage isn't clamped for the angle
+    for (i = 0; i < count; i++) {
+        double u = percentages[i] * knot;
+        heading[i] = bound_radians(atan((((5*a*u + 4*b)*u + 3*c)*u + 2*d)*u + e) + s->angle_offset);
+    }
+}
@@ -41,7 +41,18 @@ TrajectoryInfo pf_trajectory_prepare(TrajectoryConfig c) {
 }
 
 int pf_trajectory_create(TrajectoryInfo info, TrajectoryConfig c, Segment *seg) {
-    int ret = pf_trajectory_fromSecondOrderFilter(info.filter1, info.filter2, info.dt, info.u, info.v, info.impulse, info.length, seg);
+    double *scratch = (double *)malloc(MAX(info.filter2, 1) * sizeof(double));
+    if (scratch == NULL) {
+        pathfinder_set_error("Trajectory: could not allocate filter buffer");
+        return -1;
+    }
+    int ret = pf_trajectory_create2(info, c, seg, scratch);
+    free(scratch);
+    return ret;
+}
+
+int pf_trajectory_create2(TrajectoryInfo info, TrajectoryConfig c, Segment *seg, double *scratch) {
+    int ret = pf_trajectory_fromSecondOrderFilter2(info.filter1, info.filter2, info.dt, info.u, info.v, info.impulse, info.length, seg, scratch);
     
     if (ret < 0) {
         return ret;
@@ -57,20 +68,61 @@ int pf_trajectory_create(TrajectoryInfo info, TrajectoryConfig c, Segment *seg)
 
 int pf_trajectory_fromSecondOrderFilter(int filter_1_l, int filter_2_l, 
         double dt, double u, double v, double impulse, int len, Segment *t) {
-    Segment last_section = {dt, 0, 0, 0, u, 0, 0};
-    
+    double *scratch = (double *)malloc(MAX(filter_2_l, 1) * sizeof(double));
+    if (scratch == NULL) {
+        pathfinder_set_error("Trajectory: could not allocate filter buffer");
+        return -1;
+    }
+    int ret = pf_trajectory_fromSecondOrderFilter2(filter_1_l, filter_2_l, dt, u, v, impulse, len, t, scratch);
+    free(scratch);
+    return ret;
+}
+
+int pf_trajectory_fromSecondOrderFilter2(int filter_1_l, int filter_2_l, 
+        double dt, double u, double v, double impulse, int len, Segment *t, double *f1_window) {
     if (len < 0) {
-        // Error
+        pathfinder_set_error("Trajectory: invalid configuration, the trajectory has a negative length");
         return -1;
     }
     
-    // double f1_buffer[len];
-    double *f1_buffer = (double *)malloc(len * sizeof(double));       // VS doesn't support VLAs
-    f1_buffer[0] = (u / v) * filter_1_l;
+    ProfileFilter f;
+    pf_profile_filter_begin(&f, filter_1_l, filter_2_l, dt, u, v, impulse, f1_window);
+    pf_profile_filter_next(&f, t, len);
+    return 0;
+}
+
+void pf_profile_filter_begin(ProfileFilter *f, int filter_1_l, int filter_2_l, 
+        double dt, double u, double v, double impulse, double *f1_window) {
+    Segment last_section = {dt, 0, 0, 0, u, 0, 0};
+    
+    f->filter_1_l = filter_1_l;
+    f->filter_2_l = filter_2_l;
+    f->window = MAX(filter_2_l, 1);
+    f->index = 0;
+    f->dt = dt;
+    f->v = v;
+    f->impulse = impulse;
+    f->f1_last = (u / v) * filter_1_l;
+    f->f2_sum = 0;
+    f->f1_window = f1_window;
+    f->last_section = last_section;
+}
+
+void pf_profile_filter_next(ProfileFilter *f, Segment *t, int count) {
+    // Work on locals, so the compiler can keep the state in registers across the loop
+    int filter_1_l = f->filter_1_l, filter_2_l = f->filter_2_l, window = f->window;
+    double dt = f->dt, v = f->v, impulse = f->impulse;
+    double f1_last = f->f1_last, f2_sum = f->f2_sum;
+    double *f1_window = f->f1_window;
+    Segment last_section = f->last_section;
     double f2;
     
-    int i;
-    for (i = 0; i < len; i++) {
+    // The second filter is a moving sum over the last filter_2_l outputs of the first. Rather than
+    // re-summing the window for every segment, keep a running sum and the window contents in a ring
+    // buffer, adding the newest value and dropping the one that falls out.
+    int n;
+    for (n = 0; n < count; n++) {
+        int i = f->index + n;
         double input = MIN(impulse, 1);
         if (input < 1) {
             input -= 1;
@@ -79,35 +131,33 @@ int pf_trajectory_fromSecondOrderFilter(int filter_1_l, int filter_2_l,
             impulse -= input;
         }
 
-        double f1_last;
-        
-        if (i > 0) f1_last = f1_buffer[i - 1];
-        else f1_last = f1_buffer[0];
-
-        f1_buffer[i] = MAX(0.0, MIN(filter_1_l, f1_last + input));
+        double f1 = MAX(0.0, MIN(filter_1_l, f1_last + input));
+        f1_last = f1;
 
-        f2 = 0;
-        int j;
-        for (j = 0; j < filter_2_l; ++j) {
-            if (i - j < 0) break;
+        int slot = i % window;
+        if (i >= window) f2_sum -= f1_window[slot];
+        f1_window[slot] = f1;
+        f2_sum += f1;
 
-            f2 += f1_buffer[i - j];
-        }
-        f2 = f2 / filter_1_l;
+        f2 = f2_sum / filter_1_l;
 
-        t[i].velocity = f2 / filter_2_l * v;
+        t[n].velocity = f2 / filter_2_l * v;
 
-        t[i].position = (last_section.velocity + t[i].velocity) / 2.0 * dt + last_section.position;
+        t[n].position = (last_section.velocity + t[n].velocity) / 2.0 * dt + last_section.position;
 
-        t[i].x = t[i].position;
-        t[i].y = 0;
+        t[n].x = t[n].position;
+        t[n].y = 0;
 
-        t[i].acceleration = (t[i].velocity - last_section.velocity) / dt;
-        t[i].jerk = (t[i].acceleration - last_section.acceleration) / dt;
-        t[i].dt = dt;
+        t[n].acceleration = (t[n].velocity - last_section.velocity) / dt;
+        t[n].jerk = (t[n].acceleration - last_section.acceleration) / dt;
+        t[n].dt = dt;
 
-        last_section = t[i];
+        last_section = t[n];
     }
-    free(f1_buffer);
-    return 0;
-}
\ No newline at end of file
+    
+    f->index += count;
+    f->impulse = impulse;
+    f->f1_last = f1_last;
+    f->f2_sum = f2_sum;
+    f->last_section = last_section;
+}
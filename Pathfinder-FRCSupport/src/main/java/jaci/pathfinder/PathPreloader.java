@@ -0,0 +1,204 @@
+package jaci.pathfinder;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import jaci.pathfinder.followers.DistanceFollower;
+import jaci.pathfinder.followers.EncoderFollower;
+
+/**
+ * Loads every trajectory in a paths directory in the background, so they are ready by the time autonomous starts.
+ * Create one in robotInit, usually with {@link PathfinderFRC#preloadTrajectories()}, and get trajectories from it
+ * instead of {@link PathfinderFRC#getTrajectory(String)}.
+ *
+ * The directory is listed when the preloader is created, and every ".pf1.csv" file in it is parsed in parallel on
+ * background threads. Once all are loaded, the followers are run over them, so their code is already compiled
+ * and the trajectories are in memory when the first real control loop runs.
+ */
+public class PathPreloader {
+
+  /**
+   * The state of a path in the preloader
+   */
+  public static enum Status {
+    /**
+     * The path is still being loaded
+     */
+    LOADING,
+    /**
+     * The path has been loaded
+     */
+    LOADED,
+    /**
+     * The path could not be loaded
+     */
+    FAILED,
+    /**
+     * There is no such path in the directory
+     */
+    MISSING
+  }
+
+  static final String EXTENSION = ".pf1.csv";
+
+  private final File directory;
+  private final Map<String, CompletableFuture<Trajectory>> paths;
+  private final CompletableFuture<Void> ready;
+
+  /**
+   * Start loading every path in a directory, on daemon threads that stop once loading is done
+   *
+   * @param directory The directory holding the ".pf1.csv" files
+   * @param cache The cache to load through, or null to read every file
+   */
+  public PathPreloader(File directory, TrajectoryCache cache) {
+    this.directory = directory;
+
+    File[] files = directory.listFiles((dir, name) -> name.endsWith(EXTENSION));
+    Map<String, File> found = new TreeMap<>();
+    if (files != null) {
+      for (File f : files)
+        found.put(f.getName().substring(0, f.getName().length() - EXTENSION.length()), f);
+    }
+
+    int threads = Math.max(1, Math.min(found.size(), Runtime.getRuntime().availableProcessors()));
+    ExecutorService executor = Executors.newFixedThreadPool(threads, r -> {
+      Thread t = new Thread(r, "Pathfinder path preloader");
+      t.setDaemon(true);
+      // Leave the robot's own threads the processor while loading
+      t.setPriority(Thread.MIN_PRIORITY);
+      return t;
+    });
+
+    Map<String, CompletableFuture<Trajectory>> paths = new TreeMap<>();
+    for (Map.Entry<String, File> entry : found.entrySet()) {
+      File file = entry.getValue();
+      paths.put(entry.getKey(), CompletableFuture.supplyAsync(() -> {
+        try {
+          return cache == null ? Pathfinder.readFromCSV(file) : cache.readFromCSV(file);
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      }, executor));
+    }
+    this.paths = Collections.unmodifiableMap(paths);
+
+    CompletableFuture<?>[] all = paths.values().toArray(new CompletableFuture<?>[0]);
+    // Warm up even if some paths failed, with whichever did load
+    this.ready = CompletableFuture.allOf(all)
+        .handle((v, e) -> null)
+        .thenRunAsync(this::warmUp, executor)
+        .whenComplete((v, e) -> executor.shutdown());
+  }
+
+  /**
+   * Run both followers over every loaded path, the way a control loop would. This gets the follower code compiled
+   * before it's needed, instead of running slowly during the first few cycles of autonomous.
+   */
+  private void warmUp() {
+    DistanceFollower distance = new DistanceFollower();
+    EncoderFollower encoder = new EncoderFollower();
+    distance.configurePIDVA(1, 0, 0, 1, 0);
+    encoder.configurePIDVA(1, 0, 0, 1, 0);
+    encoder.configureEncoder(0, 1000, 0.1);
+
+    for (CompletableFuture<Trajectory> path : paths.values()) {
+      if (path.isCompletedExceptionally()) continue;
+      Trajectory trajectory = path.join();
+
+      distance.setTrajectory(trajectory);
+      encoder.setTrajectory(trajectory);
+      for (int i = 0; i < trajectory.length(); i++) {
+        double position = trajectory.getPosition(i);
+        distance.calculate(position);
+        encoder.calculate((int) (position / (Math.PI * 0.1) * 1000));
+      }
+    }
+  }
+
+  /**
+   * Get a trajectory without waiting for it to load
+   *
+   * @param name The name of the path, e.g. "testtraj" for "testtraj.pf1.csv"
+   * @return The Trajectory, or null if it is still loading. See {@link #getStatus(String)}.
+   * @throws FileNotFoundException if there is no such path in the directory
+   * @throws IOException if the path could not be loaded
+   */
+  public Trajectory getTrajectory(String name) throws IOException {
+    CompletableFuture<Trajectory> path = future(name);
+    if (!path.isDone()) return null;
+    return result(path);
+  }
+
+  /**
+   * Get a trajectory, waiting for it to load if it hasn't yet
+   *
+   * @param name The name of the path, e.g. "testtraj" for "testtraj.pf1.csv"
+   * @return The Trajectory
+   * @throws FileNotFoundException if there is no such path in the directory
+   * @throws IOException if the path could not be loaded
+   */
+  public Trajectory awaitTrajectory(String name) throws IOException {
+    return result(future(name));
+  }
+
+  private CompletableFuture<Trajectory> future(String name) throws FileNotFoundException {
+    CompletableFuture<Trajectory> path = paths.get(name);
+    if (path == null)
+      throw new FileNotFoundException("No path " + name + EXTENSION + " in " + directory);
+    return path;
+  }
+
+  private static Trajectory result(CompletableFuture<Trajectory> path) throws IOException {
+    try {
+      return path.join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof UncheckedIOException)
+        throw ((UncheckedIOException) e.getCause()).getCause();
+      throw e;
+    }
+  }
+
+  /**
+   * @param name The name of the path
+   * @return Whether the path is loading, loaded, failed to load, or doesn't exist
+   */
+  public Status getStatus(String name) {
+    CompletableFuture<Trajectory> path = paths.get(name);
+    if (path == null) return Status.MISSING;
+    if (!path.isDone()) return Status.LOADING;
+    return path.isCompletedExceptionally() ? Status.FAILED : Status.LOADED;
+  }
+
+  /**
+   * @return The names of every path found in the directory
+   */
+  public Set<String> getNames() {
+    return paths.keySet();
+  }
+
+  /**
+   * @return Whether every path has finished loading (or failed to) and the followers have been warmed up
+   */
+  public boolean isDone() {
+    return ready.isDone();
+  }
+
+  /**
+   * Wait for every path to finish loading (or fail to), and the followers to be warmed up
+   */
+  public void await() {
+    ready.join();
+  }
+
+}
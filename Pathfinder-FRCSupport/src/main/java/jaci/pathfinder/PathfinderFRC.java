@@ -46,4 +46,39 @@ public class PathfinderFRC {
     return Pathfinder.readFromCSV(getTrajectoryFile(name));
   }
 
+  /**
+   * Load a Trajectory from file, at the path described by {@link #getTrajectoryFile(String)}, through the given
+   * cache. Only the first load of an unchanged file reads and parses it, later loads (including after a restart,
+   * if the cache has a disk tier) come from the cache. The returned trajectory is read-only.
+   * 
+   * @param name The name of the path
+   * @param cache The cache to load through
+   * @return The Trajectory loaded from file or cache.
+   */
+  public static Trajectory getTrajectory(String name, TrajectoryCache cache) throws IOException {
+    return cache.readFromCSV(getTrajectoryFile(name));
+  }
+
+  /**
+   * Start loading every trajectory in the deploy directory's "paths" folder in the background. Call this in
+   * robotInit, and get trajectories from the returned preloader instead of {@link #getTrajectory(String)}, so
+   * they don't have to be loaded when autonomous starts.
+   *
+   * @return The preloader, which is loading the trajectories
+   */
+  public static PathPreloader preloadTrajectories() {
+    return new PathPreloader(new File(Filesystem.getDeployDirectory(), "paths"), null);
+  }
+
+  /**
+   * Start loading every trajectory in the deploy directory's "paths" folder in the background, through the given
+   * cache. See {@link #preloadTrajectories()}.
+   *
+   * @param cache The cache to load through
+   * @return The preloader, which is loading the trajectories
+   */
+  public static PathPreloader preloadTrajectories(TrajectoryCache cache) {
+    return new PathPreloader(new File(Filesystem.getDeployDirectory(), "paths"), cache);
+  }
+
 }
@@ -0,0 +1,63 @@
+import jaci.pathfinder.Pathfinder;
+import jaci.pathfinder.Trajectory;
+import jaci.pathfinder.TrajectorySplicer;
+import jaci.pathfinder.Waypoint;
+
+public class Splice {
+
+    public static void main(String[] args) {
+        Trajectory.Config config = new Trajectory.Config(Trajectory.FitMethod.HERMITE_CUBIC, Trajectory.Config.SAMPLES_HIGH, 0.05, 1.7, 2.0, 60.0);
+        Waypoint[] points = new Waypoint[] {
+                new Waypoint(-4, -1, Pathfinder.d2r(-45)),
+                new Waypoint(-2, -2, 0),
+                new Waypoint(0, 0, 0),
+                new Waypoint(3, 2, Pathfinder.d2r(45)),
+                new Waypoint(6, 0, 0)
+        };
+
+        // Each leg is generated on its own (e.g. read from a cache), starting and ending at rest
+        Trajectory[] legs = new Trajectory[points.length - 1];
+        double length = 0;
+        for (int i = 0; i < legs.length; i++) {
+            legs[i] = Pathfinder.generate(new Waypoint[] { points[i], points[i + 1] }, config);
+            length += legs[i].getPosition(legs[i].length() - 1);
+        }
+
+        // Joined with the default window, the robot carries its speed through each junction within the limits
+        Trajectory joined = TrajectorySplicer.splice(legs, config);
+        check(joined, length, config, 0.01);
+
+        // Very short windows can only land on the next leg by going a little over the acceleration limit
+        Trajectory shortWindows = TrajectorySplicer.splice(legs, config, 0.1);
+        check(shortWindows, length, config, Double.POSITIVE_INFINITY);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < 100; i++)
+            TrajectorySplicer.splice(legs, config);
+        System.out.printf("Spliced %d legs into %d segments in %.3f ms%n", legs.length, joined.length(),
+                (System.nanoTime() - start) / 100 / 1e6);
+    }
+
+    /**
+     * Check each window landed on the next leg: positions carry on smoothly from segment to segment, the joined
+     * trajectory ends where the legs do, and the velocity and acceleration stay within the limits (plus a margin
+     * for the acceleration, as a fraction of its limit).
+     */
+    private static void check(Trajectory traj, double length, Trajectory.Config config, double margin) {
+        double dt = config.dt;
+        for (int i = 1; i < traj.length(); i++) {
+            double step = traj.getPosition(i) - traj.getPosition(i - 1);
+            double expected = (traj.getVelocity(i) + traj.getVelocity(i - 1)) / 2 * dt;
+            if (Math.abs(step - expected) > 1e-3)
+                throw new IllegalStateException("Position jumps by " + step + " at segment " + i + ", expected " + expected);
+            if (traj.getVelocity(i) > config.max_velocity + 1e-9)
+                throw new IllegalStateException("Velocity " + traj.getVelocity(i) + " at segment " + i + " is over the limit");
+            if (Math.abs(traj.getAcceleration(i)) > config.max_acceleration * (1 + margin))
+                throw new IllegalStateException("Acceleration " + traj.getAcceleration(i) + " at segment " + i + " is over the limit");
+        }
+        double end = traj.getPosition(traj.length() - 1);
+        if (Math.abs(end - length) > 1e-6)
+            throw new IllegalStateException("Ends at " + end + ", not at the end of the legs, " + length);
+    }
+
+}
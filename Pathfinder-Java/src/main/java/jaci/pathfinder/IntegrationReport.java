@@ -0,0 +1,26 @@
+package jaci.pathfinder;
+
+/**
+ * How accurately, and with how much work, the length of a path was measured when it was generated. Pass one to
+ * {@link Pathfinder#generate(Waypoint[], Trajectory.Config, IntegrationReport)} to have it filled in.
+ */
+public class IntegrationReport {
+
+    /**
+     * The estimated largest error in the position along any spline of the path (in meters). This is only known
+     * for an adaptive configuration (see {@link Trajectory.Config#tolerance}), and is NaN for a fixed sample count.
+     * It can be above the tolerance if a spline needed more than the maximum number of panels to meet it.
+     */
+    public double error;
+
+    /**
+     * The number of times the splines' derivatives were evaluated to measure the path.
+     */
+    public int evaluations;
+
+    @Override
+    public String toString() {
+        return "IntegrationReport[error=" + error + ", evaluations=" + evaluations + "]";
+    }
+
+}
@@ -0,0 +1,142 @@
+package jaci.pathfinder;
+
+import java.lang.ref.Cleaner;
+
+/**
+ * A path that is edited and regenerated repeatedly, such as in a path editor or an on-robot replanner.
+ *
+ * The plan keeps the fitted splines and their arc lengths natively between generations. Moving a waypoint only
+ * refits the splines either side of it, and changing the time step or limits doesn't refit anything, so the cost
+ * of an edit doesn't grow with the length of the path. Each call to {@link #generate()} then only runs the motion
+ * profile and maps it onto the splines. The generated trajectory is identical to what
+ * {@link Pathfinder#generate(Waypoint[], Trajectory.Config)} gives for the same waypoints and configuration.
+ *
+ * The plan holds native memory, so must be closed when it's no longer needed. Plans are safe to use from multiple
+ * threads.
+ */
+public class PathPlan implements AutoCloseable {
+
+    private static final Cleaner CLEANER = Cleaner.create();
+
+    // Kept separate from the plan, so the cleaner doesn't hold a reference to it
+    private static class Handle implements Runnable {
+        long ptr;
+
+        Handle(long ptr) {
+            this.ptr = ptr;
+        }
+
+        @Override
+        public synchronized void run() {
+            if (ptr != 0) {
+                PathfinderJNI.planFreeRaw(ptr);
+                ptr = 0;
+            }
+        }
+    }
+
+    private final Handle handle;
+    private final Cleaner.Cleanable cleanable;
+    private final Waypoint[] waypoints;
+    private final Trajectory.Config config;
+
+    /**
+     * Create a plan for the given path
+     * @param waypoints     An array of waypoints (setpoints) for the trajectory path to intersect
+     * @param config        The configuration of the trajectory. The fit method and sample count can't be changed
+     *                      once the plan is created, see {@link #configure(double, double, double, double)}. Plans
+     *                      measure their splines with a fixed sample count, so the tolerance must be 0.
+     */
+    public PathPlan(Waypoint[] waypoints, Trajectory.Config config) {
+        if (config.tolerance != 0)
+            throw new IllegalArgumentException("Path plans don't support adaptive configurations, but the tolerance is "
+                    + config.tolerance);
+        this.waypoints = new Waypoint[waypoints.length];
+        for (int i = 0; i < waypoints.length; i++)
+            this.waypoints[i] = new Waypoint(waypoints[i].x, waypoints[i].y, waypoints[i].angle);
+        this.config = new Trajectory.Config(config.fit, config.sample_count, config.dt, config.max_velocity,
+                config.max_acceleration, config.max_jerk);
+
+        this.handle = new Handle(PathfinderJNI.planCreateRaw(PathfinderJNI.packWaypoints(waypoints), config.fit.ordinal(),
+                config.sample_count, config.dt, config.max_velocity, config.max_acceleration, config.max_jerk));
+        this.cleanable = CLEANER.register(this, handle);
+    }
+
+    /**
+     * @return the number of waypoints in the path
+     */
+    public int size() {
+        return waypoints.length;
+    }
+
+    /**
+     * Get a waypoint of the path
+     * @param index The index of the waypoint
+     * @return      A copy of the waypoint
+     */
+    public synchronized Waypoint getWaypoint(int index) {
+        Waypoint w = waypoints[index];
+        return new Waypoint(w.x, w.y, w.angle);
+    }
+
+    /**
+     * Move a waypoint of the path. Only the splines either side of the waypoint are refit.
+     * @param index     The index of the waypoint
+     * @param waypoint  The new waypoint
+     */
+    public synchronized void setWaypoint(int index, Waypoint waypoint) {
+        if (index < 0 || index >= waypoints.length)
+            throw new IndexOutOfBoundsException("Waypoint " + index + " out of range for a path of " + waypoints.length);
+
+        PathfinderJNI.planSetWaypointRaw(ptr(), index, waypoint.x, waypoint.y, waypoint.angle);
+        waypoints[index] = new Waypoint(waypoint.x, waypoint.y, waypoint.angle);
+    }
+
+    /**
+     * Change the time step and limits used to generate the trajectory. This doesn't refit any splines.
+     * @param dt                    The time delta between points (in seconds)
+     * @param max_velocity          The maximum velocity the body is capable of travelling at (in meters per second)
+     * @param max_acceleration      The maximum acceleration to use (in meters per second per second)
+     * @param max_jerk              The maximum jerk (acceleration per second) to use
+     */
+    public synchronized void configure(double dt, double max_velocity, double max_acceleration, double max_jerk) {
+        PathfinderJNI.planConfigureRaw(ptr(), dt, max_velocity, max_acceleration, max_jerk);
+        config.dt = dt;
+        config.max_velocity = max_velocity;
+        config.max_acceleration = max_acceleration;
+        config.max_jerk = max_jerk;
+    }
+
+    /**
+     * @return a copy of the configuration the plan generates with
+     */
+    public synchronized Trajectory.Config getConfig() {
+        return new Trajectory.Config(config.fit, config.sample_count, config.dt, config.max_velocity,
+                config.max_acceleration, config.max_jerk);
+    }
+
+    /**
+     * Generate the trajectory for the path as it currently is.
+     * @return The generated trajectory
+     */
+    public synchronized Trajectory generate() {
+        return PathfinderJNI.wrapColumns(PathfinderJNI.planGenerateRaw(ptr()));
+    }
+
+    /**
+     * Free the native memory held by the plan. The plan can't be used after it is closed.
+     */
+    @Override
+    public synchronized void close() {
+        cleanable.clean();
+    }
+
+    private long ptr() {
+        synchronized (handle) {
+            if (handle.ptr == 0)
+                throw new IllegalStateException("PathPlan has been closed");
+            return handle.ptr;
+        }
+    }
+
+}
@@ -0,0 +1,76 @@
+package jaci.pathfinder;
+
+/**
+ * Points along the shape of a path, found without generating a trajectory for it. This is much cheaper than a
+ * trajectory, so suits drawing a preview of a path while it's being edited, or checking it for collisions.
+ *
+ * Each spline of the path is sampled at evenly spaced values of its parameter (not evenly spaced in distance),
+ * with the last sample at the end of the path.
+ */
+public class PathSamples {
+
+    public final double[] x, y, heading;
+    private int size;
+
+    /**
+     * Create storage for path samples, to be filled by
+     * {@link #sample(Waypoint[], Trajectory.FitMethod, int)}. Reusing one instance avoids allocating for each
+     * sample of a path that changes often.
+     * @param capacity  The most samples this can hold, see {@link #count(int, int)}
+     */
+    public PathSamples(int capacity) {
+        this.x = new double[capacity];
+        this.y = new double[capacity];
+        this.heading = new double[capacity];
+    }
+
+    /**
+     * Sample a path
+     * @param waypoints         An array of waypoints for the path to intersect
+     * @param fit               The fit method to use
+     * @param samplesPerSpline  The number of samples to take along each spline
+     * @return                  The samples
+     */
+    public static PathSamples of(Waypoint[] waypoints, Trajectory.FitMethod fit, int samplesPerSpline) {
+        PathSamples samples = new PathSamples(count(waypoints.length, samplesPerSpline));
+        return samples.sample(waypoints, fit, samplesPerSpline);
+    }
+
+    /**
+     * @param waypoints         The number of waypoints in the path
+     * @param samplesPerSpline  The number of samples to take along each spline
+     * @return                  The number of samples a path gives
+     */
+    public static int count(int waypoints, int samplesPerSpline) {
+        return (waypoints - 1) * samplesPerSpline + 1;
+    }
+
+    /**
+     * Sample a path into this instance, replacing the samples it holds
+     * @param waypoints         An array of waypoints for the path to intersect
+     * @param fit               The fit method to use
+     * @param samplesPerSpline  The number of samples to take along each spline
+     * @return                  self
+     */
+    public PathSamples sample(Waypoint[] waypoints, Trajectory.FitMethod fit, int samplesPerSpline) {
+        if (waypoints.length < 2)
+            throw new IllegalArgumentException("A path needs at least 2 waypoints");
+        if (samplesPerSpline <= 0)
+            throw new IllegalArgumentException("Samples per spline must be positive, got " + samplesPerSpline);
+        int count = count(waypoints.length, samplesPerSpline);
+        if (count > x.length)
+            throw new IllegalArgumentException(count + " samples don't fit in a capacity of " + x.length);
+
+        PathfinderJNI.samplePathRaw(PathfinderJNI.packWaypoints(waypoints), fit.ordinal(), samplesPerSpline, x, y, heading);
+        size = count;
+        return this;
+    }
+
+    /**
+     * @return the number of samples held, which are the first size() values of x, y and heading
+     */
+    public int size() {
+        return size;
+    }
+
+}
@@ -1,7 +1,21 @@
 package jaci.pathfinder;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
 
 /**
  * The main class of the Pathfinder Library. The Pathfinder Library is used for Motion Profile and Trajectory Generation.
@@ -42,6 +56,19 @@ public class Pathfinder {
         return angle_degrees;
     }
 
+    /**
+     * Bound an angle (in radians) to 0 to 2*Pi radians, the range of the headings in a trajectory. This is the
+     * same as bound_radians in the native library.
+     * @param angle_radians an input angle in radians
+     * @return the bounded angle
+     */
+    public static double boundRadians(double angle_radians) {
+        double bounded = angle_radians % (2 * Math.PI);
+        if (bounded < 0) bounded += 2 * Math.PI;
+        // Adding to a tiny negative angle rounds to 2*Pi itself
+        return bounded >= 2 * Math.PI ? 0 : bounded;
+    }
+
     /**
      * Generate a motion profile trajectory using the given waypoints and configuration.
      * @param waypoints     An array of waypoints (setpoints) for the trajectory path to intersect
@@ -53,6 +80,113 @@ public class Pathfinder {
         return PathfinderJNI.generateTrajectory(waypoints, config);
     }
 
+    /**
+     * Generate a motion profile trajectory using the given waypoints and configuration, into columnar storage
+     * instead of Segment objects. See {@link Trajectory} for the difference.
+     * @param waypoints     An array of waypoints (setpoints) for the trajectory path to intersect
+     * @param config        The configuration of the trajectory, including max velocity, acceleration, jerk
+     *                      and other values such as time scale and fit method
+     * @return              The generated columnar trajectory
+     */
+    public static Trajectory generateColumnar(Waypoint[] waypoints, Trajectory.Config config) {
+        return PathfinderJNI.generateTrajectoryColumnar(waypoints, config);
+    }
+
+    /**
+     * Generate a motion profile trajectory using the given waypoints and configuration, reporting how accurately
+     * the length of the path was measured.
+     * @param waypoints     An array of waypoints (setpoints) for the trajectory path to intersect
+     * @param config        The configuration of the trajectory
+     * @param report        Filled with the error and number of evaluations of measuring the path
+     * @return              The generated trajectory (an array of segments)
+     */
+    public static Trajectory generate(Waypoint[] waypoints, Trajectory.Config config, IntegrationReport report) {
+        return PathfinderJNI.generateTrajectory(waypoints, config, report);
+    }
+
+    /**
+     * Generate a motion profile trajectory for each of the given paths, sharing the one configuration. The paths
+     * are generated in parallel on the common {@link ForkJoinPool}.
+     * @param paths         The waypoints of each path to generate
+     * @param config        The configuration shared by all trajectories
+     * @return              The generated trajectories, in the same order as paths. A path that could not be
+     *                      generated (e.g. it has less than 2 waypoints) gives a null entry.
+     */
+    public static Trajectory[] generateAll(List<Waypoint[]> paths, Trajectory.Config config) {
+        return generateAll(paths, config, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Generate a motion profile trajectory for each of the given paths, sharing the one configuration. The paths
+     * are split into batches that are generated in parallel on the given executor, with each batch generated in
+     * a single native call.
+     * @param paths         The waypoints of each path to generate
+     * @param config        The configuration shared by all trajectories
+     * @param executor      The executor to generate the batches on
+     * @return              The generated trajectories, in the same order as paths. A path that could not be
+     *                      generated (e.g. it has less than 2 waypoints) gives a null entry.
+     */
+    public static Trajectory[] generateAll(List<Waypoint[]> paths, Trajectory.Config config, Executor executor) {
+        int parallelism = executor instanceof ForkJoinPool ? ((ForkJoinPool) executor).getParallelism()
+                : Runtime.getRuntime().availableProcessors();
+        // A few batches per thread, so one slow path doesn't hold up the rest
+        int batchSize = Math.max(1, (paths.size() + parallelism * 4 - 1) / (parallelism * 4));
+
+        List<CompletableFuture<Trajectory[]>> batches = new ArrayList<>();
+        for (int start = 0; start < paths.size(); start += batchSize) {
+            List<Waypoint[]> batch = paths.subList(start, Math.min(start + batchSize, paths.size()));
+            batches.add(CompletableFuture.supplyAsync(() -> PathfinderJNI.generateTrajectories(batch, config), executor));
+        }
+
+        Trajectory[] trajectories = new Trajectory[paths.size()];
+        int i = 0;
+        for (CompletableFuture<Trajectory[]> batch : batches) {
+            Trajectory[] generated;
+            try {
+                generated = batch.join();
+            } catch (CompletionException e) {
+                throw Pathfinder.<RuntimeException>rethrow(e.getCause());
+            }
+            System.arraycopy(generated, 0, trajectories, i, generated.length);
+            i += generated.length;
+        }
+        return trajectories;
+    }
+
+    /**
+     * Open a stream that generates the trajectory a chunk at a time. The first chunk is available without waiting
+     * for the rest of the trajectory to be generated.
+     * @param waypoints     An array of waypoints (setpoints) for the trajectory path to intersect
+     * @param config        The configuration of the trajectory
+     * @param chunkSize     The maximum number of segments in each chunk
+     * @return              The stream of chunks. This should be closed if it isn't read to the end.
+     */
+    public static TrajectoryStream stream(Waypoint[] waypoints, Trajectory.Config config, int chunkSize) {
+        return new TrajectoryStream(waypoints, config, chunkSize);
+    }
+
+    /**
+     * Generate a motion profile trajectory a chunk at a time, passing each chunk to the consumer as soon as it is
+     * generated. Only one chunk is held in memory at a time.
+     * @param waypoints     An array of waypoints (setpoints) for the trajectory path to intersect
+     * @param config        The configuration of the trajectory
+     * @param chunkSize     The maximum number of segments in each chunk
+     * @param consumer      Called with each chunk, in order
+     */
+    public static void generateChunked(Waypoint[] waypoints, Trajectory.Config config, int chunkSize, Consumer<Trajectory> consumer) {
+        try (TrajectoryStream stream = stream(waypoints, config, chunkSize)) {
+            while (stream.hasNext())
+                consumer.accept(stream.next());
+        }
+    }
+
+    // Rethrows the native exceptions (which are checked, but thrown without being declared) as they are, the same
+    // way generate(Waypoint[], Trajectory.Config) would.
+    @SuppressWarnings("unchecked")
+    private static <T extends Throwable> T rethrow(Throwable t) throws T {
+        throw (T) t;
+    }
+
     /**
      * Write the Trajectory to a Binary (non human readable) file
      * @param file          The file to write to
@@ -60,7 +194,7 @@ public class Pathfinder {
      */
     public static void writeToFile(File file, Trajectory trajectory) {
         file.getParentFile().mkdirs();
-        PathfinderJNI.trajectorySerialize(trajectory.segments, file.getAbsolutePath());
+        PathfinderJNI.trajectorySerializeRaw(trajectory.packColumns(), file.getAbsolutePath());
     }
 
     /**
@@ -71,21 +205,75 @@ public class Pathfinder {
     public static Trajectory readFromFile(File file) throws IOException {
         if (!file.exists())
             throw new IOException("File " + file.getAbsolutePath() + " does not exist!");
-        return new Trajectory(PathfinderJNI.trajectoryDeserialize(file.getAbsolutePath()));
+        return PathfinderJNI.wrapSegments(PathfinderJNI.trajectoryDeserializeRaw(file.getAbsolutePath()));
+    }
+
+    /**
+     * Write the Trajectory to a versioned binary file that can be memory mapped. See {@link TrajectoryFile}
+     * @param file          The file to write to
+     * @param trajectory    The trajectory to write
+     */
+    public static void writeToMappedFile(File file, Trajectory trajectory) throws IOException {
+        file.getParentFile().mkdirs();
+        TrajectoryFile.write(file, trajectory);
+    }
+
+    /**
+     * Read a Trajectory from a file written by {@link #writeToMappedFile(File, Trajectory)}. The file is memory mapped
+     * and segments are read as they are accessed, so this returns immediately regardless of the trajectory length.
+     * The returned trajectory is read-only.
+     * @param file          The file to read from
+     * @return              The trajectory that was mapped from file
+     */
+    public static Trajectory readFromMappedFile(File file) throws IOException {
+        if (!file.exists())
+            throw new IOException("File " + file.getAbsolutePath() + " does not exist!");
+        return TrajectoryFile.map(file, false);
     }
 
     /**
-     * Write the Trajectory to a CSV File
+     * Write the Trajectory to a compressed binary file. See {@link TrajectoryCodec}
+     * @param file          The file to write to
+     * @param trajectory    The trajectory to write
+     * @param options       How precisely to store each column, e.g. {@link TrajectoryCodec.Options#fixed(double)}
+     */
+    public static void writeToCompressedFile(File file, Trajectory trajectory, TrajectoryCodec.Options options) throws IOException {
+        file.getParentFile().mkdirs();
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+            TrajectoryCodec.encode(trajectory, options, out);
+        }
+    }
+
+    /**
+     * Read a Trajectory from a file written by {@link #writeToCompressedFile(File, Trajectory, TrajectoryCodec.Options)}
+     * @param file          The file to read from
+     * @return              The trajectory that was read from file
+     */
+    public static Trajectory readFromCompressedFile(File file) throws IOException {
+        if (!file.exists())
+            throw new IOException("File " + file.getAbsolutePath() + " does not exist!");
+        try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+            return TrajectoryCodec.decode(in);
+        }
+    }
+
+    /**
+     * Write the Trajectory to a CSV File. Values are written in full precision, so reading the file back gives
+     * an identical trajectory.
      * @param file          The file to write to
      * @param trajectory    The trajectory to write
      */
     public static void writeToCSV(File file, Trajectory trajectory) {
         file.getParentFile().mkdirs();
-        PathfinderJNI.trajectorySerializeCSV(trajectory.segments, file.getAbsolutePath());
+        try {
+            TrajectoryCSV.write(file, trajectory);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
     }
 
     /**
-     * Read a Trajectory from a CSV File
+     * Read a Trajectory from a CSV File. Use {@link TrajectoryCSV#read(File)} to read it into columnar storage.
      * 
      * @param file The file to read from
      * @return The trajectory that was read from file
@@ -93,11 +281,12 @@ public class Pathfinder {
     public static Trajectory readFromCSV(File file) throws IOException {
         if (!file.exists())
             throw new IOException("File " + file.getAbsolutePath() + " does not exist!");
-        return new Trajectory(PathfinderJNI.trajectoryDeserializeCSV(file.getAbsolutePath()));
+        return PathfinderJNI.wrapSegments(TrajectoryCSV.readPacked(file));
     }
 
     /**
-     * Thrown when a Trajectory could not be generated for an unknown reason.
+     * Thrown when a Trajectory could not be generated. The message is the error reported by the generator for
+     * that call, even when other threads are generating at the same time.
      */
     public static class GenerationException extends Exception {
         public GenerationException(String message) {
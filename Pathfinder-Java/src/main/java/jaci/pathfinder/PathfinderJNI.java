@@ -5,6 +5,10 @@ import jaci.pathfinder.modifiers.SwerveModifier;
 
 import jaci.jniloader.JNILoader;
 
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.util.List;
+
 public class PathfinderJNI {
 
     static boolean libLoaded = false;
@@ -22,26 +26,174 @@ public class PathfinderJNI {
         }
     }
 
+    /*
+     * Trajectories cross the native boundary as a single column-major double[] (every dt, then every x,
+     * and so on, in the order of the Segment fields), and waypoints as packed x, y, angle triplets. This
+     * keeps each call to one bulk array transfer instead of an object and eight field lookups per segment.
+     * The array is unpacked into Segments for the long-standing entry points, and wrapped as it is for the
+     * columnar ones.
+     */
+    static final int SEGMENT_FIELDS = 8;
+
+    static double[] packWaypoints(Waypoint[] waypoints) {
+        double[] packed = new double[waypoints.length * 3];
+        for (int i = 0; i < waypoints.length; i++) {
+            packed[i * 3]     = waypoints[i].x;
+            packed[i * 3 + 1] = waypoints[i].y;
+            packed[i * 3 + 2] = waypoints[i].angle;
+        }
+        return packed;
+    }
+
+    static double[] packSegments(Trajectory.Segment[] segments) {
+        int n = segments.length;
+        double[] packed = new double[n * SEGMENT_FIELDS];
+        for (int i = 0; i < n; i++) {
+            Trajectory.Segment s = segments[i];
+            packed[i]         = s.dt;
+            packed[n + i]     = s.x;
+            packed[2 * n + i] = s.y;
+            packed[3 * n + i] = s.position;
+            packed[4 * n + i] = s.velocity;
+            packed[5 * n + i] = s.acceleration;
+            packed[6 * n + i] = s.jerk;
+            packed[7 * n + i] = s.heading;
+        }
+        return packed;
+    }
+
+    static Trajectory.Segment[] unpackSegments(double[] packed) {
+        int n = packed.length / SEGMENT_FIELDS;
+        Trajectory.Segment[] segments = new Trajectory.Segment[n];
+        for (int i = 0; i < n; i++) {
+            segments[i] = new Trajectory.Segment(packed[i], packed[n + i], packed[2 * n + i], packed[3 * n + i],
+                    packed[4 * n + i], packed[5 * n + i], packed[6 * n + i], packed[7 * n + i]);
+        }
+        return segments;
+    }
+
+    static Trajectory wrapColumns(double[] packed) {
+        return new Trajectory(DoubleBuffer.wrap(packed));
+    }
+
+    static Trajectory wrapSegments(double[] packed) {
+        return new Trajectory(unpackSegments(packed));
+    }
+
     public static Trajectory generateTrajectory(Waypoint[] waypoints, Trajectory.Config c) {
-        return new Trajectory(generateTrajectory(waypoints, c.fit, c.sample_count, c.dt, c.max_velocity, c.max_acceleration, c.max_jerk));
+        return generateTrajectory(waypoints, c, null);
+    }
+    public static Trajectory generateTrajectory(Waypoint[] waypoints, Trajectory.Config c, IntegrationReport report) {
+        return wrapSegments(generateTrajectoryPacked(waypoints, c, report));
+    }
+    public static Trajectory generateTrajectoryColumnar(Waypoint[] waypoints, Trajectory.Config c) {
+        return wrapColumns(generateTrajectoryPacked(waypoints, c, null));
+    }
+    private static double[] generateTrajectoryPacked(Waypoint[] waypoints, Trajectory.Config c, IntegrationReport report) {
+        double[] raw = report == null ? null : new double[2];
+        double[] packed = generateTrajectoryRaw(packWaypoints(waypoints), c.fit.ordinal(), c.sample_count, c.tolerance, c.dt, c.max_velocity, c.max_acceleration, c.max_jerk, raw);
+        if (report != null) {
+            report.error = raw[0];
+            report.evaluations = (int) raw[1];
+        }
+        return packed;
+    }
+    public static Trajectory.Segment[] generateTrajectory(Waypoint[] waypoints, Trajectory.FitMethod fit, int samples, double dt, double max_velocity, double max_acceleration, double max_jerk) {
+        return unpackSegments(generateTrajectoryRaw(packWaypoints(waypoints), fit.ordinal(), samples, 0, dt, max_velocity, max_acceleration, max_jerk, null));
     }
-    public static native Trajectory.Segment[] generateTrajectory(Waypoint[] waypoints, Trajectory.FitMethod fit, int samples, double dt, double max_velocity, double max_acceleration, double max_jerk);
+    static native double[] generateTrajectoryRaw(double[] waypoints, int fit, int samples, double tolerance, double dt, double max_velocity, double max_acceleration, double max_jerk, double[] report);
+
+    public static Trajectory[] generateTrajectories(List<Waypoint[]> paths, Trajectory.Config c) {
+        double[][] packed = new double[paths.size()][];
+        for (int i = 0; i < packed.length; i++)
+            packed[i] = packWaypoints(paths.get(i));
+
+        double[][] raw = generateTrajectoryBatchRaw(packed, c.fit.ordinal(), c.sample_count, c.tolerance, c.dt, c.max_velocity, c.max_acceleration, c.max_jerk);
+        Trajectory[] trajectories = new Trajectory[raw.length];
+        for (int i = 0; i < raw.length; i++)
+            trajectories[i] = raw[i] == null ? null : wrapSegments(raw[i]);
+        return trajectories;
+    }
+    static native double[][] generateTrajectoryBatchRaw(double[][] waypoints, int fit, int samples, double tolerance, double dt, double max_velocity, double max_acceleration, double max_jerk);
+
+    static native long planCreateRaw(double[] waypoints, int fit, int samples, double dt, double max_velocity, double max_acceleration, double max_jerk);
+    static native void planFreeRaw(long handle);
+    static native void planSetWaypointRaw(long handle, int index, double x, double y, double angle);
+    static native void planConfigureRaw(long handle, double dt, double max_velocity, double max_acceleration, double max_jerk);
+    static native double[] planGenerateRaw(long handle);
+
+    static native long streamBeginRaw(double[] waypoints, int fit, int samples, double tolerance, double dt, double max_velocity, double max_acceleration, double max_jerk);
+    static native int streamLengthRaw(long handle);
+    static native double[] streamNextRaw(long handle, int max);
+    static native void streamEndRaw(long handle);
+
+    static native long bufferCreateRaw();
+    static native void bufferFreeRaw(long handle);
+    static native int bufferGenerateRaw(long handle, ByteBuffer columns, double[] waypoints, int fit, int samples, double tolerance, double dt, double max_velocity, double max_acceleration, double max_jerk);
+    static native void bufferPackRaw(long handle, ByteBuffer columns, int length);
+    static native void bufferModifyRaw(long handle, ByteBuffer source, int length, ByteBuffer[] outputs, double wheelbase_width, double wheelbase_depth, int mode);
+    static native void bufferSerializeRaw(long handle, ByteBuffer columns, int length, String filename);
+    static native int bufferDeserializeRaw(long handle, ByteBuffer columns, String filename);
+
+    static native void samplePathRaw(double[] waypoints, int fit, int samples, double[] x, double[] y, double[] heading);
 
     public static Trajectory[] modifyTrajectoryTank(Trajectory traj, double wheelbase_width) {
-        Trajectory.Segment[][] mod = modifyTrajectoryTank(traj.segments, wheelbase_width);
-        return new Trajectory[] { new Trajectory(mod[0]), new Trajectory(mod[1]) };
+        double[][] mod = modifyTrajectoryTankRaw(traj.packColumns(), wheelbase_width);
+        return new Trajectory[] { wrapSegments(mod[0]), wrapSegments(mod[1]) };
+    }
+    public static Trajectory.Segment[][] modifyTrajectoryTank(Trajectory.Segment[] source, double wheelbase_width) {
+        double[][] mod = modifyTrajectoryTankRaw(packSegments(source), wheelbase_width);
+        return new Trajectory.Segment[][] { unpackSegments(mod[0]), unpackSegments(mod[1]) };
     }
-    public static native Trajectory.Segment[][] modifyTrajectoryTank(Trajectory.Segment[] source, double wheelbase_width);
+    static native double[][] modifyTrajectoryTankRaw(double[] source, double wheelbase_width);
 
     public static Trajectory[] modifyTrajectorySwerve(Trajectory traj, double wheelbase_width, double wheelbase_depth, SwerveModifier.Mode mode) {
-        Trajectory.Segment[][] mod = modifyTrajectorySwerve(traj.segments, wheelbase_width, wheelbase_depth, mode);
-        return new Trajectory[] { new Trajectory(mod[0]), new Trajectory(mod[1]), new Trajectory(mod[2]), new Trajectory(mod[3]) };
+        double[][] mod = modifyTrajectorySwerveRaw(traj.packColumns(), wheelbase_width, wheelbase_depth, mode.ordinal());
+        return new Trajectory[] { wrapSegments(mod[0]), wrapSegments(mod[1]), wrapSegments(mod[2]), wrapSegments(mod[3]) };
     }
-    public static native Trajectory.Segment[][] modifyTrajectorySwerve(Trajectory.Segment[] source, double wheelbase_width, double wheelbase_depth, SwerveModifier.Mode mode);
+    public static Trajectory.Segment[][] modifyTrajectorySwerve(Trajectory.Segment[] source, double wheelbase_width, double wheelbase_depth, SwerveModifier.Mode mode) {
+        double[][] mod = modifyTrajectorySwerveRaw(packSegments(source), wheelbase_width, wheelbase_depth, mode.ordinal());
+        return new Trajectory.Segment[][] { unpackSegments(mod[0]), unpackSegments(mod[1]), unpackSegments(mod[2]), unpackSegments(mod[3]) };
+    }
+    static native double[][] modifyTrajectorySwerveRaw(double[] source, double wheelbase_width, double wheelbase_depth, int mode);
 
-    public static native void trajectorySerialize(Trajectory.Segment[] source, String filename);
-    public static native Trajectory.Segment[] trajectoryDeserialize(String filename);
+    // Trajectories come back as the wheels in the same order as the modify calls, then the centre if it was requested
+    public static Trajectory[] generateTank(Waypoint[] waypoints, Trajectory.Config c, double wheelbase_width, boolean includeSource) {
+        return wrapAll(generateTankRaw(packWaypoints(waypoints), c.fit.ordinal(), c.sample_count, c.tolerance, c.dt, c.max_velocity, c.max_acceleration, c.max_jerk,
+                wheelbase_width, includeSource));
+    }
+    static native double[][] generateTankRaw(double[] waypoints, int fit, int samples, double tolerance, double dt, double max_velocity, double max_acceleration, double max_jerk,
+                                             double wheelbase_width, boolean include_source);
 
-    public static native void trajectorySerializeCSV(Trajectory.Segment[] source, String filename);
-    public static native Trajectory.Segment[] trajectoryDeserializeCSV(String filename);
+    public static Trajectory[] generateSwerve(Waypoint[] waypoints, Trajectory.Config c, double wheelbase_width, double wheelbase_depth, SwerveModifier.Mode mode, boolean includeSource) {
+        return wrapAll(generateSwerveRaw(packWaypoints(waypoints), c.fit.ordinal(), c.sample_count, c.tolerance, c.dt, c.max_velocity, c.max_acceleration, c.max_jerk,
+                wheelbase_width, wheelbase_depth, mode.ordinal(), includeSource));
+    }
+    static native double[][] generateSwerveRaw(double[] waypoints, int fit, int samples, double tolerance, double dt, double max_velocity, double max_acceleration, double max_jerk,
+                                               double wheelbase_width, double wheelbase_depth, int mode, boolean include_source);
+
+    private static Trajectory[] wrapAll(double[][] packed) {
+        Trajectory[] trajectories = new Trajectory[packed.length];
+        for (int i = 0; i < packed.length; i++)
+            trajectories[i] = wrapSegments(packed[i]);
+        return trajectories;
+    }
+
+    public static void trajectorySerialize(Trajectory.Segment[] source, String filename) {
+        trajectorySerializeRaw(packSegments(source), filename);
+    }
+    public static Trajectory.Segment[] trajectoryDeserialize(String filename) {
+        return unpackSegments(trajectoryDeserializeRaw(filename));
+    }
+    static native void trajectorySerializeRaw(double[] source, String filename);
+    static native double[] trajectoryDeserializeRaw(String filename);
+
+    public static void trajectorySerializeCSV(Trajectory.Segment[] source, String filename) {
+        trajectorySerializeCSVRaw(packSegments(source), filename);
+    }
+    public static Trajectory.Segment[] trajectoryDeserializeCSV(String filename) {
+        return unpackSegments(trajectoryDeserializeCSVRaw(filename));
+    }
+    static native void trajectorySerializeCSVRaw(double[] source, String filename);
+    static native double[] trajectoryDeserializeCSVRaw(String filename);
 }
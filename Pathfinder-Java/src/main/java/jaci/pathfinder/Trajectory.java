@@ -1,11 +1,28 @@
 package jaci.pathfinder;
 
+import java.nio.DoubleBuffer;
+
 /**
  * The Trajectory object contains an array of Segments that represent the location, velocity, acceleration, jerk and heading
  * of a particular point in the trajectory.
  *
  * Trajectories can be generated with the Pathfinder class
  *
+ * A Trajectory is backed either by an array of Segment objects, or by columnar storage holding one run of
+ * primitive doubles per Segment field. Trajectories from {@link Pathfinder#generate(Waypoint[], Config)}, the
+ * modifiers, {@link Pathfinder#readFromFile(java.io.File)} and {@link Pathfinder#readFromCSV(java.io.File)} are
+ * backed by Segments, as they always have been. Columnar storage is opt in, through {@link #toColumnar()},
+ * {@link Pathfinder#generateColumnar(Waypoint[], Config)} or {@link TrajectoryCSV#read(java.io.File)}, and takes
+ * roughly a third of the memory and keeps each field contiguous. Use the per-field accessors (e.g.
+ * {@link #getPosition(int)}) or {@link #get(int, Segment)} to read a columnar trajectory without creating Segment
+ * objects.
+ *
+ * Segments are a uniform time step (dt) apart, and segment i is the state at time (i + 1) * dt: the trajectory
+ * starts at time 0 (at rest, when generated), one time step before its first segment, and ends at its last, at n * dt.
+ * Generation finds each segment by stepping forward from the one before, so the first is already a step along
+ * the path. Everything that works in time, e.g. {@link TrajectoryResampler} and the followers' time based
+ * calculate methods, uses this convention. Headings are in radians, from 0 to 2*Pi.
+ *
  * @author Jaci
  */
 public class Trajectory {
@@ -24,6 +41,14 @@ public class Trajectory {
         public FitMethod fit;
         public int sample_count;
         public double dt, max_velocity, max_acceleration, max_jerk;
+        /**
+         * The error (in meters along the path) allowed when measuring the length of the path, or 0 to measure it with
+         * sample_count samples per spline instead. With a tolerance, each spline is measured adaptively, using more
+         * samples only where it curves more, which is usually far fewer than a fixed sample count needs for the same
+         * accuracy. See {@link #adaptive(FitMethod, double, double, double, double, double)}. Path plans only use
+         * sample_count, and don't accept a tolerance.
+         */
+        public double tolerance;
 
         /**
          * Create a Trajectory Configuration
@@ -42,6 +67,26 @@ public class Trajectory {
             this.max_acceleration = max_acceleration;
             this.max_jerk = max_jerk;
         }
+
+        /**
+         * Create a Trajectory Configuration that measures the path to within a tolerance, instead of with a fixed
+         * number of samples. Use {@link Pathfinder#generate(Waypoint[], Config, IntegrationReport)} to find the
+         * error reached and the work it took.
+         * @param fit                   The fit method to use
+         * @param tolerance             The error allowed in the position along each spline (in meters), e.g. 1e-4
+         * @param dt                    The time delta between points (in seconds)
+         * @param max_velocity          The maximum velocity the body is capable of travelling at (in meters per second)
+         * @param max_acceleration      The maximum acceleration to use (in meters per second per second)
+         * @param max_jerk              The maximum jerk (acceleration per second) to use
+         * @return                      The configuration
+         */
+        public static Config adaptive(FitMethod fit, double tolerance, double dt, double max_velocity, double max_acceleration, double max_jerk) {
+            if (!(tolerance > 0))
+                throw new IllegalArgumentException("Tolerance must be positive, got " + tolerance);
+            Config config = new Config(fit, SAMPLES_FAST, dt, max_velocity, max_acceleration, max_jerk);
+            config.tolerance = tolerance;
+            return config;
+        }
     }
 
     /**
@@ -91,25 +136,227 @@ public class Trajectory {
         HERMITE_CUBIC, HERMITE_QUINTIC;
     }
 
+    /**
+     * The fields of a Segment, in the order they are stored in columnar trajectories.
+     */
+    public static enum Column {
+        DT, X, Y, POSITION, VELOCITY, ACCELERATION, JERK, HEADING;
+    }
+
+    static final int COLUMNS = 8;
+
+    /**
+     * The Segment objects backing this trajectory. This is null for columnar trajectories, so code that may be given
+     * one should use {@link #get(int)} and {@link #length()} instead.
+     */
     public Segment[] segments;
 
+    DoubleBuffer columns;
+    int length;
+
     public Trajectory(Segment[] segments) {
         this.segments = segments;
+        this.length = segments.length;
     }
 
     public Trajectory(int length) {
         this.segments = new Segment[length];
+        this.length = length;
+    }
+
+    /**
+     * Create a columnar Trajectory over the given buffer. The buffer holds every dt value, followed by every x
+     * value and so on, in the order of {@link Column}. The buffer is used directly, not copied.
+     * @param columns   The column-major buffer, from its position to its limit
+     */
+    public Trajectory(DoubleBuffer columns) {
+        this.columns = columns.slice();
+        this.length = this.columns.capacity() / COLUMNS;
+    }
+
+    /**
+     * Create a zeroed columnar Trajectory, to be filled with {@link #set(Column, int, double)} or through
+     * {@link #column(Column)}.
+     * @param length    The amount of segments in the trajectory
+     * @return          The new trajectory
+     */
+    public static Trajectory columnar(int length) {
+        return new Trajectory(DoubleBuffer.wrap(new double[length * COLUMNS]));
     }
 
+    /**
+     * Get a Segment of the trajectory. For Segment-backed trajectories this is the Segment itself, so writes to its
+     * fields change the trajectory.
+     *
+     * For columnar trajectories this is a copy: each call allocates a new, detached Segment holding the values at
+     * that index. Segment's fields are public, so it can't be a view of the columns, and writes to it (e.g.
+     * {@code traj.get(i).x = 1}) are not reflected in the trajectory. Use {@link #set(int, Segment)} or
+     * {@link #set(Column, int, double)} to change the trajectory, and {@link #get(int, Segment)} to read without
+     * allocating.
+     * @param index The index of the segment
+     * @return      The segment at the given index, or a copy of it for columnar trajectories
+     */
     public Segment get(int index) {
-        return segments[index];
+        if (segments != null)
+            return segments[index];
+        return get(index, new Segment(0, 0, 0, 0, 0, 0, 0, 0));
+    }
+
+    /**
+     * Copy the values of a Segment of the trajectory into an existing Segment object.
+     * @param index The index of the segment
+     * @param out   The Segment to write into
+     * @return      out
+     */
+    public Segment get(int index, Segment out) {
+        if (segments != null) {
+            Segment s = segments[index];
+            out.dt = s.dt; out.x = s.x; out.y = s.y; out.position = s.position;
+            out.velocity = s.velocity; out.acceleration = s.acceleration; out.jerk = s.jerk; out.heading = s.heading;
+        } else {
+            checkIndex(index);
+            DoubleBuffer c = columns;
+            int n = length;
+            out.dt = c.get(index);
+            out.x = c.get(n + index);
+            out.y = c.get(2 * n + index);
+            out.position = c.get(3 * n + index);
+            out.velocity = c.get(4 * n + index);
+            out.acceleration = c.get(5 * n + index);
+            out.jerk = c.get(6 * n + index);
+            out.heading = c.get(7 * n + index);
+        }
+        return out;
+    }
+
+    /**
+     * Get a single field of a Segment without creating a Segment object.
+     * @param column    The field to get
+     * @param index     The index of the segment
+     * @return          The value of the field
+     */
+    public double get(Column column, int index) {
+        if (segments != null) {
+            Segment s = segments[index];
+            switch (column) {
+                case DT:            return s.dt;
+                case X:             return s.x;
+                case Y:             return s.y;
+                case POSITION:      return s.position;
+                case VELOCITY:      return s.velocity;
+                case ACCELERATION:  return s.acceleration;
+                case JERK:          return s.jerk;
+                default:            return s.heading;
+            }
+        }
+        checkIndex(index);
+        return columns.get(column.ordinal() * length + index);
+    }
+
+    /**
+     * Set a single field of a Segment.
+     * @param column    The field to set
+     * @param index     The index of the segment
+     * @param value     The new value of the field
+     */
+    public void set(Column column, int index, double value) {
+        if (segments != null) {
+            Segment s = segments[index];
+            switch (column) {
+                case DT:            s.dt = value; break;
+                case X:             s.x = value; break;
+                case Y:             s.y = value; break;
+                case POSITION:      s.position = value; break;
+                case VELOCITY:      s.velocity = value; break;
+                case ACCELERATION:  s.acceleration = value; break;
+                case JERK:          s.jerk = value; break;
+                default:            s.heading = value; break;
+            }
+        } else {
+            checkIndex(index);
+            columns.put(column.ordinal() * length + index, value);
+        }
+    }
+
+    /**
+     * Set every field of a Segment of the trajectory from the given Segment. For Segment-backed trajectories the
+     * values are copied into the existing Segment, so the given one isn't kept.
+     * @param index     The index of the segment
+     * @param segment   The values to set
+     */
+    public void set(int index, Segment segment) {
+        if (segments != null) {
+            Segment s = segments[index];
+            s.dt = segment.dt; s.x = segment.x; s.y = segment.y; s.position = segment.position;
+            s.velocity = segment.velocity; s.acceleration = segment.acceleration; s.jerk = segment.jerk; s.heading = segment.heading;
+        } else {
+            checkIndex(index);
+            DoubleBuffer c = columns;
+            int n = length;
+            c.put(index, segment.dt);
+            c.put(n + index, segment.x);
+            c.put(2 * n + index, segment.y);
+            c.put(3 * n + index, segment.position);
+            c.put(4 * n + index, segment.velocity);
+            c.put(5 * n + index, segment.acceleration);
+            c.put(6 * n + index, segment.jerk);
+            c.put(7 * n + index, segment.heading);
+        }
+    }
+
+    public double getDt(int index)            { return get(Column.DT, index); }
+    public double getX(int index)             { return get(Column.X, index); }
+    public double getY(int index)             { return get(Column.Y, index); }
+    public double getPosition(int index)      { return get(Column.POSITION, index); }
+    public double getVelocity(int index)      { return get(Column.VELOCITY, index); }
+    public double getAcceleration(int index)  { return get(Column.ACCELERATION, index); }
+    public double getJerk(int index)          { return get(Column.JERK, index); }
+    public double getHeading(int index)       { return get(Column.HEADING, index); }
+
+    /**
+     * Get all values of a single field. For columnar trajectories this is a view of the underlying storage, so writes
+     * to it change the trajectory. For Segment-backed trajectories it is a copy.
+     * @param column    The field to get
+     * @return          A buffer of {@link #length()} values, one for each segment
+     */
+    public DoubleBuffer column(Column column) {
+        if (segments != null)
+            return toColumnar().column(column);
+        DoubleBuffer view = columns.duplicate();
+        int start = column.ordinal() * length;
+        view.limit(start + length).position(start);
+        return view.slice();
+    }
+
+    /**
+     * @return whether this trajectory uses columnar storage
+     */
+    public boolean isColumnar() {
+        return columns != null;
+    }
+
+    /**
+     * Get a columnar version of this trajectory. If the trajectory is already columnar, it is returned directly.
+     * @return a columnar trajectory with the same segments
+     */
+    public Trajectory toColumnar() {
+        if (columns != null)
+            return this;
+        return new Trajectory(DoubleBuffer.wrap(PathfinderJNI.packSegments(segments)));
     }
 
     public int length() {
-        return segments.length;
+        return length;
     }
 
     public Trajectory copy() {
+        if (columns != null) {
+            double[] data = new double[length * COLUMNS];
+            DoubleBuffer src = columns.duplicate();
+            src.clear();
+            src.get(data);
+            return new Trajectory(DoubleBuffer.wrap(data));
+        }
         Trajectory toCopy = new Trajectory(length());
         for (int i = 0; i < length(); i++) {
             toCopy.segments[i] = get(i).copy();
@@ -117,4 +364,25 @@ public class Trajectory {
         return toCopy;
     }
 
+    /**
+     * Get the column-major representation of this trajectory, as passed across the native boundary. For heap
+     * columnar trajectories that own their whole array, this is the backing array itself.
+     */
+    double[] packColumns() {
+        if (columns == null)
+            return PathfinderJNI.packSegments(segments);
+        if (columns.hasArray() && columns.arrayOffset() == 0 && columns.array().length == length * COLUMNS)
+            return columns.array();
+        double[] data = new double[length * COLUMNS];
+        DoubleBuffer src = columns.duplicate();
+        src.clear();
+        src.get(data);
+        return data;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= length)
+            throw new IndexOutOfBoundsException("Segment " + index + " out of bounds for length " + length);
+    }
+
 }
@@ -0,0 +1,227 @@
+package jaci.pathfinder;
+
+import jaci.pathfinder.modifiers.SwerveModifier;
+
+import java.io.File;
+import java.lang.ref.Cleaner;
+import java.lang.ref.Reference;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Reusable native memory for generating, modifying and serializing trajectories without copying them between
+ * Java and native code.
+ *
+ * The buffer's segments are held in a direct ByteBuffer, in the same columns as a columnar {@link Trajectory}. The
+ * native code reads and writes this memory directly, and the trajectories returned are views of it, so segments
+ * aren't copied across JNI in either direction. The native memory each operation needs (the splines, arc length
+ * tables and profile filter scratch of a generation, and scratch segments and waypoints) is kept by the buffer and
+ * only grown when a longer path or trajectory needs it, so a buffer reused for every regeneration (e.g. of a path
+ * being edited, or replanned each cycle) stops allocating native memory once it is big enough. Each call still
+ * makes a few small Java objects, for the waypoints passed to native code and the view returned.
+ *
+ * Each trajectory returned is a view of the buffer, so it changes when the buffer is next generated into, read
+ * into or modified into. Use {@link Trajectory#copy()} to keep one. The memory itself belongs to Java, so views
+ * stay safe to read after the buffer is closed. Buffers are not safe to use from multiple threads.
+ */
+public class TrajectoryBuffer implements AutoCloseable {
+
+    private static final Cleaner CLEANER = Cleaner.create();
+
+    // Kept separate from the buffer, so the cleaner doesn't hold a reference to it
+    private static class Handle implements Runnable {
+        long ptr;
+
+        Handle(long ptr) {
+            this.ptr = ptr;
+        }
+
+        @Override
+        public synchronized void run() {
+            if (ptr != 0) {
+                PathfinderJNI.bufferFreeRaw(ptr);
+                ptr = 0;
+            }
+        }
+    }
+
+    private static final int SEGMENT_BYTES = Trajectory.COLUMNS * 8;
+
+    private final Handle handle;
+    private final Cleaner.Cleanable cleanable;
+    private ByteBuffer memory;
+    private int length;
+
+    /**
+     * Create an empty buffer, which grows to fit the first trajectory put in it
+     */
+    public TrajectoryBuffer() {
+        this(0);
+    }
+
+    /**
+     * Create a buffer
+     * @param capacity  The number of segments to make room for up front
+     */
+    public TrajectoryBuffer(int capacity) {
+        if (capacity < 0)
+            throw new IllegalArgumentException("Capacity must not be negative");
+        this.memory = allocate(capacity);
+        this.handle = new Handle(PathfinderJNI.bufferCreateRaw());
+        this.cleanable = CLEANER.register(this, handle);
+    }
+
+    private static ByteBuffer allocate(int segments) {
+        return ByteBuffer.allocateDirect(Math.max(segments, 1) * SEGMENT_BYTES).order(ByteOrder.nativeOrder());
+    }
+
+    // Each native call that is given ptr() is followed by a reachability fence on the buffer, so it can't be
+    // cleaned (freeing the handle) while the call is still using it
+    private long ptr() {
+        synchronized (handle) {
+            if (handle.ptr == 0)
+                throw new IllegalStateException("TrajectoryBuffer has been closed");
+            return handle.ptr;
+        }
+    }
+
+    private void ensureCapacity(int segments) {
+        if (segments > capacity()) {
+            // Grown with headroom, so slowly growing trajectories don't reallocate every time
+            memory = allocate(Math.max(segments, capacity() + capacity() / 2));
+        }
+    }
+
+    /**
+     * Generate a trajectory into this buffer, replacing what it held.
+     * @param waypoints     An array of waypoints (setpoints) for the trajectory path to intersect
+     * @param config        The configuration of the trajectory
+     * @return              The generated trajectory, a view of this buffer
+     */
+    public Trajectory generate(Waypoint[] waypoints, Trajectory.Config config) {
+        try {
+            long ptr = ptr();
+            int generated = PathfinderJNI.bufferGenerateRaw(ptr, memory, PathfinderJNI.packWaypoints(waypoints), config.fit.ordinal(),
+                    config.sample_count, config.tolerance, config.dt, config.max_velocity, config.max_acceleration, config.max_jerk);
+            // Too long to fit, so the segments were kept natively until there is room for them
+            if (generated > capacity()) {
+                ensureCapacity(generated);
+                PathfinderJNI.bufferPackRaw(ptr, memory, generated);
+            }
+            length = generated;
+            return trajectory();
+        } finally {
+            Reference.reachabilityFence(this);
+        }
+    }
+
+    /**
+     * Modify the trajectory in this buffer for a tank drive, into other buffers
+     * @param left              The buffer for the left side's trajectory
+     * @param right             The buffer for the right side's trajectory
+     * @param wheelbase_width   The width between the individual sides of the wheelbase
+     */
+    public void modifyTank(TrajectoryBuffer left, TrajectoryBuffer right, double wheelbase_width) {
+        modify(new TrajectoryBuffer[] { left, right }, wheelbase_width, 0, SwerveModifier.Mode.SWERVE_DEFAULT);
+    }
+
+    /**
+     * Modify the trajectory in this buffer for a swerve drive, into other buffers
+     * @param frontLeft         The buffer for the front left wheel's trajectory
+     * @param frontRight        The buffer for the front right wheel's trajectory
+     * @param backLeft          The buffer for the back left wheel's trajectory
+     * @param backRight         The buffer for the back right wheel's trajectory
+     * @param wheelbase_width   The width between the individual sides of the wheelbase
+     * @param wheelbase_depth   The width between the front and back sides of the wheelbase
+     * @param mode              The mode to use when modifying the trajectory
+     */
+    public void modifySwerve(TrajectoryBuffer frontLeft, TrajectoryBuffer frontRight, TrajectoryBuffer backLeft,
+                             TrajectoryBuffer backRight, double wheelbase_width, double wheelbase_depth, SwerveModifier.Mode mode) {
+        modify(new TrajectoryBuffer[] { frontLeft, frontRight, backLeft, backRight }, wheelbase_width, wheelbase_depth, mode);
+    }
+
+    private void modify(TrajectoryBuffer[] outputs, double width, double depth, SwerveModifier.Mode mode) {
+        ByteBuffer[] memories = new ByteBuffer[outputs.length];
+        for (int i = 0; i < outputs.length; i++) {
+            if (outputs[i] == this)
+                throw new IllegalArgumentException("A buffer can't be modified into itself");
+            outputs[i].ptr();
+            outputs[i].ensureCapacity(length);
+            memories[i] = outputs[i].memory;
+        }
+        try {
+            PathfinderJNI.bufferModifyRaw(ptr(), memory, length, memories, width, depth, mode.ordinal());
+        } finally {
+            Reference.reachabilityFence(this);
+        }
+        for (TrajectoryBuffer output : outputs)
+            output.length = length;
+    }
+
+    /**
+     * Write the trajectory in this buffer to a file, in the same format as {@link Pathfinder#writeToFile(File, Trajectory)}
+     * @param file  The file to write to
+     */
+    public void writeToFile(File file) {
+        file.getAbsoluteFile().getParentFile().mkdirs();
+        try {
+            PathfinderJNI.bufferSerializeRaw(ptr(), memory, length, file.getAbsolutePath());
+        } finally {
+            Reference.reachabilityFence(this);
+        }
+    }
+
+    /**
+     * Read a trajectory from a file written by {@link Pathfinder#writeToFile(File, Trajectory)} into this buffer,
+     * replacing what it held.
+     * @param file  The file to read from
+     * @return      The trajectory read, a view of this buffer
+     */
+    public Trajectory readFromFile(File file) {
+        try {
+            long ptr = ptr();
+            int read = PathfinderJNI.bufferDeserializeRaw(ptr, memory, file.getAbsolutePath());
+            if (read > capacity()) {
+                ensureCapacity(read);
+                PathfinderJNI.bufferPackRaw(ptr, memory, read);
+            }
+            length = read;
+            return trajectory();
+        } finally {
+            Reference.reachabilityFence(this);
+        }
+    }
+
+    /**
+     * @return The trajectory held by this buffer, a view of it
+     */
+    public Trajectory trajectory() {
+        ByteBuffer view = memory.duplicate();
+        view.limit(length * SEGMENT_BYTES);
+        return new Trajectory(view.slice().order(ByteOrder.nativeOrder()).asDoubleBuffer());
+    }
+
+    /**
+     * @return The number of segments in the trajectory held by this buffer
+     */
+    public int length() {
+        return length;
+    }
+
+    /**
+     * @return The number of segments this buffer can hold before it has to grow
+     */
+    public int capacity() {
+        return memory.capacity() / SEGMENT_BYTES;
+    }
+
+    /**
+     * Free the native scratch memory held by the buffer. Trajectories already returned can still be read, but the
+     * buffer can't be used again.
+     */
+    @Override
+    public void close() {
+        cleanable.clean();
+    }
+
+}
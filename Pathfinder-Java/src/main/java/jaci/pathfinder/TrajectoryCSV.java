@@ -0,0 +1,474 @@
+package jaci.pathfinder;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+
+/**
+ * Streaming reader and writer for CSV trajectories (.pf1.csv), as written by PathWeaver and
+ * {@link Pathfinder#writeToCSV(File, Trajectory)}.
+ *
+ * Files are read through a buffered channel and numbers are parsed straight from the bytes, without building a String
+ * for each field. Values are written in their shortest round-trip form (as given by {@link Double#toString(double)}),
+ * so a trajectory written and read back is identical to the original.
+ */
+public class TrajectoryCSV {
+
+    public static final String HEADER = "dt,x,y,position,velocity,acceleration,jerk,heading";
+
+    static final int BUFFER_SIZE = 64 * 1024;
+
+    private TrajectoryCSV() { }
+
+    /**
+     * Read a whole CSV trajectory into a columnar Trajectory.
+     * @param file  The file to read from
+     * @return      The trajectory that was read from file
+     */
+    public static Trajectory read(File file) throws IOException {
+        return PathfinderJNI.wrapColumns(readPacked(file));
+    }
+
+    // Reads the whole file as a column-major array, as passed across the native boundary
+    static double[] readPacked(File file) throws IOException {
+        try (Reader reader = open(file)) {
+            // Guess the capacity from the file size, most rows are well over 48 bytes
+            int capacity = (int) Math.min(Integer.MAX_VALUE / Trajectory.COLUMNS, Math.max(16, file.length() / 48));
+            double[][] cols = new double[Trajectory.COLUMNS][capacity];
+            double[] row = new double[Trajectory.COLUMNS];
+            int n = 0;
+            while (reader.nextRow(row)) {
+                if (n == capacity) {
+                    capacity = capacity * 2;
+                    for (int c = 0; c < Trajectory.COLUMNS; c++)
+                        cols[c] = Arrays.copyOf(cols[c], capacity);
+                }
+                for (int c = 0; c < Trajectory.COLUMNS; c++)
+                    cols[c][n] = row[c];
+                n++;
+            }
+
+            double[] packed = new double[n * Trajectory.COLUMNS];
+            for (int c = 0; c < Trajectory.COLUMNS; c++)
+                System.arraycopy(cols[c], 0, packed, c * n, n);
+            return packed;
+        }
+    }
+
+    /**
+     * Open a CSV trajectory for incremental reading.
+     * @param file  The file to read from
+     * @return      A reader over the segments of the file. This must be closed.
+     */
+    public static Reader open(File file) throws IOException {
+        return new Reader(FileChannel.open(file.toPath(), StandardOpenOption.READ));
+    }
+
+    /**
+     * Write a trajectory to a CSV file, including the header line.
+     * @param file          The file to write to
+     * @param trajectory    The trajectory to write
+     */
+    public static void write(File file, Trajectory trajectory) throws IOException {
+        try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            write(ch, trajectory);
+        }
+    }
+
+    /**
+     * Write a trajectory in CSV form to a channel, including the header line.
+     * @param ch            The channel to write to
+     * @param trajectory    The trajectory to write
+     */
+    public static void write(WritableByteChannel ch, Trajectory trajectory) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(BUFFER_SIZE);
+        StringBuilder sb = new StringBuilder(256);
+        Trajectory.Segment s = new Trajectory.Segment(0, 0, 0, 0, 0, 0, 0, 0);
+
+        sb.append(HEADER).append('\n');
+        for (int i = 0; i < trajectory.length(); i++) {
+            trajectory.get(i, s);
+            // StringBuilder formats doubles in place, without creating a String for each value
+            sb.append(s.dt).append(',').append(s.x).append(',').append(s.y).append(',')
+              .append(s.position).append(',').append(s.velocity).append(',').append(s.acceleration).append(',')
+              .append(s.jerk).append(',').append(s.heading).append('\n');
+            drain(ch, buf, sb);
+        }
+        flush(ch, buf);
+    }
+
+    // Move the formatted text into the byte buffer, writing the buffer out first if it is full
+    private static void drain(WritableByteChannel ch, ByteBuffer buf, StringBuilder sb) throws IOException {
+        if (buf.remaining() < sb.length())
+            flush(ch, buf);
+        // Everything written is ASCII
+        for (int j = 0; j < sb.length(); j++)
+            buf.put((byte) sb.charAt(j));
+        sb.setLength(0);
+    }
+
+    private static void flush(WritableByteChannel ch, ByteBuffer buf) throws IOException {
+        buf.flip();
+        while (buf.hasRemaining())
+            ch.write(buf);
+        buf.clear();
+    }
+
+    /**
+     * An incremental reader over the segments of a CSV trajectory. Rows are parsed as they are requested, so only
+     * a small buffer of the file is held in memory at once.
+     */
+    public static class Reader implements Iterator<Trajectory.Segment>, Closeable {
+
+        final ReadableByteChannel channel;
+        final ByteBuffer buf = ByteBuffer.allocate(BUFFER_SIZE);
+        final byte[] field = new byte[64];
+        final double[] row = new double[Trajectory.COLUMNS];
+
+        int line = 0;
+        boolean eof = false, peeked = false, hasPeeked = false, started = false;
+
+        public Reader(ReadableByteChannel channel) {
+            this.channel = channel;
+            buf.flip();
+        }
+
+        /**
+         * Read the next row of the file into an existing Segment.
+         * @param out   The segment to write into
+         * @return      false if the end of the file has been reached
+         */
+        public boolean next(Trajectory.Segment out) throws IOException {
+            if (!nextRow(row))
+                return false;
+            out.dt = row[0]; out.x = row[1]; out.y = row[2]; out.position = row[3];
+            out.velocity = row[4]; out.acceleration = row[5]; out.jerk = row[6]; out.heading = row[7];
+            return true;
+        }
+
+        /**
+         * Read the next row of the file as the raw values of each column, in the order of {@link Trajectory.Column}
+         * @param out   An array of at least 8 values to write into
+         * @return      false if the end of the file has been reached
+         */
+        public boolean nextRow(double[] out) throws IOException {
+            if (hasPeeked) {
+                hasPeeked = false;
+                if (!peeked) return false;
+                System.arraycopy(row, 0, out, 0, Trajectory.COLUMNS);
+                return true;
+            }
+
+            while (true) {
+                int b = peekByte();
+                if (b < 0) return false;
+                line++;
+                if (b == '\n' || b == '\r') {
+                    readByte();
+                    if (b == '\r' && peekByte() == '\n') readByte();
+                    continue;
+                }
+                int term = readField();
+                if (!started) {
+                    started = true;
+                    // Only the first line may be a header. Any other text is an error, rather than a row that is
+                    // silently dropped.
+                    if (!isNumber(field, fieldLength)) {
+                        if (term == ',') skipLine();
+                        continue;
+                    }
+                }
+                for (int c = 0; ; c++) {
+                    out[c] = parseDouble(field, fieldLength, line);
+                    if (c == Trajectory.COLUMNS - 1) {
+                        if (term == ',') skipLine();
+                        return true;
+                    }
+                    if (term != ',')
+                        throw new IOException("CSV line " + line + " has fewer than " + Trajectory.COLUMNS + " values");
+                    term = readField();
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (!hasPeeked) {
+                try {
+                    peeked = nextRow(row);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                hasPeeked = true;
+            }
+            return peeked;
+        }
+
+        @Override
+        public Trajectory.Segment next() {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            hasPeeked = false;
+            return new Trajectory.Segment(row[0], row[1], row[2], row[3], row[4], row[5], row[6], row[7]);
+        }
+
+        /**
+         * @return a Spliterator over the remaining segments of the file
+         */
+        public Spliterator<Trajectory.Segment> spliterator() {
+            return new Spliterators.AbstractSpliterator<Trajectory.Segment>(Long.MAX_VALUE,
+                    Spliterator.ORDERED | Spliterator.NONNULL) {
+                @Override
+                public boolean tryAdvance(Consumer<? super Trajectory.Segment> action) {
+                    if (!hasNext()) return false;
+                    action.accept(Reader.this.next());
+                    return true;
+                }
+            };
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+
+        int fieldLength;
+
+        // Reads a field into the field buffer, returning the byte that ended it (or -1 at the end of the file)
+        private int readField() throws IOException {
+            fieldLength = 0;
+            while (true) {
+                int b = readByte();
+                if (b < 0 || b == ',' || b == '\n')
+                    return b;
+                if (b == '\r' || b == ' ' || b == '\t')
+                    continue;
+                if (fieldLength == field.length)
+                    throw new IOException("CSV line " + line + " has a value that is too long");
+                field[fieldLength++] = (byte) b;
+            }
+        }
+
+        private void skipLine() throws IOException {
+            int b;
+            do { b = readByte(); } while (b >= 0 && b != '\n');
+        }
+
+        private int peekByte() throws IOException {
+            if (!buf.hasRemaining() && !fill()) return -1;
+            return buf.get(buf.position()) & 0xFF;
+        }
+
+        private int readByte() throws IOException {
+            if (!buf.hasRemaining() && !fill()) return -1;
+            return buf.get() & 0xFF;
+        }
+
+        private boolean fill() throws IOException {
+            if (eof) return false;
+            buf.clear();
+            int read;
+            do { read = channel.read(buf); } while (read == 0);
+            buf.flip();
+            if (read < 0) {
+                eof = true;
+                return false;
+            }
+            return true;
+        }
+    }
+
+    // Whether a field is a number (including NaN and Infinity, as written by Double.toString), as opposed to a header
+    static boolean isNumber(byte[] s, int len) {
+        try {
+            parseDouble(s, len, 0);
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /*
+     * Numbers are parsed without creating Strings. A decimal mantissa of up to 19 digits is accumulated exactly,
+     * and converted with Clinger's fast path when the mantissa and power of ten are both exact doubles, or with
+     * the Eisel-Lemire algorithm otherwise. Both are correctly rounded. The rare inputs neither can settle (more
+     * than 19 significant digits, values at the edges of the double range, exact halfway cases, NaN and Infinity)
+     * fall back to Double.parseDouble.
+     */
+
+    private static final double[] EXACT_POWERS = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    static double parseDouble(byte[] s, int len, int line) throws IOException {
+        int i = 0;
+        boolean neg = false;
+        if (i < len && (s[i] == '-' || s[i] == '+')) {
+            neg = s[i] == '-';
+            i++;
+        }
+
+        long mantissa = 0;
+        int digits = 0, exp10 = 0;
+        boolean any = false, truncated = false;
+
+        for (; i < len && s[i] >= '0' && s[i] <= '9'; i++) {
+            any = true;
+            if (digits < 19) {
+                mantissa = mantissa * 10 + (s[i] - '0');
+                if (mantissa != 0) digits++;
+            } else {
+                exp10++;
+                truncated |= s[i] != '0';
+            }
+        }
+        if (i < len && s[i] == '.') {
+            i++;
+            for (; i < len && s[i] >= '0' && s[i] <= '9'; i++) {
+                any = true;
+                if (digits < 19) {
+                    mantissa = mantissa * 10 + (s[i] - '0');
+                    if (mantissa != 0) digits++;
+                    exp10--;
+                } else {
+                    truncated |= s[i] != '0';
+                }
+            }
+        }
+        if (any && i < len && (s[i] == 'e' || s[i] == 'E')) {
+            i++;
+            boolean eneg = false;
+            if (i < len && (s[i] == '-' || s[i] == '+')) {
+                eneg = s[i] == '-';
+                i++;
+            }
+            int e = 0;
+            boolean edigits = false;
+            for (; i < len && s[i] >= '0' && s[i] <= '9'; i++) {
+                edigits = true;
+                if (e < 100000) e = e * 10 + (s[i] - '0');
+            }
+            if (!edigits) any = false;
+            exp10 += eneg ? -e : e;
+        }
+
+        if (!any || i != len || truncated)
+            return parseSlow(s, len, line);
+
+        if (mantissa == 0)
+            return neg ? -0.0 : 0.0;
+
+        // Clinger's fast path
+        if (mantissa > 0 && mantissa <= (1L << 53) && exp10 >= -22 && exp10 <= 22) {
+            double d = (double) mantissa;
+            d = exp10 < 0 ? d / EXACT_POWERS[-exp10] : d * EXACT_POWERS[exp10];
+            return neg ? -d : d;
+        }
+
+        double d = eiselLemire(mantissa, exp10, neg);
+        if (!Double.isNaN(d))
+            return d;
+        return parseSlow(s, len, line);
+    }
+
+    private static double parseSlow(byte[] s, int len, int line) throws IOException {
+        try {
+            return Double.parseDouble(new String(s, 0, len, StandardCharsets.US_ASCII));
+        } catch (NumberFormatException e) {
+            throw new IOException("CSV line " + line + " has an invalid number: " + new String(s, 0, len, StandardCharsets.US_ASCII));
+        }
+    }
+
+    private static long unsignedMultiplyHigh(long a, long b) {
+        return Math.multiplyHigh(a, b) + ((a >> 63) & b) + ((b >> 63) & a);
+    }
+
+    // Returns NaN if the result can't be determined exactly
+    private static double eiselLemire(long man, int exp10, boolean neg) {
+        if (exp10 < Powers.MIN_EXP10 || exp10 > Powers.MAX_EXP10)
+            return Double.NaN;
+
+        int clz = Long.numberOfLeadingZeros(man);
+        man <<= clz;
+        long retExp2 = ((217706L * exp10) >> 16) + 64 + 1023 - clz;
+
+        int idx = (exp10 - Powers.MIN_EXP10) * 2;
+        long powHi = Powers.TABLE[idx], powLo = Powers.TABLE[idx + 1];
+
+        long xHi = unsignedMultiplyHigh(man, powHi);
+        long xLo = man * powHi;
+
+        if ((xHi & 0x1FF) == 0x1FF && Long.compareUnsigned(xLo + man, man) < 0) {
+            long yHi = unsignedMultiplyHigh(man, powLo);
+            long yLo = man * powLo;
+            long mergedHi = xHi, mergedLo = xLo + yHi;
+            if (Long.compareUnsigned(mergedLo, xLo) < 0)
+                mergedHi++;
+            if ((mergedHi & 0x1FF) == 0x1FF && mergedLo + 1 == 0 && Long.compareUnsigned(yLo + man, man) < 0)
+                return Double.NaN;
+            xHi = mergedHi;
+            xLo = mergedLo;
+        }
+
+        long msb = xHi >>> 63;
+        long retMantissa = xHi >>> (msb + 9);
+        retExp2 -= 1 ^ msb;
+
+        if (xLo == 0 && (xHi & 0x1FF) == 0 && (retMantissa & 3) == 1)
+            return Double.NaN;
+
+        retMantissa += retMantissa & 1;
+        retMantissa >>>= 1;
+        if ((retMantissa >>> 53) > 0) {
+            retMantissa >>>= 1;
+            retExp2 += 1;
+        }
+        if (retExp2 <= 0 || retExp2 >= 0x7FF)
+            return Double.NaN;
+
+        long bits = (retExp2 << 52) | (retMantissa & 0x000FFFFFFFFFFFFFL);
+        if (neg) bits |= 0x8000000000000000L;
+        return Double.longBitsToDouble(bits);
+    }
+
+    // 128-bit mantissas of powers of ten, rounded down. Only built when the fast path isn't enough.
+    private static class Powers {
+        static final int MIN_EXP10 = -348, MAX_EXP10 = 347;
+        static final long[] TABLE = new long[(MAX_EXP10 - MIN_EXP10 + 1) * 2];
+
+        static {
+            BigInteger mask = BigInteger.ONE.shiftLeft(64).subtract(BigInteger.ONE);
+            for (int e = MIN_EXP10; e <= MAX_EXP10; e++) {
+                BigInteger m;
+                if (e >= 0) {
+                    BigInteger p = BigInteger.TEN.pow(e);
+                    int shift = 128 - p.bitLength();
+                    m = shift >= 0 ? p.shiftLeft(shift) : p.shiftRight(-shift);
+                } else {
+                    BigInteger p = BigInteger.TEN.pow(-e);
+                    m = BigInteger.ONE.shiftLeft(127 + p.bitLength()).divide(p);
+                }
+                int idx = (e - MIN_EXP10) * 2;
+                TABLE[idx] = m.shiftRight(64).longValue();
+                TABLE[idx + 1] = m.and(mask).longValue();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,343 @@
+package jaci.pathfinder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A cache of trajectories, keyed by the content that produced them. The waypoints and configuration given to
+ * {@link Pathfinder#generate(Waypoint[], Trajectory.Config)} fully determine its output, so a path that has been
+ * generated before can be returned without going through the generator again.
+ *
+ * The cache has two tiers. The memory tier holds a bounded number of trajectories, evicting the least recently
+ * used. The optional disk tier stores every trajectory in a directory as a {@link TrajectoryFile}, named after
+ * its key, so entries survive restarts and are memory mapped when read back.
+ *
+ * Trajectories returned by the cache are shared between callers and are read-only. Use {@link Trajectory#copy()}
+ * for a modifiable copy.
+ */
+public class TrajectoryCache {
+
+    /**
+     * Bumped whenever the generator changes in a way that changes its output, so old disk entries aren't used.
+     */
+    static final int KEY_VERSION = 1;
+    static final String FILE_EXTENSION = ".pftr";
+
+    private final Map<String, Trajectory> memory;
+    private final File directory;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong diskHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Create a cache that only keeps trajectories in memory
+     * @param capacity      The maximum number of trajectories to keep in memory
+     */
+    public TrajectoryCache(int capacity) {
+        this(capacity, null);
+    }
+
+    /**
+     * Create a cache that keeps trajectories in memory, and on disk in the given directory
+     * @param capacity      The maximum number of trajectories to keep in memory
+     * @param directory     The directory for the disk tier, created if it doesn't exist, or null for memory only
+     */
+    public TrajectoryCache(int capacity, File directory) {
+        if (capacity < 0)
+            throw new IllegalArgumentException("Capacity must not be negative");
+
+        this.directory = directory;
+        this.memory = new LinkedHashMap<String, Trajectory>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Trajectory> eldest) {
+                if (size() > capacity) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Generate a trajectory, or return the cached result of an earlier generation with the same waypoints and
+     * configuration.
+     * @param waypoints     An array of waypoints (setpoints) for the trajectory path to intersect
+     * @param config        The configuration of the trajectory
+     * @return              The (read-only) generated trajectory
+     */
+    public Trajectory generate(Waypoint[] waypoints, Trajectory.Config config) {
+        try {
+            return get(key(waypoints, config), () -> Pathfinder.generateColumnar(waypoints, config));
+        } catch (IOException e) {
+            // Generation doesn't do any IO, and disk tier failures are ignored
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Generate trajectories for several paths sharing one configuration, or return the cached results of earlier
+     * generations. The paths that aren't cached are generated together, with one call into the native library
+     * (see {@link PathfinderJNI#generateTrajectories(List, Trajectory.Config)}), which reuses its memory from one
+     * path to the next. Paths that appear more than once are only generated once.
+     * @param paths         The waypoints of each path
+     * @param config        The configuration of every trajectory
+     * @return              The (read-only) generated trajectories, in the order of the paths. A path that couldn't
+     *                      be generated is null; {@link #generate(Waypoint[], Trajectory.Config)} gives the reason.
+     */
+    public Trajectory[] generateAll(List<Waypoint[]> paths, Trajectory.Config config) {
+        Trajectory[] result = new Trajectory[paths.size()];
+        String[] keys = new String[result.length];
+        // The first index of each key that isn't cached, in the order they will be generated
+        Map<String, Integer> missing = new HashMap<>();
+        List<Waypoint[]> generate = new ArrayList<>();
+        for (int i = 0; i < result.length; i++) {
+            keys[i] = key(paths.get(i), config);
+            if (missing.containsKey(keys[i])) continue;
+            result[i] = lookup(keys[i]);
+            if (result[i] == null) {
+                missing.put(keys[i], generate.size());
+                generate.add(paths.get(i));
+            }
+        }
+        if (generate.isEmpty()) return result;
+
+        misses.addAndGet(generate.size());
+        Trajectory[] generated = PathfinderJNI.generateTrajectories(generate, config);
+        Trajectory[] stored = new Trajectory[generated.length];
+        for (int i = 0; i < result.length; i++) {
+            Integer index = missing.get(keys[i]);
+            if (index == null || generated[index] == null) continue;
+            if (stored[index] == null)
+                stored[index] = store(keys[i], generated[index]);
+            result[i] = stored[index];
+        }
+        return result;
+    }
+
+    /**
+     * Read a trajectory from a CSV file, or return the cached result of an earlier read. Entries are keyed by the
+     * path, size and modification time of the file, so a file that has changed is read again.
+     * @param file          The file to read from
+     * @return              The (read-only) trajectory that was read from file
+     */
+    public Trajectory readFromCSV(File file) throws IOException {
+        return get(key(file), () -> {
+                if (!file.exists())
+                    throw new IOException("File " + file.getAbsolutePath() + " does not exist!");
+                return TrajectoryCSV.read(file);
+            });
+    }
+
+    Trajectory get(String key, Source source) throws IOException {
+        Trajectory traj = lookup(key);
+        if (traj == null) {
+            misses.incrementAndGet();
+            traj = store(key, source.load());
+        }
+        return traj;
+    }
+
+    /**
+     * Find a trajectory in the memory or disk tier, or null if it isn't cached
+     */
+    private Trajectory lookup(String key) {
+        synchronized (memory) {
+            Trajectory cached = memory.get(key);
+            if (cached != null) {
+                hits.incrementAndGet();
+                return cached;
+            }
+        }
+
+        Trajectory traj = readDisk(key);
+        if (traj != null) {
+            diskHits.incrementAndGet();
+            synchronized (memory) {
+                memory.put(key, traj);
+            }
+        }
+        return traj;
+    }
+
+    /**
+     * Add a newly generated or read trajectory to both tiers
+     * @return  The read-only trajectory as cached
+     */
+    private Trajectory store(String key, Trajectory loaded) {
+        Trajectory traj = readOnly(loaded);
+        writeDisk(key, traj);
+        synchronized (memory) {
+            memory.put(key, traj);
+        }
+        return traj;
+    }
+
+    private Trajectory readDisk(String key) {
+        if (directory == null) return null;
+
+        File file = new File(directory, key + FILE_EXTENSION);
+        if (!file.isFile()) return null;
+        try {
+            return TrajectoryFile.map(file, true);
+        } catch (IOException e) {
+            // Truncated or corrupt, most likely from a crash part way through a write. Regenerate it.
+            file.delete();
+            return null;
+        }
+    }
+
+    private void writeDisk(String key, Trajectory traj) {
+        if (directory == null) return;
+
+        // Failing to write only costs a regeneration next time, so it isn't reported to the caller
+        try {
+            directory.mkdirs();
+            File tmp = File.createTempFile(key, ".tmp", directory);
+            try {
+                TrajectoryFile.write(tmp, traj);
+                Files.move(tmp.toPath(), new File(directory, key + FILE_EXTENSION).toPath(),
+                        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                tmp.delete();
+            }
+        } catch (IOException e) { }
+    }
+
+    private static Trajectory readOnly(Trajectory traj) {
+        Trajectory columnar = traj.toColumnar();
+        return new Trajectory(columnar.columns.asReadOnlyBuffer());
+    }
+
+    /**
+     * Remove all trajectories from the memory tier, and delete all entries in the disk tier.
+     */
+    public void clear() {
+        synchronized (memory) {
+            memory.clear();
+        }
+        if (directory != null) {
+            File[] files = directory.listFiles((dir, name) -> name.endsWith(FILE_EXTENSION));
+            if (files != null) {
+                for (File f : files)
+                    f.delete();
+            }
+        }
+    }
+
+    /**
+     * @return The number of trajectories in the memory tier
+     */
+    public int size() {
+        synchronized (memory) {
+            return memory.size();
+        }
+    }
+
+    /**
+     * @return The number of requests served from the memory tier
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return The number of requests served from the disk tier
+     */
+    public long getDiskHits() {
+        return diskHits.get();
+    }
+
+    /**
+     * @return The number of requests that weren't cached, and had to be generated or read
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return The number of trajectories evicted from the memory tier to stay within its capacity
+     */
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /**
+     * Calculate the cache key for a generation. The key is a SHA-256 hash of the exact bits of every waypoint and
+     * configuration value, so it is stable across runs and machines.
+     * @param waypoints     The waypoints to generate with
+     * @param config        The configuration to generate with
+     * @return              The key, as a hex string
+     */
+    public static String key(Waypoint[] waypoints, Trajectory.Config config) {
+        byte[] fit = config.fit.name().getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buf = ByteBuffer.allocate(56 + fit.length + waypoints.length * 24);
+        buf.putInt(KEY_VERSION);
+        buf.putInt(fit.length);
+        buf.put(fit);
+        buf.putInt(config.sample_count);
+        buf.putDouble(config.dt);
+        buf.putDouble(config.max_velocity);
+        buf.putDouble(config.max_acceleration);
+        buf.putDouble(config.max_jerk);
+        buf.putInt(waypoints.length);
+        for (Waypoint w : waypoints) {
+            buf.putDouble(w.x);
+            buf.putDouble(w.y);
+            buf.putDouble(w.angle);
+        }
+        // Only added for adaptive configurations, so keys from before tolerances existed stay the same
+        if (config.tolerance != 0)
+            buf.putDouble(config.tolerance);
+        buf.flip();
+        return hash(buf);
+    }
+
+    static String key(File file) {
+        byte[] path = file.getAbsolutePath().getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buf = ByteBuffer.allocate(24 + path.length);
+        buf.putInt(KEY_VERSION);
+        buf.putLong(file.length());
+        buf.putLong(file.lastModified());
+        buf.put(path);
+        buf.flip();
+        return hash(buf);
+    }
+
+    private static String hash(ByteBuffer data) {
+        byte[] digest;
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            md.update(data);
+            digest = md.digest();
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+
+        StringBuilder sb = new StringBuilder(digest.length * 2);
+        for (byte b : digest)
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        return sb.toString();
+    }
+
+    interface Source {
+        Trajectory load() throws IOException;
+    }
+
+}
@@ -0,0 +1,470 @@
+package jaci.pathfinder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.zip.CRC32;
+
+/**
+ * A compact binary trajectory format, for storing and transferring trajectories when size matters more than being
+ * able to memory map them (see {@link TrajectoryFile} for that).
+ *
+ * Each column is stored in whichever of these ways its {@link Options} allow:
+ * <ul>
+ *     <li>Columns where every segment holds the same value (such as dt) are stored once, in the header.</li>
+ *     <li>Lossless columns are stored as raw doubles.</li>
+ *     <li>Float columns are stored as 32 bit floats.</li>
+ *     <li>Fixed point columns are rounded to a multiple of their error bound, and stored as the first or second
+ *     difference between neighbouring values (whichever is smaller) in variable length integers. Smooth columns
+ *     like position and velocity change very little from one segment to the next, so mostly take 1 or 2 bytes
+ *     per segment. The error of each value is at most half the bound, and doesn't accumulate.</li>
+ * </ul>
+ *
+ * Segments are stored in blocks that each hold every column, so a trajectory can be decoded a block at a time as
+ * it is read (see {@link #open(InputStream)}). The file is little endian:
+ * <pre>
+ *   0  int     magic ("PFTC")
+ *   4  int     format version
+ *   8  int     segment count
+ *  12  int     segments per block
+ *  16  byte[]  encoding of each column, one per column
+ *  24  double[] constant value (constant columns) or fixed point step (fixed point columns) of each column
+ *  88  blocks, each an int byte count followed by the encoded columns of the block
+ *  ..  int     CRC32 of the blocks
+ * </pre>
+ */
+public class TrajectoryCodec {
+
+    public static final int MAGIC = 0x43544650;     // "PFTC", little endian
+    public static final int VERSION = 1;
+    public static final int DEFAULT_BLOCK_SIZE = 512;
+
+    static final int HEADER_SIZE = 88;
+
+    static final byte CONSTANT = 0, RAW = 1, FLOAT = 2, FIXED = 3;
+
+    // Largest quantized magnitude, so a value and its differences stay exact in a long and a double
+    static final double MAX_QUANTIZED = 1L << 50;
+
+    private TrajectoryCodec() { }
+
+    /**
+     * How precisely each column is stored. Columns are lossless unless set otherwise.
+     */
+    public static class Options {
+        final byte[] encodings = new byte[Trajectory.COLUMNS];
+        final double[] maxErrors = new double[Trajectory.COLUMNS];
+        int blockSize = DEFAULT_BLOCK_SIZE;
+
+        /**
+         * @return options that store every column without loss
+         */
+        public static Options lossless() {
+            Options o = new Options();
+            Arrays.fill(o.encodings, RAW);
+            return o;
+        }
+
+        /**
+         * @return options that store every column (other than constant columns) as 32 bit floats
+         */
+        public static Options float32() {
+            Options o = new Options();
+            Arrays.fill(o.encodings, FLOAT);
+            return o;
+        }
+
+        /**
+         * @param maxError  The largest error allowed in any value
+         * @return          options that store every column in fixed point, within the error bound
+         */
+        public static Options fixed(double maxError) {
+            Options o = new Options();
+            for (Trajectory.Column c : Trajectory.Column.values())
+                o.fixed(c, maxError);
+            return o;
+        }
+
+        /**
+         * Store a column without loss
+         * @param column    The column
+         * @return          self
+         */
+        public Options lossless(Trajectory.Column column) {
+            encodings[column.ordinal()] = RAW;
+            return this;
+        }
+
+        /**
+         * Store a column as 32 bit floats
+         * @param column    The column
+         * @return          self
+         */
+        public Options float32(Trajectory.Column column) {
+            encodings[column.ordinal()] = FLOAT;
+            return this;
+        }
+
+        /**
+         * Store a column in fixed point
+         * @param column    The column
+         * @param maxError  The largest error allowed in any value of the column
+         * @return          self
+         */
+        public Options fixed(Trajectory.Column column, double maxError) {
+            if (!(maxError > 0))
+                throw new IllegalArgumentException("Error bound must be positive, got " + maxError);
+            encodings[column.ordinal()] = FIXED;
+            maxErrors[column.ordinal()] = maxError;
+            return this;
+        }
+
+        /**
+         * Set how many segments are stored in each block. Smaller blocks let a streaming decoder hand out the first
+         * segments sooner, at the cost of a few bytes per block.
+         * @param blockSize The segments per block
+         * @return          self
+         */
+        public Options blockSize(int blockSize) {
+            if (blockSize <= 0)
+                throw new IllegalArgumentException("Block size must be positive, got " + blockSize);
+            this.blockSize = blockSize;
+            return this;
+        }
+    }
+
+    /**
+     * Encode a trajectory.
+     * @param trajectory    The trajectory to encode
+     * @param options       How precisely to store each column
+     * @return              The encoded trajectory
+     */
+    public static byte[] encode(Trajectory trajectory, Options options) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            encode(trajectory, options, out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Encode a trajectory to a stream.
+     * @param trajectory    The trajectory to encode
+     * @param options       How precisely to store each column
+     * @param out           The stream to write to
+     */
+    public static void encode(Trajectory trajectory, Options options, OutputStream out) throws IOException {
+        Trajectory traj = trajectory.toColumnar();
+        int length = traj.length();
+        int blockSize = options.blockSize;
+
+        // Decide how each column is stored from the whole trajectory, so every block uses the same encoding
+        byte[] encodings = new byte[Trajectory.COLUMNS];
+        double[] params = new double[Trajectory.COLUMNS];
+        for (Trajectory.Column c : Trajectory.Column.values()) {
+            int i = c.ordinal();
+            if (length > 0 && isConstant(traj, c)) {
+                encodings[i] = CONSTANT;
+                params[i] = traj.get(c, 0);
+            } else if (options.encodings[i] == FIXED && fitsFixed(traj, c, options.maxErrors[i])) {
+                encodings[i] = FIXED;
+                params[i] = options.maxErrors[i];
+            } else {
+                // A column too large (or not finite) for fixed point falls back to lossless
+                encodings[i] = options.encodings[i] == FLOAT ? FLOAT : RAW;
+            }
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putInt(VERSION).putInt(length).putInt(blockSize).put(encodings);
+        for (double p : params) header.putDouble(p);
+        out.write(header.array());
+
+        CRC32 crc = new CRC32();
+        ByteBuffer block = ByteBuffer.allocate(4 + maxBlockBytes(blockSize)).order(ByteOrder.LITTLE_ENDIAN);
+        for (int start = 0; start < length; start += blockSize) {
+            int n = Math.min(blockSize, length - start);
+            block.clear();
+            block.putInt(0);
+            for (Trajectory.Column c : Trajectory.Column.values())
+                encodeColumn(traj, c, start, n, encodings[c.ordinal()], params[c.ordinal()], block);
+            block.putInt(0, block.position() - 4);
+            out.write(block.array(), 0, block.position());
+            crc.update(block.array(), 0, block.position());
+        }
+
+        ByteBuffer footer = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+        footer.putInt((int) crc.getValue());
+        out.write(footer.array());
+    }
+
+    // Every value as a 10 byte variable length integer, plus the order of difference of each column
+    static int maxBlockBytes(int blockSize) {
+        return Trajectory.COLUMNS * (blockSize * 10 + 1);
+    }
+
+    private static boolean isConstant(Trajectory traj, Trajectory.Column c) {
+        long first = Double.doubleToRawLongBits(traj.get(c, 0));
+        for (int i = 1; i < traj.length(); i++)
+            if (Double.doubleToRawLongBits(traj.get(c, i)) != first) return false;
+        return true;
+    }
+
+    private static boolean fitsFixed(Trajectory traj, Trajectory.Column c, double step) {
+        for (int i = 0; i < traj.length(); i++) {
+            double q = traj.get(c, i) / step;
+            if (!(Math.abs(q) < MAX_QUANTIZED)) return false;
+        }
+        return true;
+    }
+
+    private static void encodeColumn(Trajectory traj, Trajectory.Column c, int start, int n, byte encoding, double param, ByteBuffer out) {
+        switch (encoding) {
+            case CONSTANT:
+                return;
+            case RAW:
+                for (int i = start; i < start + n; i++) out.putDouble(traj.get(c, i));
+                return;
+            case FLOAT:
+                for (int i = start; i < start + n; i++) out.putFloat((float) traj.get(c, i));
+                return;
+            default:
+                // Rounded to a multiple of the bound, so each value is within half the bound. Try both orders of
+                // difference and keep the smaller, as noisy columns do worse with the second difference.
+                int mark = out.position();
+                out.put((byte) 1);
+                putDifferences(traj, c, start, n, param, 1, out);
+                int firstSize = out.position() - mark;
+                out.position(mark);
+                out.put((byte) 2);
+                putDifferences(traj, c, start, n, param, 2, out);
+                if (out.position() - mark > firstSize) {
+                    out.position(mark);
+                    out.put((byte) 1);
+                    putDifferences(traj, c, start, n, param, 1, out);
+                }
+        }
+    }
+
+    private static void putDifferences(Trajectory traj, Trajectory.Column c, int start, int n, double step, int order, ByteBuffer out) {
+        long prev = 0, prev2 = 0;
+        for (int i = start; i < start + n; i++) {
+            long q = Math.round(traj.get(c, i) / step);
+            long d = order == 1 ? q - prev : q - 2 * prev + prev2;
+            putVarLong((d << 1) ^ (d >> 63), out);
+            prev2 = prev;
+            prev = q;
+        }
+    }
+
+    private static void putVarLong(long v, ByteBuffer out) {
+        while ((v & ~0x7FL) != 0) {
+            out.put((byte) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        out.put((byte) v);
+    }
+
+    private static long getVarLong(ByteBuffer in) throws IOException {
+        long v = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.get();
+            v |= (long) (b & 0x7F) << shift;
+            if (b >= 0) return v;
+        }
+        throw new IOException("Corrupt compressed trajectory");
+    }
+
+    /**
+     * Decode a whole trajectory.
+     * @param data  The encoded trajectory
+     * @return      The decoded trajectory
+     */
+    public static Trajectory decode(byte[] data) throws IOException {
+        return decode(new ByteArrayInputStream(data));
+    }
+
+    /**
+     * Decode a whole trajectory from a stream.
+     * @param in    The stream to read from
+     * @return      The decoded trajectory
+     */
+    public static Trajectory decode(InputStream in) throws IOException {
+        Decoder decoder = open(in);
+        Trajectory traj = Trajectory.columnar(decoder.length());
+        int offset = 0;
+        while (decoder.hasNext()) {
+            Trajectory block = decoder.nextBlock();
+            for (Trajectory.Column c : Trajectory.Column.values()) {
+                DoubleBuffer col = traj.column(c);
+                col.position(offset);
+                col.put(block.column(c));
+            }
+            offset += block.length();
+        }
+        return traj;
+    }
+
+    /**
+     * Start decoding a trajectory from a stream a block at a time. Only the header is read until blocks are asked
+     * for, and each block is read from the stream as it is decoded.
+     * @param in    The stream to read from
+     * @return      The decoder
+     */
+    public static Decoder open(InputStream in) throws IOException {
+        return new Decoder(in);
+    }
+
+    /**
+     * Decodes a trajectory a block at a time. Each block is a columnar {@link Trajectory} holding the next segments
+     * of the trajectory, so a follower can start on the first block while the rest is still being read. The
+     * checksum is checked once the last block is read.
+     */
+    public static class Decoder implements Iterator<Trajectory> {
+        private final DataInputStream in;
+        private final int length, blockSize;
+        private final byte[] encodings = new byte[Trajectory.COLUMNS];
+        private final double[] params = new double[Trajectory.COLUMNS];
+        private final CRC32 crc = new CRC32();
+        private byte[] buffer = new byte[0];
+        private int decoded;
+
+        Decoder(InputStream in) throws IOException {
+            this.in = new DataInputStream(in);
+            ByteBuffer header = ByteBuffer.wrap(readFully(HEADER_SIZE, new byte[HEADER_SIZE])).order(ByteOrder.LITTLE_ENDIAN);
+            if (header.getInt() != MAGIC)
+                throw new IOException("Not a compressed Pathfinder trajectory");
+            int version = header.getInt();
+            if (version > VERSION)
+                throw new IOException("Unsupported compressed trajectory version " + version + " (newest supported is " + VERSION + ")");
+            length = header.getInt();
+            blockSize = header.getInt();
+            header.get(encodings);
+            for (int i = 0; i < Trajectory.COLUMNS; i++) {
+                params[i] = header.getDouble();
+                if (encodings[i] < CONSTANT || encodings[i] > FIXED)
+                    throw new IOException("Corrupt compressed trajectory header");
+            }
+            if (length < 0 || blockSize <= 0)
+                throw new IOException("Corrupt compressed trajectory header");
+        }
+
+        private byte[] readFully(int n, byte[] into) throws IOException {
+            try {
+                in.readFully(into, 0, n);
+            } catch (EOFException e) {
+                throw new IOException("Compressed trajectory is truncated", e);
+            }
+            return into;
+        }
+
+        /**
+         * @return the total number of segments in the trajectory
+         */
+        public int length() {
+            return length;
+        }
+
+        /**
+         * @return the number of segments decoded so far
+         */
+        public int decoded() {
+            return decoded;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return decoded < length;
+        }
+
+        /**
+         * Read and decode the next block. IO errors are thrown as {@link UncheckedIOException}, see
+         * {@link #nextBlock()} to have them thrown as they are.
+         */
+        @Override
+        public Trajectory next() {
+            try {
+                return nextBlock();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        /**
+         * Read and decode the next block.
+         * @return The next segments of the trajectory
+         */
+        public Trajectory nextBlock() throws IOException {
+            if (!hasNext())
+                throw new NoSuchElementException("All " + length + " segments have been decoded");
+
+            int n = Math.min(blockSize, length - decoded);
+            ByteBuffer size = ByteBuffer.wrap(readFully(4, new byte[4])).order(ByteOrder.LITTLE_ENDIAN);
+            int bytes = size.getInt(0);
+            if (bytes < 0 || bytes > maxBlockBytes(blockSize))
+                throw new IOException("Corrupt compressed trajectory block");
+            if (buffer.length < bytes) buffer = new byte[bytes];
+            readFully(bytes, buffer);
+            crc.update(size.array());
+            crc.update(buffer, 0, bytes);
+
+            ByteBuffer block = ByteBuffer.wrap(buffer, 0, bytes).order(ByteOrder.LITTLE_ENDIAN);
+            Trajectory traj = Trajectory.columnar(n);
+            try {
+                for (Trajectory.Column c : Trajectory.Column.values())
+                    decodeColumn(traj, c, n, block);
+            } catch (BufferUnderflowException e) {
+                throw new IOException("Corrupt compressed trajectory block", e);
+            }
+            decoded += n;
+
+            if (!hasNext()) {
+                ByteBuffer footer = ByteBuffer.wrap(readFully(4, new byte[4])).order(ByteOrder.LITTLE_ENDIAN);
+                if (footer.getInt(0) != (int) crc.getValue())
+                    throw new IOException("Compressed trajectory checksum mismatch");
+            }
+            return traj;
+        }
+
+        private void decodeColumn(Trajectory traj, Trajectory.Column c, int n, ByteBuffer in) throws IOException {
+            double param = params[c.ordinal()];
+            switch (encodings[c.ordinal()]) {
+                case CONSTANT:
+                    for (int i = 0; i < n; i++) traj.set(c, i, param);
+                    return;
+                case RAW:
+                    for (int i = 0; i < n; i++) traj.set(c, i, in.getDouble());
+                    return;
+                case FLOAT:
+                    for (int i = 0; i < n; i++) traj.set(c, i, in.getFloat());
+                    return;
+                default:
+                    int order = in.get();
+                    long prev = 0, prev2 = 0;
+                    for (int i = 0; i < n; i++) {
+                        long z = getVarLong(in);
+                        long d = (z >>> 1) ^ -(z & 1);
+                        long q = order == 1 ? prev + d : d + 2 * prev - prev2;
+                        traj.set(c, i, q * param);
+                        prev2 = prev;
+                        prev = q;
+                    }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,159 @@
+package jaci.pathfinder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * The versioned binary trajectory format. Trajectories in this format can be memory mapped, so opening one is
+ * a constant time operation and segments are only read from disk when they are accessed.
+ *
+ * The file is little endian, and made up of a fixed size header followed by the segment data, stored one column
+ * after the other (see {@link Trajectory.Column}):
+ * <pre>
+ *   0  int     magic ("PFTR")
+ *   4  int     format version
+ *   8  int     segment count
+ *  12  int     column count
+ *  16  long    CRC32 of the segment data
+ *  24  long[]  byte offset of each column, one per column
+ *  88  long    reserved
+ *  96  double  segment data
+ * </pre>
+ */
+public class TrajectoryFile {
+
+    public static final int MAGIC = 0x52544650;     // "PFTR", little endian
+    public static final int VERSION = 1;
+
+    static final int HEADER_SIZE = 96;
+    static final int OFFSETS_START = 24;
+
+    private TrajectoryFile() { }
+
+    /**
+     * Encode a trajectory into a new buffer, header included.
+     * @param trajectory    The trajectory to encode
+     * @return              A buffer holding the encoded trajectory, positioned at 0
+     */
+    public static ByteBuffer encode(Trajectory trajectory) {
+        int length = trajectory.length();
+        int columnBytes = length * 8;
+        ByteBuffer buf = ByteBuffer.allocate(HEADER_SIZE + Trajectory.COLUMNS * columnBytes).order(ByteOrder.LITTLE_ENDIAN);
+
+        buf.putInt(0, MAGIC);
+        buf.putInt(4, VERSION);
+        buf.putInt(8, length);
+        buf.putInt(12, Trajectory.COLUMNS);
+        for (int c = 0; c < Trajectory.COLUMNS; c++)
+            buf.putLong(OFFSETS_START + c * 8, HEADER_SIZE + (long) c * columnBytes);
+
+        buf.position(HEADER_SIZE);
+        DoubleBuffer data = buf.asDoubleBuffer();
+        Trajectory columnar = trajectory.toColumnar();
+        for (Trajectory.Column c : Trajectory.Column.values())
+            data.put(columnar.column(c));
+
+        buf.position(HEADER_SIZE);
+        buf.putLong(16, checksum(buf));
+        buf.position(0);
+        return buf;
+    }
+
+    /**
+     * Decode a trajectory from a buffer in this format, starting at its position. The returned trajectory reads
+     * directly from the buffer, nothing is copied.
+     * @param buf       The buffer holding the encoded trajectory
+     * @param verify    Whether to check the segment data against the stored checksum. This has to read every
+     *                  segment.
+     * @return          The decoded trajectory
+     */
+    public static Trajectory decode(ByteBuffer buf, boolean verify) throws IOException {
+        ByteBuffer b = buf.slice().order(ByteOrder.LITTLE_ENDIAN);
+        if (b.remaining() < HEADER_SIZE || b.getInt(0) != MAGIC)
+            throw new IOException("Not a Pathfinder trajectory file");
+
+        int version = b.getInt(4);
+        if (version > VERSION)
+            throw new IOException("Unsupported trajectory file version " + version + " (newest supported is " + VERSION + ")");
+
+        int length = b.getInt(8);
+        int columns = b.getInt(12);
+        if (version < 1 || length < 0 || columns < Trajectory.COLUMNS)
+            throw new IOException("Corrupt trajectory file header");
+
+        long columnBytes = (long) length * 8;
+        long start = b.getLong(OFFSETS_START);
+        boolean contiguous = true;
+        for (int c = 0; c < Trajectory.COLUMNS; c++) {
+            long offset = b.getLong(OFFSETS_START + c * 8);
+            if (offset < HEADER_SIZE || offset + columnBytes > b.limit())
+                throw new IOException("Trajectory file is truncated");
+            contiguous &= offset == start + c * columnBytes;
+        }
+
+        if (verify) {
+            ByteBuffer data = b.duplicate();
+            data.position(HEADER_SIZE);
+            if (checksum(data) != b.getLong(16))
+                throw new IOException("Trajectory file checksum mismatch");
+        }
+
+        if (contiguous) {
+            b.limit((int) (start + Trajectory.COLUMNS * columnBytes)).position((int) start);
+            return new Trajectory(b.slice().order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer());
+        }
+
+        // Columns that aren't laid out back to back can't be viewed as one buffer, so gather them
+        Trajectory traj = Trajectory.columnar(length);
+        for (Trajectory.Column c : Trajectory.Column.values()) {
+            ByteBuffer col = b.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+            int offset = (int) b.getLong(OFFSETS_START + c.ordinal() * 8);
+            col.limit(offset + (int) columnBytes).position(offset);
+            traj.column(c).put(col.asDoubleBuffer());
+        }
+        return traj;
+    }
+
+    /**
+     * Write a trajectory to a file in this format.
+     * @param file          The file to write to
+     * @param trajectory    The trajectory to write
+     */
+    public static void write(File file, Trajectory trajectory) throws IOException {
+        ByteBuffer buf = encode(trajectory);
+        try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buf.hasRemaining())
+                ch.write(buf);
+        }
+    }
+
+    /**
+     * Memory map a trajectory file. The returned trajectory is read-only and reads segments from the mapping as they
+     * are accessed. Use {@link Trajectory#copy()} for a modifiable copy on the heap.
+     * @param file      The file to map
+     * @param verify    Whether to check the segment data against the stored checksum. This has to read every
+     *                  segment.
+     * @return          The mapped trajectory
+     */
+    public static Trajectory map(File file, boolean verify) throws IOException {
+        try (FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+            return decode(buf, verify);
+        }
+    }
+
+    static long checksum(ByteBuffer data) {
+        CRC32 crc = new CRC32();
+        crc.update(data.duplicate());
+        return crc.getValue();
+    }
+
+}
@@ -0,0 +1,313 @@
+package jaci.pathfinder;
+
+/**
+ * A spatial index over the path of a trajectory, for finding the point on it closest to the robot, and the point
+ * some distance further along it. Trajectories can only be looked up by index, so without this, finding the
+ * closest point means checking every segment.
+ *
+ * The path is treated as the straight lines between the x and y of each pair of neighbouring segments, which are
+ * sorted into a uniform grid when the index is built. Closest point queries search outwards from the grid cell
+ * holding the query point, so only check the lines nearby. A path tracker that knows roughly where it was last
+ * time can instead give a hint, and only the lines a short distance along the path from the hint are checked.
+ * Distances along the path are measured along these lines, not taken from the trajectory's position column, so
+ * the index works the same for the wheel trajectories of a modifier.
+ *
+ * Queries don't allocate, writing their results into a {@link Projection} owned by the caller, so they can run on
+ * every iteration of a control loop. The index copies what it needs from the trajectory, so later changes to the
+ * trajectory aren't seen. It is safe to query from multiple threads.
+ */
+public class TrajectoryIndex {
+
+    /**
+     * A point on the path, found by a query. Reuse one instance across queries to avoid allocating.
+     */
+    public static class Projection {
+        /**
+         * The segment at the start of the line holding the point
+         */
+        public int index;
+        /**
+         * How far the point is along the line from segment index to segment index + 1, from 0 to 1
+         */
+        public double fraction;
+        public double x, y;
+        /**
+         * The heading at the point, in the same 0 to 2*Pi range as the trajectory
+         */
+        public double heading;
+        /**
+         * The distance along the path from its start to the point
+         */
+        public double distance;
+        /**
+         * The distance from the query point to this point (0 for lookahead queries)
+         */
+        public double offset;
+
+        /**
+         * @return the index of the segment closest to the point
+         */
+        public int nearestSegment() {
+            return fraction < 0.5 ? index : index + 1;
+        }
+    }
+
+    private final int n;
+    private final double[] x, y, heading, arc;
+
+    private final double minX, minY, cellSize;
+    private final int columns, rows;
+    // Lines in each cell, as a compressed list: the lines of cell c are lines[cellStart[c]] up to cellStart[c + 1]
+    private final int[] cellStart, lines;
+
+    /**
+     * Build an index over a trajectory, choosing a cell size from the spacing of its segments
+     * @param trajectory    The trajectory to index
+     */
+    public TrajectoryIndex(Trajectory trajectory) {
+        this(trajectory, 0);
+    }
+
+    /**
+     * Build an index over a trajectory
+     * @param trajectory    The trajectory to index
+     * @param cellSize      The width of each grid cell, in the units of the trajectory, or 0 to choose one. Cells
+     *                      about as wide as a few segments are apart suit queries close to the path.
+     */
+    public TrajectoryIndex(Trajectory trajectory, double cellSize) {
+        n = trajectory.length();
+        if (n == 0)
+            throw new IllegalArgumentException("Can't index an empty trajectory");
+        if (cellSize < 0)
+            throw new IllegalArgumentException("Cell size must not be negative");
+
+        double[] columns = trajectory.packColumns();
+        x = new double[n];
+        y = new double[n];
+        heading = new double[n];
+        System.arraycopy(columns, Trajectory.Column.X.ordinal() * n, x, 0, n);
+        System.arraycopy(columns, Trajectory.Column.Y.ordinal() * n, y, 0, n);
+        System.arraycopy(columns, Trajectory.Column.HEADING.ordinal() * n, heading, 0, n);
+
+        arc = new double[n];
+        double minX = x[0], maxX = x[0], minY = y[0], maxY = y[0];
+        for (int i = 1; i < n; i++) {
+            arc[i] = arc[i - 1] + Math.hypot(x[i] - x[i - 1], y[i] - y[i - 1]);
+            minX = Math.min(minX, x[i]); maxX = Math.max(maxX, x[i]);
+            minY = Math.min(minY, y[i]); maxY = Math.max(maxY, y[i]);
+        }
+
+        if (cellSize == 0) {
+            // A few average line lengths, but no more cells than a few per line, so a sparse path over a large
+            // area doesn't build a huge grid
+            double width = maxX - minX, height = maxY - minY;
+            cellSize = Math.max(4 * arc[n - 1] / Math.max(n - 1, 1), Math.sqrt(width * height / (4.0 * n)));
+            if (!(cellSize > 0)) cellSize = Math.max(Math.max(width, height), 1);
+        }
+        this.minX = minX;
+        this.minY = minY;
+        this.cellSize = cellSize;
+        this.columns = (int) Math.floor((maxX - minX) / cellSize) + 1;
+        this.rows = (int) Math.floor((maxY - minY) / cellSize) + 1;
+        if ((long) this.columns * this.rows > Integer.MAX_VALUE / 2)
+            throw new IllegalArgumentException("Cell size " + cellSize + " is too small for a path of this size");
+
+        // Two passes: count the lines in each cell, then fill them in. A single point is indexed as one line.
+        int count = Math.max(n - 1, 1);
+        cellStart = new int[this.columns * this.rows + 1];
+        for (int i = 0; i < count; i++)
+            forEachCell(i, c -> cellStart[c + 1]++);
+        for (int c = 0; c < this.columns * this.rows; c++)
+            cellStart[c + 1] += cellStart[c];
+        lines = new int[cellStart[this.columns * this.rows]];
+        int[] next = cellStart.clone();
+        for (int i = 0; i < count; i++) {
+            int line = i;
+            forEachCell(i, c -> lines[next[c]++] = line);
+        }
+    }
+
+    private interface CellConsumer {
+        void accept(int cell);
+    }
+
+    private void forEachCell(int line, CellConsumer consumer) {
+        int j = Math.min(line + 1, n - 1);
+        int c0 = column(Math.min(x[line], x[j])), c1 = column(Math.max(x[line], x[j]));
+        int r0 = row(Math.min(y[line], y[j])), r1 = row(Math.max(y[line], y[j]));
+        for (int r = r0; r <= r1; r++)
+            for (int c = c0; c <= c1; c++)
+                consumer.accept(r * columns + c);
+    }
+
+    private int column(double px) {
+        return Math.max(0, Math.min(columns - 1, (int) Math.floor((px - minX) / cellSize)));
+    }
+
+    private int row(double py) {
+        return Math.max(0, Math.min(rows - 1, (int) Math.floor((py - minY) / cellSize)));
+    }
+
+    /**
+     * @return the number of segments in the indexed trajectory
+     */
+    public int size() {
+        return n;
+    }
+
+    /**
+     * @return the length of the path, from the first segment to the last
+     */
+    public double length() {
+        return arc[n - 1];
+    }
+
+    /**
+     * Find the closest point on the path to a point, anywhere along the path. Where the path passes equally close
+     * more than once, the earliest is found.
+     * @param px    The x of the point
+     * @param py    The y of the point
+     * @param out   Filled with the closest point
+     * @return      out
+     */
+    public Projection nearest(double px, double py, Projection out) {
+        // Cells outside the grid are empty, so the search starts from the closest cell inside it
+        int startC = column(px), startR = row(py);
+        int maxRing = Math.max(Math.max(startC, columns - 1 - startC), Math.max(startR, rows - 1 - startR));
+
+        double best = Double.POSITIVE_INFINITY;
+        int bestLine = 0;
+        for (int ring = 0; ring <= maxRing; ring++) {
+            // Every line not yet checked is in this ring or further out, so at least this far away
+            double bound = Math.max(ring - 1, 0) * cellSize;
+            if (best < bound * bound) break;
+
+            int r0 = startR - ring, r1 = startR + ring, c0 = startC - ring, c1 = startC + ring;
+            for (int r = Math.max(r0, 0); r <= Math.min(r1, rows - 1); r++) {
+                // Only the edges of the ring, as the inside has already been searched
+                int step = (r == r0 || r == r1) ? 1 : Math.max(c1 - c0, 1);
+                for (int c = c0; c <= c1; c += step) {
+                    if (c < 0 || c >= columns) continue;
+                    int cell = r * columns + c;
+                    for (int k = cellStart[cell]; k < cellStart[cell + 1]; k++) {
+                        int line = lines[k];
+                        double d = distanceSquared(line, px, py);
+                        if (d < best || (d == best && line < bestLine)) {
+                            best = d;
+                            bestLine = line;
+                        }
+                    }
+                }
+            }
+        }
+        return project(bestLine, px, py, out);
+    }
+
+    /**
+     * Find the closest point on the path to a point, only checking a window of the path starting at a hint. A
+     * tracker that moves along the path can pass the index of the closest point found last time as the hint,
+     * making each query take about constant time, and never jumping to a different part of a path that crosses
+     * or comes back close to itself.
+     * @param px        The x of the point
+     * @param py        The y of the point
+     * @param hint      The index of the segment to start searching from, e.g. out.index from the last query
+     * @param window    How far along the path past the hint to search. This should cover how far the robot can
+     *                  travel between queries.
+     * @param out       Filled with the closest point in the window
+     * @return          out
+     */
+    public Projection nearest(double px, double py, int hint, double window, Projection out) {
+        int start = Math.max(0, Math.min(hint, Math.max(n - 2, 0)));
+        double end = arc[start] + window;
+        double best = Double.POSITIVE_INFINITY;
+        int bestLine = start;
+        for (int line = start; line < Math.max(n - 1, 1) && arc[line] <= end; line++) {
+            double d = distanceSquared(line, px, py);
+            if (d < best) {
+                best = d;
+                bestLine = line;
+            }
+        }
+        return project(bestLine, px, py, out);
+    }
+
+    /**
+     * Find the point a distance further along the path from a point, e.g. the goal point of pure pursuit.
+     * @param from      A point on the path, e.g. from {@link #nearest(double, double, Projection)}
+     * @param distance  How far along the path to go. Points past either end of the path are clamped to it.
+     * @param out       Filled with the point. This may be the same instance as from.
+     * @return          out
+     */
+    public Projection lookahead(Projection from, double distance, Projection out) {
+        return at(from.distance + distance, from.index, out);
+    }
+
+    /**
+     * Find the point a distance along the path from its start
+     * @param distance  The distance along the path, clamped to the path
+     * @param out       Filled with the point
+     * @return          out
+     */
+    public Projection at(double distance, Projection out) {
+        return at(distance, 0, out);
+    }
+
+    private Projection at(double distance, int hint, Projection out) {
+        distance = Math.max(0, Math.min(distance, arc[n - 1]));
+        int line;
+        if (n == 1) {
+            line = 0;
+        } else {
+            // Binary search for the last line starting at or before the distance, only after the hint when going
+            // forwards from it
+            int h = Math.max(0, Math.min(hint, n - 2));
+            int lo = arc[h] <= distance ? h : 0, hi = n - 2;
+            while (lo < hi) {
+                int mid = (lo + hi + 1) >>> 1;
+                if (arc[mid] <= distance) lo = mid;
+                else hi = mid - 1;
+            }
+            line = lo;
+        }
+        int j = Math.min(line + 1, n - 1);
+        double len = arc[j] - arc[line];
+        double t = len > 0 ? Math.min(1, (distance - arc[line]) / len) : 0;
+        fill(out, line, t);
+        out.offset = 0;
+        return out;
+    }
+
+    private double distanceSquared(int line, double px, double py) {
+        int j = Math.min(line + 1, n - 1);
+        double t = parameter(line, j, px, py);
+        double dx = x[line] + (x[j] - x[line]) * t - px, dy = y[line] + (y[j] - y[line]) * t - py;
+        return dx * dx + dy * dy;
+    }
+
+    private double parameter(int line, int j, double px, double py) {
+        double ex = x[j] - x[line], ey = y[j] - y[line];
+        double len2 = ex * ex + ey * ey;
+        if (len2 == 0) return 0;
+        return Math.max(0, Math.min(1, ((px - x[line]) * ex + (py - y[line]) * ey) / len2));
+    }
+
+    private Projection project(int line, double px, double py, Projection out) {
+        fill(out, line, parameter(line, Math.min(line + 1, n - 1), px, py));
+        out.offset = Math.hypot(out.x - px, out.y - py);
+        return out;
+    }
+
+    private void fill(Projection out, int line, double t) {
+        int j = Math.min(line + 1, n - 1);
+        out.index = line;
+        out.fraction = t;
+        out.x = x[line] + (x[j] - x[line]) * t;
+        out.y = y[line] + (y[j] - y[line]) * t;
+        out.distance = arc[line] + (arc[j] - arc[line]) * t;
+        double dh = heading[j] - heading[line];
+        if (dh > Math.PI) dh -= 2 * Math.PI;
+        else if (dh < -Math.PI) dh += 2 * Math.PI;
+        out.heading = Pathfinder.boundRadians(heading[line] + dh * t);
+    }
+
+}
@@ -0,0 +1,113 @@
+package jaci.pathfinder;
+
+/**
+ * Derives new trajectories from a generated one with a different time step, or slowed down or sped up, without
+ * generating them again. This only looks at the segments, not the splines, so takes a single pass over the
+ * trajectory, and is much faster than a new generation.
+ *
+ * New segments are interpolated between the original ones: position and velocity with cubic Hermite curves
+ * (using the velocity and acceleration as their slopes), x and y with Catmull-Rom curves and the heading linearly
+ * (the shorter way around). Acceleration and jerk are then found from the new velocities the same way generation
+ * finds them, as the change over each time step. Resampling at the original time step and speed gives back the
+ * original trajectory.
+ */
+public class TrajectoryResampler {
+
+    private TrajectoryResampler() { }
+
+    /**
+     * Resample a trajectory at a new time step, e.g. for a control loop that runs at a different rate.
+     * @param trajectory    The trajectory to resample
+     * @param dt            The new time step, in seconds
+     * @return              The resampled trajectory
+     */
+    public static Trajectory resample(Trajectory trajectory, double dt) {
+        return resample(trajectory, dt, 1);
+    }
+
+    /**
+     * Stretch a trajectory in time, keeping its time step. Every velocity is divided by the factor, every
+     * acceleration by its square and every jerk by its cube.
+     * @param trajectory    The trajectory to scale
+     * @param factor        How many times longer the new trajectory takes, e.g. 2 for half speed
+     * @return              The scaled trajectory
+     */
+    public static Trajectory timeScale(Trajectory trajectory, double factor) {
+        return resample(trajectory, trajectory.length() == 0 ? 1 : trajectory.getDt(0), factor);
+    }
+
+    /**
+     * Stretch a trajectory in time and resample it at a new time step. If the new time step doesn't divide the
+     * length of the trajectory, the last segment is at the end of the original.
+     * @param trajectory    The trajectory to resample
+     * @param dt            The new time step, in seconds
+     * @param factor        How many times longer the new trajectory takes, e.g. 2 for half speed
+     * @return              The resampled trajectory
+     */
+    public static Trajectory resample(Trajectory trajectory, double dt, double factor) {
+        if (!(dt > 0) || !(factor > 0))
+            throw new IllegalArgumentException("Time step and scale must be positive");
+        int n = trajectory.length();
+        if (n == 0) return Trajectory.columnar(0);
+
+        double[] src = trajectory.packColumns();
+        double sourceDt = src[0];
+        // Segment i is at time (i + 1) * dt (see Trajectory), so the new trajectory starts from the same state as
+        // the original. The small allowance stops round-off adding an extra segment.
+        double step = dt / (factor * sourceDt);
+        int length = (int) Math.ceil(n / step - 1e-9);
+        double[] dst = new double[length * Trajectory.COLUMNS];
+
+        // Column offsets, and the state at the start of the trajectory, one time step before the first segment
+        int X = n, Y = 2 * n, POS = 3 * n, VEL = 4 * n, ACC = 5 * n, HDG = 7 * n;
+        double startVelocity = src[VEL] - src[ACC] * sourceDt;
+        double startPosition = src[POS] - (src[VEL] + startVelocity) / 2 * sourceDt;
+        double startAcceleration = src[ACC] - src[6 * n] * sourceDt;
+
+        double lastVelocity = startVelocity / factor, lastAcceleration = startAcceleration / (factor * factor);
+        for (int k = 0; k < length; k++) {
+            double u = Math.min((k + 1) * step - 1, n - 1);
+            // i is the segment before the new one, or -1 for the start
+            int i = Math.max(Math.min((int) Math.floor(u), n - 2), -1);
+            double s = u - i;
+            int j = i + 1, i0 = Math.max(i, 0);
+
+            double s2 = s * s, s3 = s2 * s;
+            double h00 = 2 * s3 - 3 * s2 + 1, h10 = s3 - 2 * s2 + s;
+            double h01 = -2 * s3 + 3 * s2,    h11 = s3 - s2;
+
+            double p0 = i < 0 ? startPosition : src[POS + i], v0 = i < 0 ? startVelocity : src[VEL + i];
+            double a0 = i < 0 ? startAcceleration : src[ACC + i];
+            double position = h00 * p0 + h10 * sourceDt * v0 + h01 * src[POS + j] + h11 * sourceDt * src[VEL + j];
+            double velocity = (h00 * v0 + h10 * sourceDt * a0 + h01 * src[VEL + j] + h11 * sourceDt * src[ACC + j]) / factor;
+
+            // Catmull-Rom slopes, one sided at the ends. The start is at the first segment's x and y.
+            int before = Math.max(i - 1, 0), after = Math.min(j + 1, n - 1);
+            double spanBefore = Math.max(j - Math.max(i - 1, -1), 1), spanAfter = after - i;
+            double mx0 = (src[X + j] - src[X + before]) / spanBefore, mx1 = (src[X + after] - src[X + i0]) / spanAfter;
+            double my0 = (src[Y + j] - src[Y + before]) / spanBefore, my1 = (src[Y + after] - src[Y + i0]) / spanAfter;
+            double x = h00 * src[X + i0] + h10 * mx0 + h01 * src[X + j] + h11 * mx1;
+            double y = h00 * src[Y + i0] + h10 * my0 + h01 * src[Y + j] + h11 * my1;
+
+            double h0 = src[HDG + i0];
+            double dh = src[HDG + j] - h0;
+            if (dh > Math.PI) dh -= 2 * Math.PI;
+            else if (dh < -Math.PI) dh += 2 * Math.PI;
+            double heading = s == 0 ? h0 : Pathfinder.boundRadians(h0 + dh * s);
+
+            double acceleration = (velocity - lastVelocity) / dt;
+            dst[k] = dt;
+            dst[length + k] = x;
+            dst[2 * length + k] = y;
+            dst[3 * length + k] = position;
+            dst[4 * length + k] = velocity;
+            dst[5 * length + k] = acceleration;
+            dst[6 * length + k] = (acceleration - lastAcceleration) / dt;
+            dst[7 * length + k] = heading;
+            lastVelocity = velocity;
+            lastAcceleration = acceleration;
+        }
+        return PathfinderJNI.wrapColumns(dst);
+    }
+
+}
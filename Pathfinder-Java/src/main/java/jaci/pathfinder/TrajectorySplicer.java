@@ -0,0 +1,292 @@
+package jaci.pathfinder;
+
+import java.util.Arrays;
+
+/**
+ * Joins trajectories generated separately (e.g. the legs of an autonomous routine, each from a cache) into one,
+ * without stopping at each join and without generating the whole routine again.
+ *
+ * Each leg starts and ends at rest, so joining them as they are would stop the robot at every junction. Instead,
+ * only a short window either side of each junction is profiled again, carrying the speed through the junction,
+ * while the rest of each leg is kept as generated. The window follows the path of the two legs, using their x, y
+ * and heading at each distance, and is profiled forward in time within the configuration's velocity and
+ * acceleration towards the state of the next leg at the end of the window. The window is then slowed slightly so it
+ * lands exactly on that state, which can take the acceleration a little over the limit in very short windows.
+ * Acceleration and jerk are found from the new velocities the same way generation finds them. The jerk limit isn't
+ * applied within the windows.
+ *
+ * Only the windows are profiled, so joining legs costs about the same however long they are, apart from copying
+ * their segments into the result.
+ *
+ * Each leg must start where the one before it ends, at the same heading, and all legs must share the same time
+ * step. Positions in the result carry on from one leg to the next, so the position column is continuous.
+ */
+public class TrajectorySplicer {
+
+    /**
+     * How far apart the end of one leg and the start of the next may be, in position (the units of the path) and
+     * heading (radians), and still be joined
+     */
+    public static final double MATCH_TOLERANCE = 1e-3;
+
+    private TrajectorySplicer() { }
+
+    /**
+     * Join trajectories, profiling a window long enough to accelerate to the maximum velocity either side of each
+     * junction again
+     * @param legs      The trajectories to join, in order
+     * @param config    The configuration the legs were generated with
+     * @return          The joined trajectory
+     */
+    public static Trajectory splice(Trajectory[] legs, Trajectory.Config config) {
+        double v = config.max_velocity, a = config.max_acceleration;
+        // The distance each leg takes to reach full speed from rest, including the jerk limited ramp of acceleration
+        double window = v * v / (2 * a) + (config.max_jerk > 0 ? v * a / config.max_jerk : 0);
+        return splice(legs, config, window);
+    }
+
+    /**
+     * Join trajectories
+     * @param legs      The trajectories to join, in order
+     * @param config    The configuration the legs were generated with
+     * @param window    The distance along each leg, either side of each junction, to profile again. This is
+     *                  limited to half of each leg, so windows from each end of a leg don't overlap.
+     * @return          The joined trajectory
+     */
+    public static Trajectory splice(Trajectory[] legs, Trajectory.Config config, double window) {
+        if (legs.length == 0)
+            throw new IllegalArgumentException("Nothing to splice");
+        if (!(window >= 0))
+            throw new IllegalArgumentException("Window must not be negative");
+        double dt = config.dt;
+        for (int m = 0; m < legs.length; m++) {
+            if (legs[m].length() < 2)
+                throw new IllegalArgumentException("Leg " + m + " has fewer than 2 segments");
+            if (Math.abs(legs[m].getDt(0) - dt) > 1e-9)
+                throw new IllegalArgumentException("Leg " + m + " has a time step of " + legs[m].getDt(0) + ", not " + dt);
+        }
+        for (int m = 1; m < legs.length; m++)
+            checkJunction(legs[m - 1], legs[m], m);
+
+        Columns out = new Columns(Arrays.stream(legs).mapToInt(Trajectory::length).sum());
+        // Output position minus leg position, for the segments of the current leg copied as they are
+        double shift = 0;
+        int first = 0;
+        // The output segments each window starts and ends at
+        int[] windows = new int[2 * (legs.length - 1)];
+        for (int m = 0; m < legs.length; m++) {
+            Trajectory leg = legs[m];
+            int n = leg.length();
+            if (m == legs.length - 1) {
+                out.copy(leg, first, n, shift);
+                break;
+            }
+
+            Trajectory next = legs[m + 1];
+            double tail = Math.min(window, length(leg) / 2), head = Math.min(window, length(next) / 2);
+            // The window starts after the last segment before the tail, keeping at least one segment of the leg
+            int start = Math.max(firstAtOrAfter(leg, leg.getPosition(n - 1) - tail), first + 1);
+            start = Math.min(start, n - 1);
+            // and ends at the segment of the next leg just before the first one past the head, which is kept
+            int end = Math.max(firstAtOrAfter(next, start(next) + head), 1) - 1;
+            end = Math.min(end, next.length() - 2);
+
+            out.copy(leg, first, start, shift);
+            windows[2 * m] = out.length;
+            double target = blend(leg, next, start, end, config, out, shift);
+            windows[2 * m + 1] = out.length;
+
+            // The next leg carries on from where the window landed
+            shift = target - next.getPosition(end);
+            first = end + 1;
+        }
+
+        // The windows, and the first two segments after each (whose changes are now from the window's velocities)
+        for (int m = 0; m < legs.length - 1; m++)
+            out.recomputeDerivatives(windows[2 * m], Math.min(windows[2 * m + 1] + 2, out.length), dt);
+        return PathfinderJNI.wrapColumns(out.pack());
+    }
+
+    private static void checkJunction(Trajectory a, Trajectory b, int m) {
+        int last = a.length() - 1;
+        // The first segment of a leg is already a step along it, so compare against its start, found by going back
+        // along the line from its second segment through its first
+        double[] pose = new double[3];
+        pose(b, start(b), pose);
+        double dh = Math.abs(a.getHeading(last) - pose[2]) % (2 * Math.PI);
+        dh = Math.min(dh, 2 * Math.PI - dh);
+        if (Math.hypot(a.getX(last) - pose[0], a.getY(last) - pose[1]) > MATCH_TOLERANCE || dh > MATCH_TOLERANCE)
+            throw new IllegalArgumentException("Leg " + m + " doesn't start where leg " + (m - 1) + " ends");
+    }
+
+    /**
+     * The position of a leg before its first segment, at its start
+     */
+    private static double start(Trajectory leg) {
+        return leg.getPosition(0) - (leg.getVelocity(0) - leg.getAcceleration(0) * leg.getDt(0) / 2) * leg.getDt(0);
+    }
+
+    private static double length(Trajectory leg) {
+        return leg.getPosition(leg.length() - 1) - start(leg);
+    }
+
+    private static int firstAtOrAfter(Trajectory leg, double position) {
+        int lo = 0, hi = leg.length() - 1;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (leg.getPosition(mid) >= position) hi = mid;
+            else lo = mid + 1;
+        }
+        return lo;
+    }
+
+    /**
+     * Profile the window from the end of segment start - 1 of one leg to segment end of the next, appending the new
+     * segments to out. Distances are measured in the first leg's positions, carrying on past its end into the next.
+     * @return  The output position of the end of the window, in place of segment end of the next leg
+     */
+    private static double blend(Trajectory leg, Trajectory next, int start, int end, Trajectory.Config config, Columns out, double shift) {
+        double dt = config.dt, maxV = config.max_velocity, maxA = config.max_acceleration;
+        double legEnd = leg.getPosition(leg.length() - 1), nextStart = start(next);
+        double target = legEnd + next.getPosition(end) - nextStart;
+        double targetV = next.getVelocity(end);
+
+        double s0 = leg.getPosition(start - 1), v0 = leg.getVelocity(start - 1);
+        // Enough steps to cover the window at the slowest a profile from rest could go, as a guard
+        int maxSteps = (int) Math.ceil(2 * Math.sqrt(2 * (target - s0) / maxA) / dt) + (int) Math.ceil((target - s0) / (maxV * dt)) + 4;
+        double[] velocity = new double[maxSteps];
+        int steps = 0;
+        double s = s0, v = v0;
+        while (steps < maxSteps) {
+            // Accelerate towards the maximum velocity, but no faster than can still slow to the target velocity
+            double brake = Math.sqrt(targetV * targetV + 2 * maxA * Math.max(target - (s + v * dt), 0));
+            double nv = Math.max(Math.max(Math.min(Math.min(v + maxA * dt, maxV), brake), v - maxA * dt), 0);
+            s += (v + nv) / 2 * dt;
+            v = nv;
+            velocity[steps++] = nv;
+            if (s >= target) break;
+        }
+
+        // The last step goes past the target. Slow the window by a smooth bump, largest in its middle, so it lands
+        // exactly on the target without a jump in velocity at either end.
+        double weights = 0, last = 0;
+        for (int k = 0; k < steps; k++) {
+            last = Math.pow(Math.sin(Math.PI * (k + 1) / (steps + 1)), 2);
+            weights += last;
+        }
+        double change = (target - s) / (dt * (weights - last / 2));
+
+        double[] pose = new double[3];
+        s = s0;
+        v = v0;
+        for (int k = 0; k < steps; k++) {
+            double nv = Math.max(velocity[k] + change * Math.pow(Math.sin(Math.PI * (k + 1) / (steps + 1)), 2), 0);
+            s += (v + nv) / 2 * dt;
+            v = nv;
+            if (s <= legEnd) pose(leg, s, pose);
+            else pose(next, s - legEnd + nextStart, pose);
+            out.append(dt, pose[0], pose[1], s + shift, v, pose[2]);
+        }
+        return s + shift;
+    }
+
+    /**
+     * The x, y and heading of a leg at a position, interpolated between its segments. Positions before the first
+     * segment, back to the start of the leg, are extrapolated from the first two.
+     */
+    private static void pose(Trajectory leg, double position, double[] pose) {
+        int j = firstAtOrAfter(leg, position);
+        int i = Math.max(j - 1, 0);
+        double p0 = leg.getPosition(i), p1 = leg.getPosition(j);
+        if (j == 0) {
+            // Before the first segment, continue the line through the first two back to the start
+            j = 1;
+            i = 0;
+            p1 = leg.getPosition(1);
+        }
+        double t = p1 > p0 ? Math.min(1, (position - p0) / (p1 - p0)) : 0;
+        pose[0] = leg.getX(i) + (leg.getX(j) - leg.getX(i)) * t;
+        pose[1] = leg.getY(i) + (leg.getY(j) - leg.getY(i)) * t;
+        double dh = leg.getHeading(j) - leg.getHeading(i);
+        if (dh > Math.PI) dh -= 2 * Math.PI;
+        else if (dh < -Math.PI) dh += 2 * Math.PI;
+        pose[2] = Pathfinder.boundRadians(leg.getHeading(i) + dh * t);
+    }
+
+    /**
+     * Growable columns for the joined trajectory
+     */
+    private static class Columns {
+        double[][] data = new double[Trajectory.COLUMNS][];
+        int length;
+
+        Columns(int capacity) {
+            for (int c = 0; c < Trajectory.COLUMNS; c++)
+                data[c] = new double[Math.max(capacity, 16)];
+        }
+
+        void ensure(int capacity) {
+            if (capacity > data[0].length) {
+                int grown = Math.max(capacity, data[0].length * 2);
+                for (int c = 0; c < Trajectory.COLUMNS; c++)
+                    data[c] = Arrays.copyOf(data[c], grown);
+            }
+        }
+
+        /**
+         * Append a segment. Its acceleration and jerk are left at 0, to be recomputed once the window is complete.
+         */
+        void append(double dt, double x, double y, double position, double velocity, double heading) {
+            ensure(length + 1);
+            data[Trajectory.Column.DT.ordinal()][length] = dt;
+            data[Trajectory.Column.X.ordinal()][length] = x;
+            data[Trajectory.Column.Y.ordinal()][length] = y;
+            data[Trajectory.Column.POSITION.ordinal()][length] = position;
+            data[Trajectory.Column.VELOCITY.ordinal()][length] = velocity;
+            data[Trajectory.Column.ACCELERATION.ordinal()][length] = 0;
+            data[Trajectory.Column.JERK.ordinal()][length] = 0;
+            data[Trajectory.Column.HEADING.ordinal()][length] = heading;
+            length++;
+        }
+
+        /**
+         * Append segments from..to (exclusive) of a trajectory, moving their positions by shift
+         */
+        void copy(Trajectory source, int from, int to, double shift) {
+            if (to <= from) return;
+            int count = to - from;
+            ensure(length + count);
+            for (Trajectory.Column c : Trajectory.Column.values()) {
+                double[] column = data[c.ordinal()];
+                for (int i = 0; i < count; i++)
+                    column[length + i] = source.get(c, from + i);
+            }
+            double[] position = data[Trajectory.Column.POSITION.ordinal()];
+            for (int i = 0; i < count; i++)
+                position[length + i] += shift;
+            length += count;
+        }
+
+        /**
+         * Recompute acceleration and jerk from velocity for segments from..to (exclusive), as the change since the
+         * segment before each
+         */
+        void recomputeDerivatives(int from, int to, double dt) {
+            double[] v = data[Trajectory.Column.VELOCITY.ordinal()];
+            double[] a = data[Trajectory.Column.ACCELERATION.ordinal()];
+            double[] j = data[Trajectory.Column.JERK.ordinal()];
+            for (int i = Math.max(from, 1); i < to; i++) {
+                a[i] = (v[i] - v[i - 1]) / dt;
+                j[i] = (a[i] - a[i - 1]) / dt;
+            }
+        }
+
+        double[] pack() {
+            double[] packed = new double[length * Trajectory.COLUMNS];
+            for (int c = 0; c < Trajectory.COLUMNS; c++)
+                System.arraycopy(data[c], 0, packed, c * length, length);
+            return packed;
+        }
+    }
+
+}
@@ -0,0 +1,117 @@
+package jaci.pathfinder;
+
+import java.lang.ref.Cleaner;
+import java.lang.ref.Reference;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Generates a trajectory a chunk at a time, instead of all at once.
+ *
+ * The length of the trajectory is known as soon as the stream is opened, but its segments are only generated as
+ * each chunk is requested. A follower can start on the first chunk while the rest is still being generated, and
+ * only one chunk needs to be held in memory at a time. Each chunk is a columnar {@link Trajectory} with absolute
+ * positions, so a follower can move onto the next chunk with setTrajectory without any adjustment. Concatenating
+ * every chunk gives exactly the trajectory {@link Pathfinder#generate(Waypoint[], Trajectory.Config)} gives.
+ *
+ * The stream holds native memory until every chunk has been read, or it is closed. Streams are not safe to use
+ * from multiple threads.
+ */
+public class TrajectoryStream implements Iterator<Trajectory>, AutoCloseable {
+
+    private static final Cleaner CLEANER = Cleaner.create();
+
+    // Kept separate from the stream, so the cleaner doesn't hold a reference to it
+    private static class Handle implements Runnable {
+        long ptr;
+
+        Handle(long ptr) {
+            this.ptr = ptr;
+        }
+
+        @Override
+        public synchronized void run() {
+            if (ptr != 0) {
+                PathfinderJNI.streamEndRaw(ptr);
+                ptr = 0;
+            }
+        }
+    }
+
+    private final Handle handle;
+    private final Cleaner.Cleanable cleanable;
+    private final int length, chunkSize;
+    private int generated;
+
+    /**
+     * Open a stream for the given path
+     * @param waypoints     An array of waypoints (setpoints) for the trajectory path to intersect
+     * @param config        The configuration of the trajectory
+     * @param chunkSize     The maximum number of segments in each chunk
+     */
+    public TrajectoryStream(Waypoint[] waypoints, Trajectory.Config config, int chunkSize) {
+        if (chunkSize <= 0)
+            throw new IllegalArgumentException("Chunk size must be positive, got " + chunkSize);
+
+        this.chunkSize = chunkSize;
+        this.handle = new Handle(PathfinderJNI.streamBeginRaw(PathfinderJNI.packWaypoints(waypoints), config.fit.ordinal(),
+                config.sample_count, config.tolerance, config.dt, config.max_velocity, config.max_acceleration, config.max_jerk));
+        this.cleanable = CLEANER.register(this, handle);
+        this.length = PathfinderJNI.streamLengthRaw(handle.ptr);
+    }
+
+    /**
+     * @return the total number of segments in the trajectory
+     */
+    public int length() {
+        return length;
+    }
+
+    /**
+     * @return the number of segments generated so far
+     */
+    public int generated() {
+        return generated;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return generated < length;
+    }
+
+    /**
+     * Generate the next chunk of the trajectory. The native memory is freed once the last chunk is generated.
+     * @return The next (up to) chunkSize segments of the trajectory
+     */
+    @Override
+    public Trajectory next() {
+        if (!hasNext())
+            throw new NoSuchElementException("All " + length + " segments have been generated");
+
+        long ptr;
+        synchronized (handle) {
+            if (handle.ptr == 0)
+                throw new IllegalStateException("TrajectoryStream has been closed");
+            ptr = handle.ptr;
+        }
+        Trajectory chunk;
+        try {
+            chunk = PathfinderJNI.wrapColumns(PathfinderJNI.streamNextRaw(ptr, chunkSize));
+        } finally {
+            // Otherwise the stream could be cleaned, ending it, while the native call is still using it
+            Reference.reachabilityFence(this);
+        }
+        generated += chunk.length();
+        if (!hasNext()) close();
+        return chunk;
+    }
+
+    /**
+     * Free the native memory held by the stream. No more chunks can be generated after it is closed.
+     */
+    @Override
+    public void close() {
+        cleanable.clean();
+    }
+
+}
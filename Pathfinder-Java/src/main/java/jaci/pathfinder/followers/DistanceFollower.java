@@ -14,6 +14,12 @@ public class DistanceFollower {
 
     double last_error, heading;
 
+    Interpolation interpolation = Interpolation.LINEAR;
+    final TimeSampler sampler = new TimeSampler();
+    double last_time;
+
+    FollowerTelemetry telemetry;
+
     int segment;
     Trajectory trajectory;
 
@@ -47,11 +53,37 @@ public class DistanceFollower {
         this.kv = kv; this.ka = ka;
     }
 
+    /**
+     * Configure how setpoints between segments are found when calculating from a time. See
+     * {@link #calculate(double, double)}. The default is {@link Interpolation#LINEAR}
+     * @param interpolation The interpolation to use
+     */
+    public void configureInterpolation(Interpolation interpolation) {
+        this.interpolation = interpolation;
+    }
+
+    /**
+     * Record every call to {@link #calculate(double)} and {@link #calculate(double, double)} into the given
+     * telemetry, or stop recording if it is null. Calls made after the trajectory has finished, which return 0,
+     * aren't recorded. Recording doesn't allocate.
+     * @param telemetry The telemetry to record into
+     */
+    public void setTelemetry(FollowerTelemetry telemetry) {
+        this.telemetry = telemetry;
+    }
+
+    /**
+     * @return the telemetry calls are recorded into, or null if there is none
+     */
+    public FollowerTelemetry getTelemetry() {
+        return telemetry;
+    }
+
     /**
      * Reset the follower to start again. Encoders must be reconfigured.
      */
     public void reset() {
-        last_error = 0; segment = 0;
+        last_error = 0; segment = 0; last_time = 0;
     }
 
     /**
@@ -63,20 +95,53 @@ public class DistanceFollower {
      */
     public double calculate(double distance_covered) {
         if (segment < trajectory.length()) {
-            Trajectory.Segment seg = trajectory.get(segment);
-            double error = seg.position - distance_covered;
+            double error = trajectory.getPosition(segment) - distance_covered;
             double calculated_value =
-                    kp * error +                                    // Proportional
-                    kd * ((error - last_error) / seg.dt) +          // Derivative
-                    (kv * seg.velocity + ka * seg.acceleration);    // V and A Terms
+                    kp * error +                                                // Proportional
+                    kd * ((error - last_error) / trajectory.getDt(segment)) +   // Derivative
+                    (kv * trajectory.getVelocity(segment)
+                        + ka * trajectory.getAcceleration(segment));            // V and A Terms
             last_error = error;
-            heading = seg.heading;
+            heading = trajectory.getHeading(segment);
+            if (telemetry != null) telemetry.record(segment, error, calculated_value, trajectory.getDt(segment));
             segment++;
 
             return calculated_value;
         } else return 0;
     }
 
+    /**
+     * Calculate the desired output for the motors at the given time since the start of the trajectory. Unlike
+     * {@link #calculate(double)}, which moves one segment along per call, the setpoint is found from the time and
+     * interpolated between segments, so the loop doesn't have to run at exactly the trajectory's time step.
+     * This does not allocate, so is safe to call from fast control loops.
+     * @param distance_covered  The distance covered in meters
+     * @param time              The time since the start of the trajectory, in seconds
+     * @return                  The desired output for your motor controller
+     */
+    public double calculate(double distance_covered, double time) {
+        if (sampler.sample(trajectory, time, interpolation)) {
+            double error = sampler.position - distance_covered;
+            // Derivative over the actual time since the last call, rather than the trajectory's time step
+            double elapsed = time - last_time;
+            if (elapsed <= 0) elapsed = trajectory.getDt(sampler.segment);
+            double calculated_value =
+                    kp * error +                                                // Proportional
+                    kd * ((error - last_error) / elapsed) +                     // Derivative
+                    (kv * sampler.velocity + ka * sampler.acceleration);        // V and A Terms
+            last_error = error;
+            last_time = time;
+            heading = sampler.heading;
+            segment = sampler.segment;
+            if (telemetry != null) telemetry.record(segment, error, calculated_value, trajectory.getDt(segment), time);
+
+            return calculated_value;
+        } else {
+            segment = trajectory.length();
+            return 0;
+        }
+    }
+
     /**
      * @return the desired heading of the current point in the trajectory
      */
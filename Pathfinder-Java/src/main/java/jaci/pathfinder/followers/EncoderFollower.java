@@ -17,6 +17,12 @@ public class EncoderFollower {
 
     double last_error, heading;
 
+    Interpolation interpolation = Interpolation.LINEAR;
+    final TimeSampler sampler = new TimeSampler();
+    double last_time;
+
+    FollowerTelemetry telemetry;
+
     int segment;
     Trajectory trajectory;
 
@@ -63,11 +69,37 @@ public class EncoderFollower {
         wheel_circumference = Math.PI * wheel_diameter;
     }
 
+    /**
+     * Configure how setpoints between segments are found when calculating from a time. See
+     * {@link #calculate(int, double)}. The default is {@link Interpolation#LINEAR}
+     * @param interpolation The interpolation to use
+     */
+    public void configureInterpolation(Interpolation interpolation) {
+        this.interpolation = interpolation;
+    }
+
+    /**
+     * Record every call to {@link #calculate(int)} and {@link #calculate(int, double)} into the given
+     * telemetry, or stop recording if it is null. Calls made after the trajectory has finished, which return 0,
+     * aren't recorded. Recording doesn't allocate.
+     * @param telemetry The telemetry to record into
+     */
+    public void setTelemetry(FollowerTelemetry telemetry) {
+        this.telemetry = telemetry;
+    }
+
+    /**
+     * @return the telemetry calls are recorded into, or null if there is none
+     */
+    public FollowerTelemetry getTelemetry() {
+        return telemetry;
+    }
+
     /**
      * Reset the follower to start again. Encoders must be reconfigured.
      */
     public void reset() {
-        last_error = 0; segment = 0;
+        last_error = 0; segment = 0; last_time = 0;
     }
 
     /**
@@ -82,20 +114,56 @@ public class EncoderFollower {
         double distance_covered = ((double)(encoder_tick - encoder_offset) / encoder_tick_count)
                 * wheel_circumference;
         if (segment < trajectory.length()) {
-            Trajectory.Segment seg = trajectory.get(segment);
-            double error = seg.position - distance_covered;
+            double error = trajectory.getPosition(segment) - distance_covered;
             double calculated_value =
-                    kp * error +                                    // Proportional
-                    kd * ((error - last_error) / seg.dt) +          // Derivative
-                    (kv * seg.velocity + ka * seg.acceleration);    // V and A Terms
+                    kp * error +                                                // Proportional
+                    kd * ((error - last_error) / trajectory.getDt(segment)) +   // Derivative
+                    (kv * trajectory.getVelocity(segment)
+                        + ka * trajectory.getAcceleration(segment));            // V and A Terms
             last_error = error;
-            heading = seg.heading;
+            heading = trajectory.getHeading(segment);
+            if (telemetry != null) telemetry.record(segment, error, calculated_value, trajectory.getDt(segment));
             segment++;
 
             return calculated_value;
         } else return 0;
     }
 
+    /**
+     * Calculate the desired output for the motors at the given time since the start of the trajectory. Unlike
+     * {@link #calculate(int)}, which moves one segment along per call, the setpoint is found from the time and
+     * interpolated between segments, so the loop doesn't have to run at exactly the trajectory's time step.
+     * This does not allocate, so is safe to call from fast control loops.
+     * @param encoder_tick The amount of ticks the encoder has currently measured.
+     * @param time         The time since the start of the trajectory, in seconds
+     * @return             The desired output for your motor controller
+     */
+    public double calculate(int encoder_tick, double time) {
+        // Number of Revolutions * Wheel Circumference
+        double distance_covered = ((double)(encoder_tick - encoder_offset) / encoder_tick_count)
+                * wheel_circumference;
+        if (sampler.sample(trajectory, time, interpolation)) {
+            double error = sampler.position - distance_covered;
+            // Derivative over the actual time since the last call, rather than the trajectory's time step
+            double elapsed = time - last_time;
+            if (elapsed <= 0) elapsed = trajectory.getDt(sampler.segment);
+            double calculated_value =
+                    kp * error +                                                // Proportional
+                    kd * ((error - last_error) / elapsed) +                     // Derivative
+                    (kv * sampler.velocity + ka * sampler.acceleration);        // V and A Terms
+            last_error = error;
+            last_time = time;
+            heading = sampler.heading;
+            segment = sampler.segment;
+            if (telemetry != null) telemetry.record(segment, error, calculated_value, trajectory.getDt(segment), time);
+
+            return calculated_value;
+        } else {
+            segment = trajectory.length();
+            return 0;
+        }
+    }
+
     /**
      * @return the desired heading of the current point in the trajectory
      */
@@ -0,0 +1,203 @@
+package jaci.pathfinder.followers;
+
+import java.util.Arrays;
+
+/**
+ * Records what a follower does on each call to calculate, for finding tracking problems on a running robot.
+ * Attach it with setTelemetry on an {@link EncoderFollower} or {@link DistanceFollower}.
+ *
+ * Each call records the position error, the output, the segment and the time since the previous call into a ring
+ * buffer of primitive arrays, allocated up front. Recording doesn't allocate, so it doesn't disturb the control
+ * loop. Summary statistics cover every call since the telemetry was reset, while the ring buffer holds only the
+ * most recent calls until they are drained, with the oldest overwritten once it is full.
+ *
+ * The time since the previous call is measured with {@link System#nanoTime()} for the calculate methods that step
+ * one segment per call, and taken from the times given to the time based calculate methods, so it matches the
+ * clock the caller is following the trajectory with.
+ *
+ * Telemetry can be recorded on one thread and read or drained on another. The lock is only held long enough to
+ * record a call or copy out the buffer.
+ */
+public class FollowerTelemetry {
+
+    private final double[] errors, outputs, intervals;
+    private final int[] segments;
+    private int head, size;
+
+    private final long[] jitter;
+    private final double jitterBinWidth;
+
+    private long count, overwritten;
+    private double lastTime, maxError, sumSquaredError, maxInterval;
+
+    /**
+     * Create telemetry with a jitter histogram of 21 bins, each 1ms wide
+     * @param capacity  The number of calls the ring buffer holds
+     */
+    public FollowerTelemetry(int capacity) {
+        this(capacity, 21, 0.001);
+    }
+
+    /**
+     * Create telemetry
+     * @param capacity          The number of calls the ring buffer holds
+     * @param jitterBins        The number of bins in the jitter histogram. The middle bin holds calls that came on
+     *                          time, with early calls below it and late calls above. The first and last bins also
+     *                          hold every call further out.
+     * @param jitterBinWidth    The width of each jitter bin, in seconds
+     */
+    public FollowerTelemetry(int capacity, int jitterBins, double jitterBinWidth) {
+        if (capacity <= 0 || jitterBins <= 0 || !(jitterBinWidth > 0))
+            throw new IllegalArgumentException("Capacity, bins and bin width must be positive");
+        errors = new double[capacity];
+        outputs = new double[capacity];
+        intervals = new double[capacity];
+        segments = new int[capacity];
+        jitter = new long[jitterBins];
+        this.jitterBinWidth = jitterBinWidth;
+    }
+
+    /**
+     * Record a call to calculate, timed with {@link System#nanoTime()}
+     */
+    void record(int segment, double error, double output, double expectedInterval) {
+        record(segment, error, output, expectedInterval, System.nanoTime() / 1e9);
+    }
+
+    /**
+     * Record a call to calculate made at the given time, in seconds. The interval is measured from the previous
+     * call, and compared with the expected interval (the trajectory's time step) for the jitter histogram.
+     */
+    synchronized void record(int segment, double error, double output, double expectedInterval, double time) {
+        double interval = count == 0 ? 0 : time - lastTime;
+        lastTime = time;
+
+        if (size == errors.length) overwritten++;
+        else size++;
+        errors[head] = error;
+        outputs[head] = output;
+        intervals[head] = interval;
+        segments[head] = segment;
+        head = (head + 1) % errors.length;
+
+        count++;
+        maxError = Math.max(maxError, Math.abs(error));
+        sumSquaredError += error * error;
+        if (count > 1) {
+            maxInterval = Math.max(maxInterval, interval);
+            int bin = (int) Math.floor((interval - expectedInterval) / jitterBinWidth + 0.5) + jitter.length / 2;
+            jitter[Math.max(0, Math.min(jitter.length - 1, bin))]++;
+        }
+    }
+
+    /**
+     * Copy the recorded calls out of the ring buffer, oldest first, and remove them from it. Any of the arrays may
+     * be null if that value isn't wanted. At most as many calls as the shortest given array holds are drained.
+     * @param error     Filled with the position error (setpoint - actual) of each call
+     * @param output    Filled with the output of each call
+     * @param segment   Filled with the segment each call was following
+     * @param interval  Filled with the time since the previous call, in seconds (0 for the first call)
+     * @return          The number of calls drained
+     */
+    public synchronized int drain(double[] error, double[] output, int[] segment, double[] interval) {
+        int n = size;
+        if (error != null) n = Math.min(n, error.length);
+        if (output != null) n = Math.min(n, output.length);
+        if (segment != null) n = Math.min(n, segment.length);
+        if (interval != null) n = Math.min(n, interval.length);
+
+        int capacity = errors.length;
+        int start = (head - size + capacity) % capacity;
+        // The oldest calls may wrap around the end of the buffer, so copy in up to two runs
+        int first = Math.min(n, capacity - start);
+        copy(start, 0, first, error, output, segment, interval);
+        copy(0, first, n - first, error, output, segment, interval);
+        size -= n;
+        return n;
+    }
+
+    private void copy(int from, int to, int n, double[] error, double[] output, int[] segment, double[] interval) {
+        if (error != null) System.arraycopy(errors, from, error, to, n);
+        if (output != null) System.arraycopy(outputs, from, output, to, n);
+        if (segment != null) System.arraycopy(segments, from, segment, to, n);
+        if (interval != null) System.arraycopy(intervals, from, interval, to, n);
+    }
+
+    /**
+     * @return the number of calls waiting in the ring buffer to be drained
+     */
+    public synchronized int available() {
+        return size;
+    }
+
+    /**
+     * @return the number of calls recorded since the telemetry was reset
+     */
+    public synchronized long getCount() {
+        return count;
+    }
+
+    /**
+     * @return the number of calls overwritten in the ring buffer before they were drained
+     */
+    public synchronized long getOverwritten() {
+        return overwritten;
+    }
+
+    /**
+     * @return the largest absolute position error of any call
+     */
+    public synchronized double getMaxError() {
+        return maxError;
+    }
+
+    /**
+     * @return the root mean square position error over all calls
+     */
+    public synchronized double getRmsError() {
+        return count == 0 ? 0 : Math.sqrt(sumSquaredError / count);
+    }
+
+    /**
+     * @return the longest time between two calls, in seconds
+     */
+    public synchronized double getMaxInterval() {
+        return maxInterval;
+    }
+
+    /**
+     * Copy out the jitter histogram: how many calls came each number of bin widths early (below the middle bin) or
+     * late (above it) compared to the trajectory's time step.
+     * @param into  An array of at least the number of bins
+     * @return      into
+     */
+    public synchronized long[] getJitterHistogram(long[] into) {
+        System.arraycopy(jitter, 0, into, 0, jitter.length);
+        return into;
+    }
+
+    /**
+     * @return the number of bins in the jitter histogram
+     */
+    public int getJitterBins() {
+        return jitter.length;
+    }
+
+    /**
+     * @return the width of each jitter histogram bin, in seconds
+     */
+    public double getJitterBinWidth() {
+        return jitterBinWidth;
+    }
+
+    /**
+     * Clear the ring buffer and statistics
+     */
+    public synchronized void reset() {
+        head = 0; size = 0;
+        count = 0; overwritten = 0; lastTime = 0;
+        maxError = 0; sumSquaredError = 0; maxInterval = 0;
+        Arrays.fill(jitter, 0);
+    }
+
+}
@@ -0,0 +1,23 @@
+package jaci.pathfinder.followers;
+
+/**
+ * How a follower finds the setpoint between two segments when it is given a time rather than stepping through
+ * the trajectory one segment per call.
+ */
+public enum Interpolation {
+    /**
+     * Use the segment at or before the given time, without interpolating. Segment i is at time (i + 1) * dt, so
+     * before the first segment this is the state the trajectory starts from.
+     */
+    NONE,
+    /**
+     * Interpolate every value linearly between the neighbouring segments.
+     */
+    LINEAR,
+    /**
+     * Interpolate position and velocity with a cubic Hermite spline through the neighbouring segments, using
+     * their velocity and acceleration as tangents. This follows the profile more closely than linear interpolation
+     * when the loop runs a lot slower or faster than the trajectory's time step.
+     */
+    HERMITE
+}
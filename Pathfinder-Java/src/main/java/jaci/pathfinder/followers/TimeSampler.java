@@ -0,0 +1,86 @@
+package jaci.pathfinder.followers;
+
+import jaci.pathfinder.Pathfinder;
+import jaci.pathfinder.Trajectory;
+
+/**
+ * Finds the setpoint of a trajectory at a given time. Trajectories have a uniform time step, so the segment is
+ * found directly from the time instead of by searching. The result is written to the fields of this object, so
+ * sampling doesn't allocate.
+ *
+ * Segment i is at time (i + 1) * dt, as generated: the trajectory starts one time step before its first segment,
+ * and ends at its last. Between the start and the first segment, setpoints come from the start state, found by
+ * stepping back from the first segment the same way generation steps forward to it.
+ */
+class TimeSampler {
+
+    double position, velocity, acceleration, heading;
+    int segment;
+
+    /**
+     * Sample the trajectory at the given time since its start.
+     * @return false if the time is past the end of the trajectory, in which case the fields are unchanged
+     */
+    boolean sample(Trajectory traj, double time, Interpolation mode) {
+        int length = traj.length();
+        if (length == 0) return false;
+
+        double dt = traj.getDt(0);
+        double u = Math.max(time, 0) / dt - 1;
+        if (u > length - 1 + 1e-9) return false;
+
+        // i is the segment at or before the time, or -1 for the start. The small allowances stop round-off in the
+        // division putting a time that is exactly on a segment just before it.
+        int i = Math.min((int) Math.floor(u + 1e-9), length - 1);
+        segment = Math.max(i, 0);
+        if (i == length - 1) {
+            position = traj.getPosition(i);
+            velocity = traj.getVelocity(i);
+            acceleration = traj.getAcceleration(i);
+            heading = traj.getHeading(i);
+            return true;
+        }
+
+        double p1 = traj.getPosition(i + 1), v1 = traj.getVelocity(i + 1), a1 = traj.getAcceleration(i + 1);
+        double p0, v0, a0, h0;
+        if (i < 0) {
+            a0 = a1 - traj.getJerk(0) * dt;
+            v0 = v1 - a1 * dt;
+            p0 = p1 - (v0 + v1) / 2 * dt;
+            h0 = traj.getHeading(0);
+        } else {
+            p0 = traj.getPosition(i);
+            v0 = traj.getVelocity(i);
+            a0 = traj.getAcceleration(i);
+            h0 = traj.getHeading(i);
+        }
+        if (mode == Interpolation.NONE) {
+            position = p0;
+            velocity = v0;
+            acceleration = a0;
+            heading = h0;
+            return true;
+        }
+
+        double s = Math.max(u - i, 0);
+        if (mode == Interpolation.HERMITE) {
+            double s2 = s * s, s3 = s2 * s;
+            double h00 = 2 * s3 - 3 * s2 + 1, h10 = s3 - 2 * s2 + s;
+            double h01 = -2 * s3 + 3 * s2,    h11 = s3 - s2;
+            position = h00 * p0 + h10 * dt * v0 + h01 * p1 + h11 * dt * v1;
+            velocity = h00 * v0 + h10 * dt * a0 + h01 * v1 + h11 * dt * a1;
+        } else {
+            position = p0 + (p1 - p0) * s;
+            velocity = v0 + (v1 - v0) * s;
+        }
+        acceleration = a0 + (a1 - a0) * s;
+
+        // Headings wrap around, so interpolate along the shorter way between them, and keep the result in range
+        double dh = traj.getHeading(i + 1) - h0;
+        if (dh > Math.PI) dh -= 2 * Math.PI;
+        else if (dh < -Math.PI) dh += 2 * Math.PI;
+        heading = Pathfinder.boundRadians(h0 + dh * s);
+        return true;
+    }
+
+}
@@ -2,6 +2,7 @@ package jaci.pathfinder.modifiers;
 
 import jaci.pathfinder.PathfinderJNI;
 import jaci.pathfinder.Trajectory;
+import jaci.pathfinder.Waypoint;
 
 /**
  * The Swerve Modifier will take in a Source Trajectory and spit out 4 trajectories, 1 for each wheel on the drive.
@@ -38,6 +39,30 @@ public class SwerveModifier {
         this.source = source;
     }
 
+    /**
+     * Generate a trajectory and modify it for a swerve drive in a single native call. This gives the same wheel
+     * trajectories as generating the path and then calling {@link #modify(double, double, Mode)}, without copying
+     * the centre trajectory out to Java and back in again.
+     * @param waypoints         An array of waypoints (setpoints) for the trajectory path to intersect
+     * @param config            The configuration of the trajectory
+     * @param wheelbase_width   The width (in meters) between the individual left-right sides of the drivebase
+     * @param wheelbase_depth   The width (in meters) between the individual front-back sides of the drivebase
+     * @param mode              The SwerveMode to use for generation
+     * @param keepSource        Whether to also keep the centre trajectory. If false, {@link #getSourceTrajectory()}
+     *                          gives null.
+     * @return                  The modifier, holding the generated trajectories
+     */
+    public static SwerveModifier generate(Waypoint[] waypoints, Trajectory.Config config, double wheelbase_width,
+                                          double wheelbase_depth, Mode mode, boolean keepSource) {
+        Trajectory[] trajs = PathfinderJNI.generateSwerve(waypoints, config, wheelbase_width, wheelbase_depth, mode, keepSource);
+        SwerveModifier modifier = new SwerveModifier(keepSource ? trajs[4] : null);
+        modifier.fl = trajs[0];
+        modifier.fr = trajs[1];
+        modifier.bl = trajs[2];
+        modifier.br = trajs[3];
+        return modifier;
+    }
+
     /**
      * Generate the Trajectory Modification
      * @param wheelbase_width   The width (in meters) between the individual left-right sides of the drivebase
@@ -2,6 +2,7 @@ package jaci.pathfinder.modifiers;
 
 import jaci.pathfinder.PathfinderJNI;
 import jaci.pathfinder.Trajectory;
+import jaci.pathfinder.Waypoint;
 
 /**
  * The Tank Modifier will take in a Source Trajectory and a Wheelbase Width and spit out a Trajectory for each
@@ -25,6 +26,25 @@ public class TankModifier {
         this.source = source;
     }
 
+    /**
+     * Generate a trajectory and modify it for a tank drive in a single native call. This gives the same left and
+     * right trajectories as generating the path and then calling {@link #modify(double)}, without copying the
+     * centre trajectory out to Java and back in again.
+     * @param waypoints         An array of waypoints (setpoints) for the trajectory path to intersect
+     * @param config            The configuration of the trajectory
+     * @param wheelbase_width   The width (in meters) between the individual sides of the drivebase
+     * @param keepSource        Whether to also keep the centre trajectory. If false, {@link #getSourceTrajectory()}
+     *                          gives null.
+     * @return                  The modifier, holding the generated trajectories
+     */
+    public static TankModifier generate(Waypoint[] waypoints, Trajectory.Config config, double wheelbase_width, boolean keepSource) {
+        Trajectory[] trajs = PathfinderJNI.generateTank(waypoints, config, wheelbase_width, keepSource);
+        TankModifier modifier = new TankModifier(keepSource ? trajs[2] : null);
+        modifier.left = trajs[0];
+        modifier.right = trajs[1];
+        return modifier;
+    }
+
     /**
      * Generate the Trajectory Modification
      * @param wheelbase_width   The width (in meters) between the individual sides of the drivebase
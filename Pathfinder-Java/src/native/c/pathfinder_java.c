@@ -1,4 +1,5 @@
 #include <jni.h>
+#include <stdint.h>
 #include <stdlib.h>
 #include <pathfinder.h>
 
@@ -6,83 +7,76 @@
 
 typedef void (*fitmethod)(Waypoint,Waypoint,Spline*);
 
-void *getField(JNIEnv *env, jobject obj, char *field_name, char *field_signature) {
-    jclass cls = (*env)->GetObjectClass(env, obj);
-    jfieldID fid = (*env)->GetFieldID(env, cls, field_name, field_signature);
-    return (*env)->GetObjectField(env, obj, fid);
-}
+// Segments cross the JNI boundary as a single primitive double[] in column-major order
+// (all dt values, then all x values, etc), so a whole trajectory is moved in one array
+// access instead of one object and eight field lookups per segment.
+#define SEGMENT_FIELDS 8
 
-double getDoubleField(JNIEnv *env, jobject obj, char *field_name) {
-    jclass cls = (*env)->GetObjectClass(env, obj);
-    jfieldID fid = (*env)->GetFieldID(env, cls, field_name, "D");
-    double x = (*env)->GetDoubleField(env, obj, fid);
-    return x;
-}
+static jclass jniExceptionClass = NULL;
+static jclass generationExceptionClass = NULL;
+static jclass doubleArrayClass = NULL;
 
-int getIntField(JNIEnv *env, jobject obj, char *field_name) {
-    jclass cls = (*env)->GetObjectClass(env, obj);
-    jfieldID fid = (*env)->GetFieldID(env, cls, field_name, "I");
-    int x = (*env)->GetIntField(env, obj, fid);
-    return x;
+static jclass findGlobalClass(JNIEnv *env, const char *name) {
+    jclass local = (*env)->FindClass(env, name);
+    if (local == NULL) return NULL;
+    jclass global = (jclass) (*env)->NewGlobalRef(env, local);
+    (*env)->DeleteLocalRef(env, local);
+    return global;
 }
 
-void setDoubleField(JNIEnv *env, jobject obj, char *field_name, double value) {
-    jclass cls = (*env)->GetObjectClass(env, obj);
-    jfieldID fid = (*env)->GetFieldID(env, cls, field_name, "D");
-    (*env)->SetDoubleField(env, obj, fid, value);
-}
+JNIEXPORT jint JNICALL JNI_OnLoad(JavaVM *vm, void *reserved) {
+    JNIEnv *env;
+    if ((*vm)->GetEnv(vm, (void **)&env, JNI_VERSION_1_6) != JNI_OK)
+        return JNI_ERR;
+
+    jniExceptionClass = findGlobalClass(env, "jaci/pathfinder/Pathfinder$PathfinderJNIException");
+    if (jniExceptionClass == NULL) return JNI_ERR;
 
-void setIntField(JNIEnv *env, jobject obj, char *field_name, int value) {
-    jclass cls = (*env)->GetObjectClass(env, obj);
-    jfieldID fid = (*env)->GetFieldID(env, cls, field_name, "I");
-    (*env)->SetIntField(env, obj, fid, value);
+    generationExceptionClass = findGlobalClass(env, "jaci/pathfinder/Pathfinder$GenerationException");
+    if (generationExceptionClass == NULL) return JNI_ERR;
+
+    doubleArrayClass = findGlobalClass(env, "[D");
+    if (doubleArrayClass == NULL) return JNI_ERR;
+
+    return JNI_VERSION_1_6;
 }
 
-void *getMethodReturn(JNIEnv *env, jobject obj, char *method_name, char *method_signature) {
-    jclass cls = (*env)->GetObjectClass(env, obj);
-    jmethodID mid = (*env)->GetMethodID(env, cls, method_name, method_signature);
-    return (*env)->CallObjectMethod(env, obj, mid);
+JNIEXPORT void JNICALL JNI_OnUnload(JavaVM *vm, void *reserved) {
+    JNIEnv *env;
+    if ((*vm)->GetEnv(vm, (void **)&env, JNI_VERSION_1_6) != JNI_OK)
+        return;
+
+    if (jniExceptionClass != NULL) (*env)->DeleteGlobalRef(env, jniExceptionClass);
+    if (generationExceptionClass != NULL) (*env)->DeleteGlobalRef(env, generationExceptionClass);
+    if (doubleArrayClass != NULL) (*env)->DeleteGlobalRef(env, doubleArrayClass);
+    jniExceptionClass = NULL;
+    generationExceptionClass = NULL;
+    doubleArrayClass = NULL;
 }
 
-fitmethod getFitMethod(JNIEnv *env, jobject obj) {
-    jstring s = (jstring) getMethodReturn(env, obj, "name", "()Ljava/lang/String;");
-    const char *nativeString = (*env)->GetStringUTFChars(env, s, 0);
-    
-    fitmethod method;
-    
-    if (strcmp(nativeString, "FIT_HERMITE_CUBIC") == 0) {
-        method = FIT_HERMITE_CUBIC;
-    } else if (strcmp(nativeString, "FIT_HERMITE_QUINTIC") == 0) {
-        method = FIT_HERMITE_QUINTIC;
-    } else {
-        method = FIT_HERMITE_CUBIC;
+// Ordinals of jaci.pathfinder.Trajectory.FitMethod
+fitmethod getFitMethod(jint fit) {
+    switch (fit) {
+        case 1:  return FIT_HERMITE_QUINTIC;
+        default: return FIT_HERMITE_CUBIC;
     }
-    
-    (*env)->ReleaseStringUTFChars(env, s, nativeString);
-    return method;
 }
 
-SWERVE_MODE getSwerveMode(JNIEnv *env, jobject obj) {
-    jstring s = (jstring) getMethodReturn(env, obj, "name", "()Ljava/lang/String;");
-    const char *nativeString = (*env)->GetStringUTFChars(env, s, 0);
-    
-    SWERVE_MODE mode;
-    
-    if (strcmp(nativeString, "SWERVE_DEFAULT")) {
-        mode = SWERVE_DEFAULT;
-    } else {
-        mode = SWERVE_DEFAULT;
-    }
-    
-    (*env)->ReleaseStringUTFChars(env, s, nativeString);
-    return mode;
+// Ordinals of jaci.pathfinder.modifiers.SwerveModifier.Mode
+SWERVE_MODE getSwerveMode(jint mode) {
+    return SWERVE_DEFAULT;
+}
+
+// A tolerance (Trajectory.Config.tolerance) integrates the splines adaptively, otherwise with the sample count
+static int prepareCandidate(const Waypoint *points, int point_length, fitmethod fit, int samples, double tolerance, double dt,
+        double max_velocity, double max_acceleration, double max_jerk, TrajectoryCandidate *cd) {
+    if (tolerance > 0)
+        return pathfinder_prepare_adaptive(points, point_length, fit, tolerance, dt, max_velocity, max_acceleration, max_jerk, cd);
+    return pathfinder_prepare(points, point_length, fit, samples, dt, max_velocity, max_acceleration, max_jerk, cd);
 }
 
 jint throwJNIException(JNIEnv *env, const char *msg) {
-    jclass exClass;
-    char *className = "jaci/pathfinder/Pathfinder$PathfinderJNIException";
-    exClass = (*env)->FindClass(env, className);
-    return (*env)->ThrowNew(env, exClass, msg);
+    return (*env)->ThrowNew(env, jniExceptionClass, msg);
 }
 
 jint throwPathfinderException(JNIEnv *env) {
@@ -91,466 +85,1130 @@ jint throwPathfinderException(JNIEnv *env) {
     return throwJNIException(env, "Unknown Exception (invalid state).");
 }
 
+// Error state is thread-local in the core, so this is always the error from the calling thread's own generation.
 jint throwGenerationException(JNIEnv *env) {
-    jclass exClass;
-    char *className = "jaci/pathfinder/Pathfinder$GenerationException";
-    exClass = (*env)->FindClass(env, className);
-    return (*env)->ThrowNew(env, exClass, "The trajectory provided was invalid! Invalid trajectory could not be generated");
+    if (pathfinder_has_error())
+        return (*env)->ThrowNew(env, generationExceptionClass, pathfinder_error());
+    return (*env)->ThrowNew(env, generationExceptionClass, "The trajectory provided was invalid! Invalid trajectory could not be generated");
+}
+
+// Transpose between Segments and the column-major layout, wherever the columns live
+static void packColumns(const Segment *segs, int length, double *c) {
+    int i;
+    for (i = 0; i < length; i++) {
+        Segment s = segs[i];
+        c[i]              = s.dt;
+        c[length + i]     = s.x;
+        c[2*length + i]   = s.y;
+        c[3*length + i]   = s.position;
+        c[4*length + i]   = s.velocity;
+        c[5*length + i]   = s.acceleration;
+        c[6*length + i]   = s.jerk;
+        c[7*length + i]   = s.heading;
+    }
+}
+
+static void unpackColumns(const double *c, int length, Segment *segs) {
+    int i;
+    for (i = 0; i < length; i++) {
+        Segment s = {
+            c[i], c[length + i], c[2*length + i], c[3*length + i],
+            c[4*length + i], c[5*length + i], c[6*length + i], c[7*length + i]
+        };
+        segs[i] = s;
+    }
+}
+
+/*
+ * Unpack a column-major segment array from Java into a newly malloc'd Segment buffer.
+ * Returns NULL (with a pathfinder error set) on failure. The caller must free the result.
+ */
+Segment *columnsToSegments(JNIEnv *env, jdoubleArray columns, int *length_out) {
+    int length = (*env)->GetArrayLength(env, columns) / SEGMENT_FIELDS;
+    *length_out = length;
+
+    Segment *segs = malloc((length > 0 ? length : 1) * sizeof(Segment));
+    if (segs == NULL) {
+        pathfinder_set_error("JNI: Could not malloc segments.");
+        return NULL;
+    }
+
+    double *c = (double *) (*env)->GetPrimitiveArrayCritical(env, columns, NULL);
+    if (c == NULL) {
+        pathfinder_set_error("JNI: Could not access segment array.");
+        free(segs);
+        return NULL;
+    }
+
+    unpackColumns(c, length, segs);
+    (*env)->ReleasePrimitiveArrayCritical(env, columns, c, JNI_ABORT);
+    return segs;
+}
+
+/*
+ * Pack a Segment buffer into a new column-major Java double array. Returns NULL
+ * with a pending Java exception on failure.
+ */
+jdoubleArray segmentsToColumns(JNIEnv *env, Segment *segs, int length) {
+    jdoubleArray columns = (*env)->NewDoubleArray(env, length * SEGMENT_FIELDS);
+    if (columns == NULL) return NULL;
+
+    double *c = (double *) (*env)->GetPrimitiveArrayCritical(env, columns, NULL);
+    if (c == NULL) return NULL;
+
+    packColumns(segs, length, c);
+    (*env)->ReleasePrimitiveArrayCritical(env, columns, c, 0);
+    return columns;
+}
+
+jobjectArray newColumnsArray(JNIEnv *env, int count) {
+    return (*env)->NewObjectArray(env, count, doubleArrayClass, NULL);
 }
 
 /*
  * Class:     jaci_pathfinder_PathfinderJNI
- * Method:    generateTrajectory
- * Signature: ([Ljaci/pathfinder/Waypoint;Ljaci/pathfinder/Trajectory/FitMethod;IDDDD)[Ljaci/pathfinder/Trajectory/Segment;
+ * Method:    generateTrajectoryRaw
+ * Signature: ([DIIDDDDD[D)[D
  *
- * RETURN: Trajectory Object
+ * RETURN: Column-major segment array
  * PARAMS:
- *  waypoints: Array of Waypoints to generate with
+ *  waypoints: Waypoints to generate with, packed as x, y, angle triplets
  *  config:    Configuration for Trajectory Generation
- *      - fit, samples, dt, max_velocity, max_acceleration, max_jerk
+ *      - fit (ordinal), samples, tolerance, dt, max_velocity, max_acceleration, max_jerk
+ *  report:    If not null, filled with the arc length error and the number of spline derivative evaluations
  */
-JNIEXPORT jobjectArray JNICALL Java_jaci_pathfinder_PathfinderJNI_generateTrajectory
-    (JNIEnv *env, jclass thisCls, jobjectArray waypoints, jobject fit, jint samples, jdouble dt, jdouble max_velocity, jdouble max_acceleration, jdouble max_jerk) {
+JNIEXPORT jdoubleArray JNICALL Java_jaci_pathfinder_PathfinderJNI_generateTrajectoryRaw
+    (JNIEnv *env, jclass thisCls, jdoubleArray waypoints, jint fit, jint samples, jdouble tolerance, jdouble dt, jdouble max_velocity, jdouble max_acceleration, jdouble max_jerk,
+     jdoubleArray report) {
     pathfinder_clear_errors();
 
-    int point_length = (*env)->GetArrayLength(env, waypoints);
-    int i;
-    Waypoint *points = malloc(point_length * sizeof(Waypoint));
+    int point_length = (*env)->GetArrayLength(env, waypoints) / 3;
+    Waypoint *points = malloc((point_length > 0 ? point_length : 1) * sizeof(Waypoint));
     if (points == NULL) {
         pathfinder_set_error("JNI: Could not malloc waypoints.");
-        return throwPathfinderException(env);
-    }
-    
-    for (i = 0; i < point_length; i++) {
-        jobject wpobj = (jobject) (*env)->GetObjectArrayElement(env, waypoints, i);
-        Waypoint p = {
-            getDoubleField(env, wpobj, "x"),
-            getDoubleField(env, wpobj, "y"),
-            getDoubleField(env, wpobj, "angle")
-        };
-        points[i] = p;
+        throwPathfinderException(env);
+        return NULL;
     }
+    // Waypoint is three packed doubles, so the array can be copied straight in
+    (*env)->GetDoubleArrayRegion(env, waypoints, 0, point_length * 3, (jdouble *) points);
     
     TrajectoryCandidate cd;
-    fitmethod fitm = getFitMethod(env, fit);
+    fitmethod fitm = getFitMethod(fit);
 
-    pathfinder_prepare(points, point_length, fitm, samples, dt, max_velocity, max_acceleration, max_jerk, &cd);
-    
-    if (pathfinder_has_error()) {
-        return throwPathfinderException(env);
+    int prep = prepareCandidate(points, point_length, fitm, samples, tolerance, dt, max_velocity, max_acceleration, max_jerk, &cd);
+    free(points);
+
+    if (prep < 0) {
+        throwGenerationException(env);
+        return NULL;
+    }
+
+    if (report != NULL) {
+        jdouble values[2] = { cd.arc_error, cd.arc_evaluations };
+        (*env)->SetDoubleArrayRegion(env, report, 0, 2, values);
     }
 
     int len = cd.length;
-    // Segment segs[len];
     Segment *segs = malloc(len * sizeof(Segment));
     if (segs == NULL) {
+        free(cd.saptr); free(cd.laptr); free(cd.taptr);
         pathfinder_set_error("JNI: Could not malloc segments.");
-        free(points);
-        return throwPathfinderException(env);
+        throwPathfinderException(env);
+        return NULL;
     }
     
     int result = pathfinder_generate(&cd, segs);
     
     if (result < 0) {
-        return throwGenerationException(env);
+        free(segs);
+        throwGenerationException(env);
+        return NULL;
     }
     
-    jclass cls = (*env)->FindClass(env, "jaci/pathfinder/Trajectory$Segment");
-    jmethodID constructor = (*env)->GetMethodID(env, cls, "<init>", "(DDDDDDDD)V");
-    
-    jobjectArray newArray = (*env)->NewObjectArray(env, len, cls, NULL);
+    jdoubleArray columns = segmentsToColumns(env, segs, len);
+    free(segs);
     
-    for (i = 0; i < len; i++) {
-        Segment s = segs[i];
-        jobject jseg = (*env)->NewObject(env, cls, constructor, s.dt, s.x, s.y, s.position, s.velocity, s.acceleration, s.jerk, s.heading);
-        (*env)->SetObjectArrayElement(env, newArray, i, jseg);
+    return columns;
+}
+
+/*
+ * Class:     jaci_pathfinder_PathfinderJNI
+ * Method:    generateTrajectoryBatchRaw
+ * Signature: ([[DIIDDDDD)[[D
+ *
+ * RETURN: Column-major segment array for each path, or null where a path could not be generated
+ * PARAMS:
+ *  waypoints: Waypoints of each path, packed as x, y, angle triplets
+ *  config:    Configuration for Trajectory Generation, shared by all paths
+ *      - fit (ordinal), samples, tolerance, dt, max_velocity, max_acceleration, max_jerk
+ *
+ * The waypoint and segment buffers are kept for the whole batch and only grown when a path needs more,
+ * so a batch makes a single JNI call and a handful of allocations however many paths it holds.
+ */
+JNIEXPORT jobjectArray JNICALL Java_jaci_pathfinder_PathfinderJNI_generateTrajectoryBatchRaw
+    (JNIEnv *env, jclass thisCls, jobjectArray waypoint_sets, jint fit, jint samples, jdouble tolerance, jdouble dt, jdouble max_velocity, jdouble max_acceleration, jdouble max_jerk) {
+    int count = (*env)->GetArrayLength(env, waypoint_sets);
+    fitmethod fitm = getFitMethod(fit);
+
+    jobjectArray result = newColumnsArray(env, count);
+    if (result == NULL) return NULL;
+
+    Waypoint *points = NULL;
+    int points_capacity = 0;
+    Segment *segs = NULL;
+    int segs_capacity = 0;
+
+    int i;
+    for (i = 0; i < count; i++) {
+        pathfinder_clear_errors();
+
+        jdoubleArray wp = (jdoubleArray) (*env)->GetObjectArrayElement(env, waypoint_sets, i);
+        if (wp == NULL) continue;
+
+        int point_length = (*env)->GetArrayLength(env, wp) / 3;
+        if (point_length > points_capacity) {
+            Waypoint *grown = realloc(points, point_length * sizeof(Waypoint));
+            if (grown == NULL) {
+                pathfinder_set_error("JNI: Could not malloc waypoints.");
+                break;
+            }
+            points = grown;
+            points_capacity = point_length;
+        }
+        (*env)->GetDoubleArrayRegion(env, wp, 0, point_length * 3, (jdouble *) points);
+        (*env)->DeleteLocalRef(env, wp);
+
+        TrajectoryCandidate cd;
+        if (prepareCandidate(points, point_length, fitm, samples, tolerance, dt, max_velocity, max_acceleration, max_jerk, &cd) < 0)
+            continue;
+
+        int len = cd.length;
+        if (len > segs_capacity) {
+            Segment *grown = realloc(segs, len * sizeof(Segment));
+            if (grown == NULL) {
+                free(cd.saptr); free(cd.laptr); free(cd.taptr);
+                pathfinder_set_error("JNI: Could not malloc segments.");
+                break;
+            }
+            segs = grown;
+            segs_capacity = len;
+        }
+
+        if (pathfinder_generate(&cd, segs) < 0)
+            continue;
+
+        jdoubleArray columns = segmentsToColumns(env, segs, len);
+        if (columns == NULL) break;
+        (*env)->SetObjectArrayElement(env, result, i, columns);
+        (*env)->DeleteLocalRef(env, columns);
     }
-    
+
     free(points); free(segs);
-    
-    return newArray;
+
+    if ((*env)->ExceptionCheck(env))
+        return NULL;
+
+    if (i < count) {
+        throwPathfinderException(env);
+        return NULL;
+    }
+
+    return result;
 }
 
 /*
  * Class:     jaci_pathfinder_PathfinderJNI
- * Method:    modifyTrajectoryTank
- * Signature: ([Ljaci/pathfinder/Trajectory/Segment;D)[[Ljaci/pathfinder/Trajectory/Segment;
+ * Method:    samplePathRaw
+ * Signature: ([DII[D[D[D)V
  *
- * RETURN: Array of trajectories (0 = Left, 1 = Right)
  * PARAMS:
- *  source:             Source Generated Trajectory
- *  wheelbase_width:    The width between individual sides of the wheelbase
+ *  waypoints:          Waypoints of the path, packed as x, y, angle triplets
+ *  fit:                The fit method (ordinal)
+ *  samples:            Samples per spline, evenly spaced in the spline's parameter
+ *  x, y, heading:      Filled with (path_length - 1) * samples + 1 samples. Heading may be null.
  */
-JNIEXPORT jobjectArray JNICALL Java_jaci_pathfinder_PathfinderJNI_modifyTrajectoryTank
-  (JNIEnv *env, jclass thisCls, jobjectArray source, jdouble wheelbase_width) {
+JNIEXPORT void JNICALL Java_jaci_pathfinder_PathfinderJNI_samplePathRaw
+  (JNIEnv *env, jclass thisCls, jdoubleArray waypoints, jint fit, jint samples, jdoubleArray xs, jdoubleArray ys, jdoubleArray headings) {
     pathfinder_clear_errors();
 
-    int length = (*env)->GetArrayLength(env, source);
-    // Segment segs[length];
-    Segment *segs = malloc(length * sizeof(Segment));
-    if (segs == NULL) {
-        pathfinder_set_error("JNI: Could not malloc segments.");
-        return throwPathfinderException(env);
+    int point_length = (*env)->GetArrayLength(env, waypoints) / 3;
+    Waypoint *points = malloc((point_length > 0 ? point_length : 1) * sizeof(Waypoint));
+    double *percentages = malloc((samples + 1) * sizeof(double));
+    if (points == NULL || percentages == NULL) {
+        free(points); free(percentages);
+        pathfinder_set_error("JNI: Could not malloc path samples.");
+        throwPathfinderException(env);
+        return;
     }
-    
+    (*env)->GetDoubleArrayRegion(env, waypoints, 0, point_length * 3, (jdouble *) points);
+
     int i;
-    for (i = 0; i < length; i++) {
-        jobject sobj = (jobject) (*env)->GetObjectArrayElement(env, source, i);
-        Segment s = {
-            getDoubleField(env, sobj, "dt"),
-            getDoubleField(env, sobj, "x"),
-            getDoubleField(env, sobj, "y"),
-            getDoubleField(env, sobj, "position"),
-            getDoubleField(env, sobj, "velocity"),
-            getDoubleField(env, sobj, "acceleration"),
-            getDoubleField(env, sobj, "jerk"),
-            getDoubleField(env, sobj, "heading")
-        };
-        segs[i] = s;
+    for (i = 0; i <= samples; i++)
+        percentages[i] = (double) i / samples;
+
+    fitmethod fitm = getFitMethod(fit);
+    // Written straight into the Java arrays. The last spline also takes the end of the path.
+    double *x = (double *) (*env)->GetPrimitiveArrayCritical(env, xs, NULL);
+    double *y = (double *) (*env)->GetPrimitiveArrayCritical(env, ys, NULL);
+    double *h = headings == NULL ? NULL : (double *) (*env)->GetPrimitiveArrayCritical(env, headings, NULL);
+    if (x != NULL && y != NULL && (headings == NULL || h != NULL)) {
+        for (i = 0; i < point_length - 1; i++) {
+            Spline s;
+            fitm(points[i], points[i + 1], &s);
+            int offset = i * samples;
+            pf_spline_evaluate(&s, percentages, i == point_length - 2 ? samples + 1 : samples,
+                x + offset, y + offset, h == NULL ? NULL : h + offset);
+        }
+    }
+    if (h != NULL) (*env)->ReleasePrimitiveArrayCritical(env, headings, h, 0);
+    if (y != NULL) (*env)->ReleasePrimitiveArrayCritical(env, ys, y, 0);
+    if (x != NULL) (*env)->ReleasePrimitiveArrayCritical(env, xs, x, 0);
+
+    free(points); free(percentages);
+}
+
+/*
+ * Class:     jaci_pathfinder_PathfinderJNI
+ * Method:    modifyTrajectoryTankRaw
+ * Signature: ([DD)[[D
+ *
+ * RETURN: Array of column-major segment arrays (0 = Left, 1 = Right)
+ * PARAMS:
+ *  source:             Source Generated Trajectory (column-major)
+ *  wheelbase_width:    The width between individual sides of the wheelbase
+ */
+JNIEXPORT jobjectArray JNICALL Java_jaci_pathfinder_PathfinderJNI_modifyTrajectoryTankRaw
+  (JNIEnv *env, jclass thisCls, jdoubleArray source, jdouble wheelbase_width) {
+    pathfinder_clear_errors();
+
+    int length;
+    Segment *segs = columnsToSegments(env, source, &length);
+    if (segs == NULL) {
+        throwPathfinderException(env);
+        return NULL;
     }
-    
-    // Segment left[length];
-    // Segment right[length];
     
     Segment *left = malloc(length * sizeof(Segment));
     if (left == NULL) {
         pathfinder_set_error("JNI: Could not malloc left segs.");
         free(segs);
-        return throwPathfinderException(env);
+        throwPathfinderException(env);
+        return NULL;
     }
     Segment *right = malloc(length * sizeof(Segment));
     if (right == NULL) {
         pathfinder_set_error("JNI: Could not malloc right segs.");
         free(segs); free(left);
-        return throwPathfinderException(env);
+        throwPathfinderException(env);
+        return NULL;
     }
     
     pathfinder_modify_tank(segs, length, left, right, wheelbase_width);
     
-    jclass cls = (*env)->FindClass(env, "jaci/pathfinder/Trajectory$Segment");
-    jmethodID constructor = (*env)->GetMethodID(env, cls, "<init>", "(DDDDDDDD)V");
-    
-    jobjectArray leftArray = (*env)->NewObjectArray(env, length, cls, NULL);
-    jobjectArray rightArray = (*env)->NewObjectArray(env, length, cls, NULL);
-    
-    for (i = 0; i < length; i++) {
-        Segment l = left[i];
-        Segment r = right[i];
-        
-        jobject jlseg = (*env)->NewObject(env, cls, constructor, l.dt, l.x, l.y, l.position, l.velocity, l.acceleration, l.jerk, l.heading);
-        jobject jrseg = (*env)->NewObject(env, cls, constructor, r.dt, r.x, r.y, r.position, r.velocity, r.acceleration, r.jerk, r.heading);
-        
-        (*env)->SetObjectArrayElement(env, leftArray, i, jlseg);
-        (*env)->SetObjectArrayElement(env, rightArray, i, jrseg);
+    jobjectArray returnArray = newColumnsArray(env, 2);
+    if (returnArray != NULL) {
+        jdoubleArray l = segmentsToColumns(env, left, length);
+        if (l != NULL) (*env)->SetObjectArrayElement(env, returnArray, 0, l);
+        jdoubleArray r = segmentsToColumns(env, right, length);
+        if (r != NULL) (*env)->SetObjectArrayElement(env, returnArray, 1, r);
     }
     
     free(segs); free(left); free(right);
     
-    cls = (*env)->FindClass(env, "[Ljaci/pathfinder/Trajectory$Segment;");
-    jobjectArray returnArray = (*env)->NewObjectArray(env, 2, cls, NULL);
-    
-    (*env)->SetObjectArrayElement(env, returnArray, 0, leftArray);
-    (*env)->SetObjectArrayElement(env, returnArray, 1, rightArray);
-    
     return returnArray;
 }
 
 /*
  * Class:     jaci_pathfinder_PathfinderJNI
- * Method:    modifyTrajectorySwerve
- * Signature: ([Ljaci/pathfinder/Trajectory/Segment;DDLjaci/pathfinder/modifiers/SwerveModifier/Mode;)[[Ljaci/pathfinder/Trajectory/Segment;
+ * Method:    modifyTrajectorySwerveRaw
+ * Signature: ([DDDI)[[D
  * 
- * RETURN: Array of trajectories (0 = Front Left, 1 = Front Right, 2 = Back Left, 3 = Back Right)
+ * RETURN: Array of column-major segment arrays (0 = Front Left, 1 = Front Right, 2 = Back Left, 3 = Back Right)
  * PARAMS:
- *  source:             Source Generated Trajectory
+ *  source:             Source Generated Trajectory (column-major)
  *  wheelbase_width:    The width between individual sides of the wheelbase
  *  wheelbase_depth:    The depth between the front and back of the wheelbases
- *  mode:               The mode to use to generate the new trajectories
+ *  mode:               The mode (ordinal) to use to generate the new trajectories
  */
-JNIEXPORT jobjectArray JNICALL Java_jaci_pathfinder_PathfinderJNI_modifyTrajectorySwerve
-  (JNIEnv *env, jclass thisCls, jobjectArray source, jdouble wheelbase_width, jdouble wheelbase_depth, jobject mode) {
+JNIEXPORT jobjectArray JNICALL Java_jaci_pathfinder_PathfinderJNI_modifyTrajectorySwerveRaw
+  (JNIEnv *env, jclass thisCls, jdoubleArray source, jdouble wheelbase_width, jdouble wheelbase_depth, jint mode) {
     pathfinder_clear_errors();
 
-    int length = (*env)->GetArrayLength(env, source);
-    // Segment segs[length];
-    Segment *segs = malloc(length * sizeof(Segment));
+    int length;
+    Segment *segs = columnsToSegments(env, source, &length);
     if (segs == NULL) {
-        pathfinder_set_error("JNI: Could not malloc segments.");
-        return throwPathfinderException(env);
-    }
-    
-    int i;
-    for (i = 0; i < length; i++) {
-        jobject sobj = (jobject) (*env)->GetObjectArrayElement(env, source, i);
-        Segment s = {
-            getDoubleField(env, sobj, "dt"),
-            getDoubleField(env, sobj, "x"),
-            getDoubleField(env, sobj, "y"),
-            getDoubleField(env, sobj, "position"),
-            getDoubleField(env, sobj, "velocity"),
-            getDoubleField(env, sobj, "acceleration"),
-            getDoubleField(env, sobj, "jerk"),
-            getDoubleField(env, sobj, "heading")
-        };
-        segs[i] = s;
+        throwPathfinderException(env);
+        return NULL;
     }
     
-    // Segment fl[length];
-    // Segment fr[length];
-    // Segment bl[length];
-    // Segment br[length];
-    
-    Segment *fl = malloc(length * sizeof(Segment));
-    if (fl == NULL) {
-        pathfinder_set_error("JNI: Could not malloc fl segs.");
+    // One allocation for all four wheels keeps the failure path simple
+    Segment *wheels = malloc(4 * length * sizeof(Segment));
+    if (wheels == NULL) {
+        pathfinder_set_error("JNI: Could not malloc wheel segs.");
         free(segs);
-        return throwPathfinderException(env);
-    }
-    Segment *fr = malloc(length * sizeof(Segment));
-    if (fr == NULL) {
-        pathfinder_set_error("JNI: Could not malloc fr segs.");
-        free(segs); free(fl);
-        return throwPathfinderException(env);
-    }
-    Segment *bl = malloc(length * sizeof(Segment));
-    if (bl == NULL) {
-        pathfinder_set_error("JNI: Could not malloc bl segs.");
-        free(segs); free(fl); free(bl);
-        return throwPathfinderException(env);
-    }
-    Segment *br = malloc(length * sizeof(Segment));
-    if (br == NULL) {
-        pathfinder_set_error("JNI: Could not malloc br segs.");
-        free(segs); free(fl); free(bl); free(br);
-        return throwPathfinderException(env);
+        throwPathfinderException(env);
+        return NULL;
     }
+    Segment *fl = wheels;
+    Segment *fr = wheels + length;
+    Segment *bl = wheels + 2 * length;
+    Segment *br = wheels + 3 * length;
     
-    SWERVE_MODE smode = getSwerveMode(env, mode);
+    SWERVE_MODE smode = getSwerveMode(mode);
     pathfinder_modify_swerve(segs, length, fl, fr, bl, br, wheelbase_width, wheelbase_depth, smode);
     
-    jclass cls = (*env)->FindClass(env, "jaci/pathfinder/Trajectory$Segment");
-    jmethodID constructor = (*env)->GetMethodID(env, cls, "<init>", "(DDDDDDDD)V");
-    
-    jobjectArray fla = (*env)->NewObjectArray(env, length, cls, NULL);
-    jobjectArray fra = (*env)->NewObjectArray(env, length, cls, NULL);
-    jobjectArray bla = (*env)->NewObjectArray(env, length, cls, NULL);
-    jobjectArray bra = (*env)->NewObjectArray(env, length, cls, NULL);
-    
-    for (i = 0; i < length; i++) {
-        Segment sfl = fl[i];
-        Segment sfr = fr[i];
-        Segment sbl = bl[i];
-        Segment sbr = br[i];
-        
-        jobject jfl = (*env)->NewObject(env, cls, constructor, sfl.dt, sfl.x, sfl.y, sfl.position, sfl.velocity, sfl.acceleration, sfl.jerk, sfl.heading);
-        jobject jfr = (*env)->NewObject(env, cls, constructor, sfr.dt, sfr.x, sfr.y, sfr.position, sfr.velocity, sfr.acceleration, sfr.jerk, sfr.heading);
-        jobject jbl = (*env)->NewObject(env, cls, constructor, sbl.dt, sbl.x, sbl.y, sbl.position, sbl.velocity, sbl.acceleration, sbl.jerk, sbl.heading);
-        jobject jbr = (*env)->NewObject(env, cls, constructor, sbr.dt, sbr.x, sbr.y, sbr.position, sbr.velocity, sbr.acceleration, sbr.jerk, sbr.heading);
-        
-        (*env)->SetObjectArrayElement(env, fla, i, jfl);
-        (*env)->SetObjectArrayElement(env, fra, i, jfr);
-        (*env)->SetObjectArrayElement(env, bla, i, jbl);
-        (*env)->SetObjectArrayElement(env, bra, i, jbr);
+    jobjectArray returnArray = newColumnsArray(env, 4);
+    if (returnArray != NULL) {
+        int i;
+        for (i = 0; i < 4; i++) {
+            jdoubleArray w = segmentsToColumns(env, wheels + i * length, length);
+            if (w == NULL) break;
+            (*env)->SetObjectArrayElement(env, returnArray, i, w);
+            (*env)->DeleteLocalRef(env, w);
+        }
     }
     
-    free(segs); free(fl); free(fr); free(bl); free(br);
-    
-    cls = (*env)->FindClass(env, "[Ljaci/pathfinder/Trajectory$Segment;");
-    jobjectArray returnArray = (*env)->NewObjectArray(env, 4, cls, NULL);
-    
-    (*env)->SetObjectArrayElement(env, returnArray, 0, fla);
-    (*env)->SetObjectArrayElement(env, returnArray, 1, fra);
-    (*env)->SetObjectArrayElement(env, returnArray, 2, bla);
-    (*env)->SetObjectArrayElement(env, returnArray, 3, bra);
+    free(segs); free(wheels);
     
     return returnArray;
 }
 
 /*
- * Class:     jaci_pathfinder_PathfinderJNI
- * Method:    trajectorySerialize
- * Signature: ([Ljaci/pathfinder/Trajectory/Segment;Ljava/lang/String;)V
+ * Generate the centre trajectory for a fused generate-and-modify call into a native buffer laid out as `wheels`
+ * trajectories followed by the centre trajectory, all of the same length. The centre path never crosses into Java
+ * unless it's asked for, and the wheels (plus the centre if wanted) are packed out as one run. Returns NULL with a
+ * Java exception thrown on failure, otherwise the caller must free the result.
  */
-JNIEXPORT void JNICALL Java_jaci_pathfinder_PathfinderJNI_trajectorySerialize
-  (JNIEnv *env, jclass thisCls, jobjectArray trajectory, jstring filename) {
+static Segment *generateWithWheels(JNIEnv *env, jdoubleArray waypoints, jint fit, jint samples, jdouble tolerance, jdouble dt,
+        jdouble max_velocity, jdouble max_acceleration, jdouble max_jerk, int wheels, int *length_out) {
     pathfinder_clear_errors();
 
-    int length = (*env)->GetArrayLength(env, trajectory);
-    Segment *segs = malloc(length * sizeof(Segment));
+    int point_length = (*env)->GetArrayLength(env, waypoints) / 3;
+    Waypoint *points = malloc((point_length > 0 ? point_length : 1) * sizeof(Waypoint));
+    if (points == NULL) {
+        pathfinder_set_error("JNI: Could not malloc waypoints.");
+        throwPathfinderException(env);
+        return NULL;
+    }
+    (*env)->GetDoubleArrayRegion(env, waypoints, 0, point_length * 3, (jdouble *) points);
+
+    TrajectoryCandidate cd;
+    int prep = prepareCandidate(points, point_length, getFitMethod(fit), samples, tolerance, dt, max_velocity, max_acceleration, max_jerk, &cd);
+    free(points);
+    if (prep < 0) {
+        throwGenerationException(env);
+        return NULL;
+    }
+
+    int len = cd.length;
+    Segment *segs = malloc(((wheels + 1) * len > 0 ? (wheels + 1) * len : 1) * sizeof(Segment));
     if (segs == NULL) {
-        pathfinder_set_error("JNI: Could not malloc segments");
+        free(cd.saptr); free(cd.laptr); free(cd.taptr);
+        pathfinder_set_error("JNI: Could not malloc segments.");
         throwPathfinderException(env);
-        return;
+        return NULL;
     }
-    
+
+    if (pathfinder_generate(&cd, segs + wheels * len) < 0) {
+        free(segs);
+        throwGenerationException(env);
+        return NULL;
+    }
+
+    *length_out = len;
+    return segs;
+}
+
+/*
+ * Pack `count` consecutive trajectories of the given length into a new array of column-major segment arrays.
+ */
+static jobjectArray trajectoriesToColumns(JNIEnv *env, Segment *segs, int count, int length) {
+    jobjectArray returnArray = newColumnsArray(env, count);
+    if (returnArray == NULL) return NULL;
+
     int i;
-    for (i = 0; i < length; i++) {
-        jobject sobj = (jobject) (*env)->GetObjectArrayElement(env, trajectory, i);
-        Segment s = {
-            getDoubleField(env, sobj, "dt"),
-            getDoubleField(env, sobj, "x"),
-            getDoubleField(env, sobj, "y"),
-            getDoubleField(env, sobj, "position"),
-            getDoubleField(env, sobj, "velocity"),
-            getDoubleField(env, sobj, "acceleration"),
-            getDoubleField(env, sobj, "jerk"),
-            getDoubleField(env, sobj, "heading")
-        };
-        segs[i] = s;
+    for (i = 0; i < count; i++) {
+        jdoubleArray c = segmentsToColumns(env, segs + i * length, length);
+        if (c == NULL) return NULL;
+        (*env)->SetObjectArrayElement(env, returnArray, i, c);
+        (*env)->DeleteLocalRef(env, c);
+    }
+    return returnArray;
+}
+
+/*
+ * Class:     jaci_pathfinder_PathfinderJNI
+ * Method:    generateTankRaw
+ * Signature: ([DIIDDDDDDZ)[[D
+ *
+ * RETURN: Array of column-major segment arrays (0 = Left, 1 = Right, 2 = Centre if include_source)
+ * PARAMS:
+ *  waypoints:          Waypoints to generate with, packed as x, y, angle triplets
+ *  config:             Configuration for Trajectory Generation
+ *  wheelbase_width:    The width between individual sides of the wheelbase
+ *  include_source:     Whether to also return the centre trajectory
+ */
+JNIEXPORT jobjectArray JNICALL Java_jaci_pathfinder_PathfinderJNI_generateTankRaw
+  (JNIEnv *env, jclass thisCls, jdoubleArray waypoints, jint fit, jint samples, jdouble tolerance, jdouble dt, jdouble max_velocity, jdouble max_acceleration, jdouble max_jerk,
+   jdouble wheelbase_width, jboolean include_source) {
+    int length;
+    Segment *segs = generateWithWheels(env, waypoints, fit, samples, tolerance, dt, max_velocity, max_acceleration, max_jerk, 2, &length);
+    if (segs == NULL) return NULL;
+
+    pathfinder_modify_tank(segs + 2 * length, length, segs, segs + length, wheelbase_width);
+
+    jobjectArray returnArray = trajectoriesToColumns(env, segs, include_source ? 3 : 2, length);
+    free(segs);
+    return returnArray;
+}
+
+/*
+ * Class:     jaci_pathfinder_PathfinderJNI
+ * Method:    generateSwerveRaw
+ * Signature: ([DIIDDDDDDDIZ)[[D
+ *
+ * RETURN: Array of column-major segment arrays (0 = Front Left, 1 = Front Right, 2 = Back Left, 3 = Back Right,
+ *         4 = Centre if include_source)
+ * PARAMS:
+ *  waypoints:          Waypoints to generate with, packed as x, y, angle triplets
+ *  config:             Configuration for Trajectory Generation
+ *  wheelbase_width:    The width between individual sides of the wheelbase
+ *  wheelbase_depth:    The depth between the front and back of the wheelbases
+ *  mode:               The mode (ordinal) to use to generate the new trajectories
+ *  include_source:     Whether to also return the centre trajectory
+ */
+JNIEXPORT jobjectArray JNICALL Java_jaci_pathfinder_PathfinderJNI_generateSwerveRaw
+  (JNIEnv *env, jclass thisCls, jdoubleArray waypoints, jint fit, jint samples, jdouble tolerance, jdouble dt, jdouble max_velocity, jdouble max_acceleration, jdouble max_jerk,
+   jdouble wheelbase_width, jdouble wheelbase_depth, jint mode, jboolean include_source) {
+    int length;
+    Segment *segs = generateWithWheels(env, waypoints, fit, samples, tolerance, dt, max_velocity, max_acceleration, max_jerk, 4, &length);
+    if (segs == NULL) return NULL;
+
+    pathfinder_modify_swerve(segs + 4 * length, length, segs, segs + length, segs + 2 * length, segs + 3 * length,
+        wheelbase_width, wheelbase_depth, getSwerveMode(mode));
+
+    jobjectArray returnArray = trajectoriesToColumns(env, segs, include_source ? 5 : 4, length);
+    free(segs);
+    return returnArray;
+}
+
+/*
+ * Class:     jaci_pathfinder_PathfinderJNI
+ * Method:    trajectorySerializeRaw
+ * Signature: ([DLjava/lang/String;)V
+ */
+JNIEXPORT void JNICALL Java_jaci_pathfinder_PathfinderJNI_trajectorySerializeRaw
+  (JNIEnv *env, jclass thisCls, jdoubleArray trajectory, jstring filename) {
+    pathfinder_clear_errors();
+
+    int length;
+    Segment *segs = columnsToSegments(env, trajectory, &length);
+    if (segs == NULL) {
+        throwPathfinderException(env);
+        return;
     }
     
     const char *path;
     path = (*env)->GetStringUTFChars( env, filename, 0 ) ;
     FILE *fp = fopen(path, "wb");
+    (*env)->ReleaseStringUTFChars(env, filename, path);
     
     // This catches an invalid fp
-    if (pathfinder_serialize(fp, segs, length) < 0) {
+    int result = pathfinder_serialize(fp, segs, length);
+    free(segs);
+    if (result < 0) {
         throwPathfinderException(env);
         return;
     }
     
     fclose(fp);
-    (*env)->ReleaseStringUTFChars(env, filename, path);
 }
 
 /*
  * Class:     jaci_pathfinder_PathfinderJNI
- * Method:    trajectoryDeserialize
- * Signature: (Ljava/lang/String;)[Ljaci/pathfinder/Trajectory/Segment;
+ * Method:    trajectoryDeserializeRaw
+ * Signature: (Ljava/lang/String;)[D
  */
-JNIEXPORT jobjectArray JNICALL Java_jaci_pathfinder_PathfinderJNI_trajectoryDeserialize
+JNIEXPORT jdoubleArray JNICALL Java_jaci_pathfinder_PathfinderJNI_trajectoryDeserializeRaw
   (JNIEnv *env, jclass thisCls, jstring filename) {
     pathfinder_clear_errors();
     const char *path;
     path = (*env)->GetStringUTFChars( env, filename, NULL ) ;
     FILE *fp = fopen(path, "rb");
+    (*env)->ReleaseStringUTFChars(env, filename, path);
     if (fp == NULL) {
         pathfinder_set_error("JNI: Invalid file path.");
-        return throwPathfinderException(env);
+        throwPathfinderException(env);
+        return NULL;
+    }
+
+    // The file leads with the segment count, so peek it to size the buffer
+    char buf_len[4];
+    if (fread(buf_len, 1, 4, fp) != 4) {
+        pathfinder_set_error("JNI: Could not read trajectory length.");
+        fclose(fp);
+        throwPathfinderException(env);
+        return NULL;
     }
+    int max_length = bytesToInt(buf_len);
+    rewind(fp);
 
-    // We don't know the amount of segments, so we have to overallocate. TODO: fix this.
-    Segment *segs = malloc(4096 * sizeof(Segment));
+    Segment *segs = malloc((max_length > 0 ? max_length : 1) * sizeof(Segment));
     if (segs == NULL) {
         pathfinder_set_error("JNI: Could not malloc segments");
-        return throwPathfinderException(env);
+        fclose(fp);
+        throwPathfinderException(env);
+        return NULL;
     }
 
     int length = pathfinder_deserialize(fp, segs);
+    fclose(fp);
 
     if (length < 0) {
-        return throwPathfinderException(env);
-    }
-    
-    fclose(fp);
-    (*env)->ReleaseStringUTFChars(env, filename, path);
-    
-    jclass cls = (*env)->FindClass(env, "jaci/pathfinder/Trajectory$Segment");
-    jmethodID constructor = (*env)->GetMethodID(env, cls, "<init>", "(DDDDDDDD)V");
-    jobjectArray arr = (*env)->NewObjectArray(env, length, cls, NULL);
-    
-    int i;
-    for (i = 0; i < length; i++) {
-        Segment s = segs[i];
-        jobject js = (*env)->NewObject(env, cls, constructor, s.dt, s.x, s.y, s.position, s.velocity, s.acceleration, s.jerk, s.heading);
-        (*env)->SetObjectArrayElement(env, arr, i, js);
+        free(segs);
+        throwPathfinderException(env);
+        return NULL;
     }
     
+    jdoubleArray columns = segmentsToColumns(env, segs, length);
     free(segs);
-    return arr;
+    return columns;
 }
 
 /*
  * Class:     jaci_pathfinder_PathfinderJNI
- * Method:    trajectorySerializeCSV
- * Signature: ([Ljaci/pathfinder/Trajectory/Segment;Ljava/lang/String;)V
+ * Method:    trajectorySerializeCSVRaw
+ * Signature: ([DLjava/lang/String;)V
  */
-JNIEXPORT void JNICALL Java_jaci_pathfinder_PathfinderJNI_trajectorySerializeCSV
-  (JNIEnv *env, jclass thiscls, jobjectArray trajectory, jstring filename) {
+JNIEXPORT void JNICALL Java_jaci_pathfinder_PathfinderJNI_trajectorySerializeCSVRaw
+  (JNIEnv *env, jclass thiscls, jdoubleArray trajectory, jstring filename) {
     pathfinder_clear_errors();
-    int length = (*env)->GetArrayLength(env, trajectory);
-    Segment *segs = malloc(length * sizeof(Segment));
+
+    int length;
+    Segment *segs = columnsToSegments(env, trajectory, &length);
     if (segs == NULL) {
-        pathfinder_set_error("JNI: Could not malloc segments");
         throwPathfinderException(env);
         return;
     }
     
-    int i;
-    for (i = 0; i < length; i++) {
-        jobject sobj = (jobject) (*env)->GetObjectArrayElement(env, trajectory, i);
-        Segment s = {
-            getDoubleField(env, sobj, "dt"),
-            getDoubleField(env, sobj, "x"),
-            getDoubleField(env, sobj, "y"),
-            getDoubleField(env, sobj, "position"),
-            getDoubleField(env, sobj, "velocity"),
-            getDoubleField(env, sobj, "acceleration"),
-            getDoubleField(env, sobj, "jerk"),
-            getDoubleField(env, sobj, "heading")
-        };
-        segs[i] = s;
-    }
-    
     const char *path;
     path = (*env)->GetStringUTFChars( env, filename, 0 ) ;
     FILE *fp = fopen(path, "w");
+    (*env)->ReleaseStringUTFChars(env, filename, path);
     
-    if (pathfinder_serialize_csv(fp, segs, length) < 0) {
+    int result = pathfinder_serialize_csv(fp, segs, length);
+    free(segs);
+    if (result < 0) {
         throwPathfinderException(env);
         return;
     }
     
     fclose(fp);
-    (*env)->ReleaseStringUTFChars(env, filename, path);
 }
 
 /*
  * Class:     jaci_pathfinder_PathfinderJNI
- * Method:    trajectoryDeserializeCSV
- * Signature: (Ljava/lang/String;)[Ljaci/pathfinder/Trajectory/Segment;
+ * Method:    trajectoryDeserializeCSVRaw
+ * Signature: (Ljava/lang/String;)[D
  */
-JNIEXPORT jobjectArray JNICALL Java_jaci_pathfinder_PathfinderJNI_trajectoryDeserializeCSV
+JNIEXPORT jdoubleArray JNICALL Java_jaci_pathfinder_PathfinderJNI_trajectoryDeserializeCSVRaw
   (JNIEnv *env, jclass thiscls, jstring filename) {
     pathfinder_clear_errors();
     const char *path;
     path = (*env)->GetStringUTFChars( env, filename, NULL ) ;
     FILE *fp = fopen(path, "r");
+    (*env)->ReleaseStringUTFChars(env, filename, path);
     if (fp == NULL) {
         pathfinder_set_error("JNI: Invalid file path.");
-        return throwPathfinderException(env);
+        throwPathfinderException(env);
+        return NULL;
     }
 
     int num_lines = pathfinder_get_file_length(fp);
     if (num_lines < 0) {
-        return throwPathfinderException(env);
+        fclose(fp);
+        throwPathfinderException(env);
+        return NULL;
     }
 
-    Segment *segs = malloc(num_lines * sizeof(Segment));  // Pre allocate for a huge amount of segments
+    Segment *segs = malloc((num_lines > 0 ? num_lines : 1) * sizeof(Segment));
     if (segs == NULL) {
         pathfinder_set_error("JNI: Could not malloc segments");
-        return throwPathfinderException(env);
+        fclose(fp);
+        throwPathfinderException(env);
+        return NULL;
     }
 
     int length = pathfinder_deserialize_csv(fp, segs);
+    fclose(fp);
     if (length < 0) {
-        return throwPathfinderException(env);
+        free(segs);
+        throwPathfinderException(env);
+        return NULL;
     }
     
-    fclose(fp);
-    (*env)->ReleaseStringUTFChars(env, filename, path);
-    
-    jclass cls = (*env)->FindClass(env, "jaci/pathfinder/Trajectory$Segment");
-    jmethodID constructor = (*env)->GetMethodID(env, cls, "<init>", "(DDDDDDDD)V");
-    jobjectArray arr = (*env)->NewObjectArray(env, length, cls, NULL);
-    
-    int i;
-    for (i = 0; i < length; i++) {
-        Segment s = segs[i];
-        jobject js = (*env)->NewObject(env, cls, constructor, s.dt, s.x, s.y, s.position, s.velocity, s.acceleration, s.jerk, s.heading);
-        (*env)->SetObjectArrayElement(env, arr, i, js);
+    jdoubleArray columns = segmentsToColumns(env, segs, length);
+    free(segs);
+    return columns;
+}
+/*
+ * Path plans are held natively between calls, and passed to Java as an opaque handle (the PathPlan pointer).
+ */
+
+/*
+ * Class:     jaci_pathfinder_PathfinderJNI
+ * Method:    planCreateRaw
+ * Signature: ([DIIDDDD)J
+ */
+JNIEXPORT jlong JNICALL Java_jaci_pathfinder_PathfinderJNI_planCreateRaw
+    (JNIEnv *env, jclass thisCls, jdoubleArray waypoints, jint fit, jint samples, jdouble dt, jdouble max_velocity, jdouble max_acceleration, jdouble max_jerk) {
+    pathfinder_clear_errors();
+
+    int point_length = (*env)->GetArrayLength(env, waypoints) / 3;
+    Waypoint *points = malloc((point_length > 0 ? point_length : 1) * sizeof(Waypoint));
+    PathPlan *plan = malloc(sizeof(PathPlan));
+    if (points == NULL || plan == NULL) {
+        free(points); free(plan);
+        pathfinder_set_error("JNI: Could not malloc path plan.");
+        throwPathfinderException(env);
+        return 0;
     }
-    
+    (*env)->GetDoubleArrayRegion(env, waypoints, 0, point_length * 3, (jdouble *) points);
+
+    int result = pathfinder_plan_create(plan, points, point_length, getFitMethod(fit), samples, dt, max_velocity, max_acceleration, max_jerk);
+    free(points);
+    if (result < 0) {
+        free(plan);
+        throwGenerationException(env);
+        return 0;
+    }
+    return (jlong) (intptr_t) plan;
+}
+
+/*
+ * Class:     jaci_pathfinder_PathfinderJNI
+ * Method:    planFreeRaw
+ * Signature: (J)V
+ */
+JNIEXPORT void JNICALL Java_jaci_pathfinder_PathfinderJNI_planFreeRaw
+    (JNIEnv *env, jclass thisCls, jlong handle) {
+    PathPlan *plan = (PathPlan *) (intptr_t) handle;
+    pathfinder_plan_free(plan);
+    free(plan);
+}
+
+/*
+ * Class:     jaci_pathfinder_PathfinderJNI
+ * Method:    planSetWaypointRaw
+ * Signature: (JIDDD)V
+ */
+JNIEXPORT void JNICALL Java_jaci_pathfinder_PathfinderJNI_planSetWaypointRaw
+    (JNIEnv *env, jclass thisCls, jlong handle, jint index, jdouble x, jdouble y, jdouble angle) {
+    pathfinder_clear_errors();
+    Waypoint w = { x, y, angle };
+    if (pathfinder_plan_set_waypoint((PathPlan *) (intptr_t) handle, index, w) < 0)
+        throwPathfinderException(env);
+}
+
+/*
+ * Class:     jaci_pathfinder_PathfinderJNI
+ * Method:    planConfigureRaw
+ * Signature: (JDDDD)V
+ */
+JNIEXPORT void JNICALL Java_jaci_pathfinder_PathfinderJNI_planConfigureRaw
+    (JNIEnv *env, jclass thisCls, jlong handle, jdouble dt, jdouble max_velocity, jdouble max_acceleration, jdouble max_jerk) {
+    pathfinder_clear_errors();
+    if (pathfinder_plan_configure((PathPlan *) (intptr_t) handle, dt, max_velocity, max_acceleration, max_jerk) < 0)
+        throwGenerationException(env);
+}
+
+/*
+ * Class:     jaci_pathfinder_PathfinderJNI
+ * Method:    planGenerateRaw
+ * Signature: (J)[D
+ */
+JNIEXPORT jdoubleArray JNICALL Java_jaci_pathfinder_PathfinderJNI_planGenerateRaw
+    (JNIEnv *env, jclass thisCls, jlong handle) {
+    pathfinder_clear_errors();
+    PathPlan *plan = (PathPlan *) (intptr_t) handle;
+
+    TrajectoryCandidate cd;
+    if (pathfinder_plan_prepare(plan, &cd) < 0) {
+        throwGenerationException(env);
+        return NULL;
+    }
+
+    int len = cd.length;
+    Segment *segs = malloc((len > 0 ? len : 1) * sizeof(Segment));
+    if (segs == NULL) {
+        pathfinder_set_error("JNI: Could not malloc segments.");
+        throwPathfinderException(env);
+        return NULL;
+    }
+
+    if (pathfinder_generate_candidate2(&cd, segs, plan->scratch) < 0) {
+        free(segs);
+        throwGenerationException(env);
+        return NULL;
+    }
+
+    jdoubleArray columns = segmentsToColumns(env, segs, len);
     free(segs);
-    return arr;
-}
\ No newline at end of file
+    return columns;
+}
+
+/*
+ * Streams are held natively between calls like path plans, passed to Java as the TrajectoryStream pointer.
+ */
+
+/*
+ * Class:     jaci_pathfinder_PathfinderJNI
+ * Method:    streamBeginRaw
+ * Signature: ([DIIDDDDD)J
+ */
+JNIEXPORT jlong JNICALL Java_jaci_pathfinder_PathfinderJNI_streamBeginRaw
+    (JNIEnv *env, jclass thisCls, jdoubleArray waypoints, jint fit, jint samples, jdouble tolerance, jdouble dt, jdouble max_velocity, jdouble max_acceleration, jdouble max_jerk) {
+    pathfinder_clear_errors();
+
+    int point_length = (*env)->GetArrayLength(env, waypoints) / 3;
+    Waypoint *points = malloc((point_length > 0 ? point_length : 1) * sizeof(Waypoint));
+    TrajectoryStream *stream = malloc(sizeof(TrajectoryStream));
+    if (points == NULL || stream == NULL) {
+        free(points); free(stream);
+        pathfinder_set_error("JNI: Could not malloc trajectory stream.");
+        throwPathfinderException(env);
+        return 0;
+    }
+    (*env)->GetDoubleArrayRegion(env, waypoints, 0, point_length * 3, (jdouble *) points);
+
+    TrajectoryCandidate cd;
+    int prep = prepareCandidate(points, point_length, getFitMethod(fit), samples, tolerance, dt, max_velocity, max_acceleration, max_jerk, &cd);
+    free(points);
+    if (prep < 0 || pathfinder_stream_begin(stream, &cd) < 0) {
+        free(stream);
+        throwGenerationException(env);
+        return 0;
+    }
+    return (jlong) (intptr_t) stream;
+}
+
+/*
+ * Class:     jaci_pathfinder_PathfinderJNI
+ * Method:    streamLengthRaw
+ * Signature: (J)I
+ */
+JNIEXPORT jint JNICALL Java_jaci_pathfinder_PathfinderJNI_streamLengthRaw
+    (JNIEnv *env, jclass thisCls, jlong handle) {
+    return ((TrajectoryStream *) (intptr_t) handle)->candidate.length;
+}
+
+/*
+ * Class:     jaci_pathfinder_PathfinderJNI
+ * Method:    streamNextRaw
+ * Signature: (JI)[D
+ *
+ * RETURN: Column-major segment array of the next (up to) max segments, empty once the trajectory is complete
+ */
+JNIEXPORT jdoubleArray JNICALL Java_jaci_pathfinder_PathfinderJNI_streamNextRaw
+    (JNIEnv *env, jclass thisCls, jlong handle, jint max) {
+    TrajectoryStream *stream = (TrajectoryStream *) (intptr_t) handle;
+    int count = stream->candidate.length - stream->index;
+    if (count > max) count = max;
+    if (count < 0) count = 0;
+
+    Segment *segs = malloc((count > 0 ? count : 1) * sizeof(Segment));
+    if (segs == NULL) {
+        pathfinder_set_error("JNI: Could not malloc segments.");
+        throwPathfinderException(env);
+        return NULL;
+    }
+
+    count = pathfinder_stream_next(stream, segs, count);
+    jdoubleArray columns = segmentsToColumns(env, segs, count);
+    free(segs);
+    return columns;
+}
+
+/*
+ * Class:     jaci_pathfinder_PathfinderJNI
+ * Method:    streamEndRaw
+ * Signature: (J)V
+ */
+JNIEXPORT void JNICALL Java_jaci_pathfinder_PathfinderJNI_streamEndRaw
+    (JNIEnv *env, jclass thisCls, jlong handle) {
+    TrajectoryStream *stream = (TrajectoryStream *) (intptr_t) handle;
+    pathfinder_stream_end(stream);
+    free(stream);
+}
+
+/*
+ * Trajectory buffers keep their segments in direct ByteBuffers allocated by Java (so the memory lives as long as
+ * any view of it), in the same column-major layout as the arrays above. The handle holds the scratch Segments
+ * and waypoints each operation needs, and the splines, arc length tables and profile filter scratch of a
+ * generation, grown as needed and kept between calls so a reused buffer doesn't allocate.
+ */
+typedef struct {
+    Segment *segments;
+    int capacity;
+    Waypoint *points;
+    int point_capacity;
+    CandidateStorage storage;
+} TrajectoryBuffer;
+
+static Segment *bufferSegments(TrajectoryBuffer *buf, int count) {
+    if (count < 1) count = 1;
+    if (count > buf->capacity) {
+        Segment *grown = realloc(buf->segments, count * sizeof(Segment));
+        if (grown == NULL) {
+            pathfinder_set_error("JNI: Could not malloc segments.");
+            return NULL;
+        }
+        buf->segments = grown;
+        buf->capacity = count;
+    }
+    return buf->segments;
+}
+
+// The columns of a direct buffer, or NULL if it isn't direct or can't hold length segments
+static double *bufferRoom(JNIEnv *env, jobject columns, int length) {
+    double *c = (double *) (*env)->GetDirectBufferAddress(env, columns);
+    if (c == NULL || (*env)->GetDirectBufferCapacity(env, columns) < (jlong) length * SEGMENT_FIELDS * (jlong) sizeof(double))
+        return NULL;
+    return c;
+}
+
+// The columns of a direct buffer, or NULL (with a pathfinder error set) if it can't hold length segments
+static double *bufferColumns(JNIEnv *env, jobject columns, int length) {
+    double *c = bufferRoom(env, columns, length);
+    if (c == NULL)
+        pathfinder_set_error("JNI: Trajectory buffer is too small.");
+    return c;
+}
+
+/*
+ * Class:     jaci_pathfinder_PathfinderJNI
+ * Method:    bufferCreateRaw
+ * Signature: ()J
+ */
+JNIEXPORT jlong JNICALL Java_jaci_pathfinder_PathfinderJNI_bufferCreateRaw
+    (JNIEnv *env, jclass thisCls) {
+    TrajectoryBuffer *buf = calloc(1, sizeof(TrajectoryBuffer));
+    if (buf == NULL) {
+        pathfinder_set_error("JNI: Could not malloc trajectory buffer.");
+        throwPathfinderException(env);
+        return 0;
+    }
+    return (jlong) (intptr_t) buf;
+}
+
+/*
+ * Class:     jaci_pathfinder_PathfinderJNI
+ * Method:    bufferFreeRaw
+ * Signature: (J)V
+ */
+JNIEXPORT void JNICALL Java_jaci_pathfinder_PathfinderJNI_bufferFreeRaw
+    (JNIEnv *env, jclass thisCls, jlong handle) {
+    TrajectoryBuffer *buf = (TrajectoryBuffer *) (intptr_t) handle;
+    free(buf->segments);
+    free(buf->points);
+    pathfinder_storage_free(&buf->storage);
+    free(buf);
+}
+
+/*
+ * Class:     jaci_pathfinder_PathfinderJNI
+ * Method:    bufferGenerateRaw
+ * Signature: (JLjava/nio/ByteBuffer;[DIIDDDDD)I
+ *
+ * RETURN: The length of the generated trajectory. The segments are packed into columns if it is big enough,
+ *         otherwise they are kept in the handle for bufferPackRaw once Java has grown the columns.
+ */
+JNIEXPORT jint JNICALL Java_jaci_pathfinder_PathfinderJNI_bufferGenerateRaw
+    (JNIEnv *env, jclass thisCls, jlong handle, jobject columns, jdoubleArray waypoints, jint fit, jint samples, jdouble tolerance,
+     jdouble dt, jdouble max_velocity, jdouble max_acceleration, jdouble max_jerk) {
+    pathfinder_clear_errors();
+    TrajectoryBuffer *buf = (TrajectoryBuffer *) (intptr_t) handle;
+
+    int point_length = (*env)->GetArrayLength(env, waypoints) / 3;
+    if (point_length > buf->point_capacity) {
+        Waypoint *grown = realloc(buf->points, point_length * sizeof(Waypoint));
+        if (grown == NULL) {
+            pathfinder_set_error("JNI: Could not malloc waypoints.");
+            throwPathfinderException(env);
+            return 0;
+        }
+        buf->points = grown;
+        buf->point_capacity = point_length;
+    }
+    (*env)->GetDoubleArrayRegion(env, waypoints, 0, point_length * 3, (jdouble *) buf->points);
+
+    // The candidate's arrays live in the handle, so it is generated from without freeing them
+    TrajectoryCandidate cd;
+    if (pathfinder_prepare_into(buf->points, point_length, getFitMethod(fit), samples, tolerance, dt, max_velocity, max_acceleration,
+            max_jerk, &cd, &buf->storage) < 0) {
+        throwGenerationException(env);
+        return 0;
+    }
+
+    int length = cd.length;
+    Segment *segs = bufferSegments(buf, length);
+    if (segs == NULL) {
+        throwPathfinderException(env);
+        return 0;
+    }
+    if (pathfinder_generate_candidate2(&cd, segs, cd.scratch) < 0) {
+        throwGenerationException(env);
+        return 0;
+    }
+
+    double *c = bufferRoom(env, columns, length);
+    if (c != NULL)
+        packColumns(segs, length, c);
+    return length;
+}
+
+/*
+ * Class:     jaci_pathfinder_PathfinderJNI
+ * Method:    bufferPackRaw
+ * Signature: (JLjava/nio/ByteBuffer;I)V
+ *
+ * Pack the segments left in the handle by the last generation or read into columns.
+ */
+JNIEXPORT void JNICALL Java_jaci_pathfinder_PathfinderJNI_bufferPackRaw
+    (JNIEnv *env, jclass thisCls, jlong handle, jobject columns, jint length) {
+    pathfinder_clear_errors();
+    TrajectoryBuffer *buf = (TrajectoryBuffer *) (intptr_t) handle;
+    double *c = bufferColumns(env, columns, length);
+    if (c == NULL || length > buf->capacity) {
+        throwPathfinderException(env);
+        return;
+    }
+    packColumns(buf->segments, length, c);
+}
+
+/*
+ * Class:     jaci_pathfinder_PathfinderJNI
+ * Method:    bufferModifyRaw
+ * Signature: (JLjava/nio/ByteBuffer;I[Ljava/nio/ByteBuffer;DDI)V
+ *
+ * PARAMS:
+ *  source:     Columns of the source trajectory, length segments long
+ *  outputs:    Columns to write to, each big enough for length segments. 2 outputs modify for a tank drive
+ *              (left, right), 4 for a swerve drive (front left, front right, back left, back right).
+ *  wheelbase_width, wheelbase_depth (swerve only), mode (ordinal, swerve only)
+ */
+JNIEXPORT void JNICALL Java_jaci_pathfinder_PathfinderJNI_bufferModifyRaw
+    (JNIEnv *env, jclass thisCls, jlong handle, jobject source, jint length, jobjectArray outputs,
+     jdouble wheelbase_width, jdouble wheelbase_depth, jint mode) {
+    pathfinder_clear_errors();
+    TrajectoryBuffer *buf = (TrajectoryBuffer *) (intptr_t) handle;
+    int count = (*env)->GetArrayLength(env, outputs);
+
+    double *src = bufferColumns(env, source, length);
+    double *out[4];
+    int i;
+    for (i = 0; i < count && i < 4; i++) {
+        jobject o = (*env)->GetObjectArrayElement(env, outputs, i);
+        out[i] = bufferColumns(env, o, length);
+        (*env)->DeleteLocalRef(env, o);
+        if (out[i] == NULL) src = NULL;
+    }
+    // The source, then each output, in the one scratch buffer
+    Segment *segs = src == NULL ? NULL : bufferSegments(buf, (1 + count) * length);
+    if (segs == NULL || (count != 2 && count != 4)) {
+        if (segs != NULL) pathfinder_set_error("JNI: Modifiers need 2 or 4 outputs.");
+        throwPathfinderException(env);
+        return;
+    }
+
+    unpackColumns(src, length, segs);
+    if (count == 2)
+        pathfinder_modify_tank(segs, length, segs + length, segs + 2 * length, wheelbase_width);
+    else
+        pathfinder_modify_swerve(segs, length, segs + length, segs + 2 * length, segs + 3 * length, segs + 4 * length,
+                wheelbase_width, wheelbase_depth, getSwerveMode(mode));
+    for (i = 0; i < count; i++)
+        packColumns(segs + (1 + i) * length, length, out[i]);
+}
+
+/*
+ * Class:     jaci_pathfinder_PathfinderJNI
+ * Method:    bufferSerializeRaw
+ * Signature: (JLjava/nio/ByteBuffer;ILjava/lang/String;)V
+ */
+JNIEXPORT void JNICALL Java_jaci_pathfinder_PathfinderJNI_bufferSerializeRaw
+    (JNIEnv *env, jclass thisCls, jlong handle, jobject columns, jint length, jstring filename) {
+    pathfinder_clear_errors();
+    TrajectoryBuffer *buf = (TrajectoryBuffer *) (intptr_t) handle;
+    double *c = bufferColumns(env, columns, length);
+    Segment *segs = c == NULL ? NULL : bufferSegments(buf, length);
+    if (segs == NULL) {
+        throwPathfinderException(env);
+        return;
+    }
+    unpackColumns(c, length, segs);
+
+    const char *path = (*env)->GetStringUTFChars(env, filename, NULL);
+    FILE *fp = fopen(path, "wb");
+    (*env)->ReleaseStringUTFChars(env, filename, path);
+
+    // This catches an invalid fp
+    int result = pathfinder_serialize(fp, segs, length);
+    if (fp != NULL) fclose(fp);
+    if (result < 0)
+        throwPathfinderException(env);
+}
+
+/*
+ * Class:     jaci_pathfinder_PathfinderJNI
+ * Method:    bufferDeserializeRaw
+ * Signature: (JLjava/nio/ByteBuffer;Ljava/lang/String;)I
+ *
+ * RETURN: The length of the trajectory read. As with bufferGenerateRaw, the segments are only packed into columns
+ *         if it is big enough.
+ */
+JNIEXPORT jint JNICALL Java_jaci_pathfinder_PathfinderJNI_bufferDeserializeRaw
+    (JNIEnv *env, jclass thisCls, jlong handle, jobject columns, jstring filename) {
+    pathfinder_clear_errors();
+    TrajectoryBuffer *buf = (TrajectoryBuffer *) (intptr_t) handle;
+
+    const char *path = (*env)->GetStringUTFChars(env, filename, NULL);
+    FILE *fp = fopen(path, "rb");
+    (*env)->ReleaseStringUTFChars(env, filename, path);
+    if (fp == NULL) {
+        pathfinder_set_error("JNI: Invalid file path.");
+        throwPathfinderException(env);
+        return 0;
+    }
+
+    // The file leads with the segment count, so peek it to size the buffer
+    char buf_len[4];
+    if (fread(buf_len, 1, 4, fp) != 4) {
+        pathfinder_set_error("JNI: Could not read trajectory length.");
+        fclose(fp);
+        throwPathfinderException(env);
+        return 0;
+    }
+    rewind(fp);
+
+    int max_length = bytesToInt(buf_len);
+    Segment *segs = max_length < 0 ? NULL : bufferSegments(buf, max_length > 0 ? max_length : 1);
+    if (segs == NULL) {
+        if (max_length < 0) pathfinder_set_error("JNI: Invalid trajectory length.");
+        fclose(fp);
+        throwPathfinderException(env);
+        return 0;
+    }
+
+    int length = pathfinder_deserialize(fp, segs);
+    fclose(fp);
+    if (length < 0) {
+        throwPathfinderException(env);
+        return 0;
+    }
+
+    double *c = bufferRoom(env, columns, length);
+    if (c != NULL)
+        packColumns(segs, length, c);
+    return length;
+}
@@ -0,0 +1,207 @@
+package jaci.pathfinder.server;
+
+import jaci.pathfinder.Pathfinder;
+import jaci.pathfinder.Trajectory;
+import jaci.pathfinder.Waypoint;
+import jaci.pathfinder.modifiers.SwerveModifier;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Generates trajectories on a {@link GenerationServer} instead of in this process. This doesn't load the native
+ * library, so can be used where it isn't available.
+ *
+ * One client can be shared between threads. Requests are pipelined over the one connection, so a slow generation
+ * doesn't hold up others sent after it. Trajectories are returned read-only, as they would be from a
+ * {@link jaci.pathfinder.TrajectoryCache}.
+ */
+public class GenerationClient implements AutoCloseable {
+
+    private final Socket socket;
+    private final OutputStream out;
+    private final Map<Integer, CompletableFuture<Trajectory[]>> pending = new ConcurrentHashMap<>();
+    private final AtomicInteger nextId = new AtomicInteger();
+    private volatile IOException failure;
+
+    /**
+     * Connect to a server on the loopback interface
+     * @param port  The port the server is listening on
+     */
+    public GenerationClient(int port) throws IOException {
+        this(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+    }
+
+    /**
+     * Connect to a server
+     * @param address   The address the server is listening on
+     */
+    public GenerationClient(SocketAddress address) throws IOException {
+        socket = new Socket();
+        try {
+            socket.connect(address);
+            socket.setTcpNoDelay(true);
+            out = new BufferedOutputStream(socket.getOutputStream());
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            Protocol.writeHello(out);
+            Protocol.readHello(in);
+
+            Thread reader = new Thread(() -> read(in), "Pathfinder generation client " + socket.getLocalSocketAddress());
+            reader.setDaemon(true);
+            reader.start();
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+
+    private void read(InputStream in) {
+        IOException cause;
+        try {
+            ByteBuffer frame;
+            while ((frame = Protocol.readFrame(in)) != null) {
+                int id = frame.getInt();
+                byte status = frame.get();
+                CompletableFuture<Trajectory[]> future = pending.remove(id);
+                if (future == null) continue;
+
+                try {
+                    if (status == Protocol.STATUS_OK)
+                        future.complete(Protocol.decodeTrajectories(frame));
+                    else if (status == Protocol.STATUS_GENERATION_ERROR)
+                        future.completeExceptionally(new Pathfinder.GenerationException(Protocol.decodeMessage(frame)));
+                    else
+                        future.completeExceptionally(new IOException("Server rejected request: " + Protocol.decodeMessage(frame)));
+                } catch (IOException e) {
+                    future.completeExceptionally(e);
+                }
+            }
+            cause = new IOException("Connection closed by server");
+        } catch (IOException e) {
+            cause = e;
+        }
+        fail(cause);
+    }
+
+    private void fail(IOException cause) {
+        failure = cause;
+        for (Integer id : pending.keySet()) {
+            CompletableFuture<Trajectory[]> future = pending.remove(id);
+            if (future != null) future.completeExceptionally(cause);
+        }
+    }
+
+    /**
+     * Generate a trajectory on the server without waiting for it
+     * @param waypoints     An array of waypoints (setpoints) for the trajectory path to intersect
+     * @param config        The configuration of the trajectory
+     * @return              A future that completes with the generated trajectory, or with a
+     *                      {@link Pathfinder.GenerationException} or {@link IOException}
+     */
+    public CompletableFuture<Trajectory> generateAsync(Waypoint[] waypoints, Trajectory.Config config) {
+        return send(request(Protocol.KIND_TRAJECTORY, waypoints, config)).thenApply(t -> t[0]);
+    }
+
+    /**
+     * Generate a trajectory on the server
+     * @param waypoints     An array of waypoints (setpoints) for the trajectory path to intersect
+     * @param config        The configuration of the trajectory
+     * @return              The generated trajectory
+     */
+    public Trajectory generate(Waypoint[] waypoints, Trajectory.Config config) throws IOException, Pathfinder.GenerationException {
+        return await(send(request(Protocol.KIND_TRAJECTORY, waypoints, config)))[0];
+    }
+
+    /**
+     * Generate a trajectory and modify it for a tank drive on the server
+     * @param waypoints         An array of waypoints (setpoints) for the trajectory path to intersect
+     * @param config            The configuration of the trajectory
+     * @param wheelbase_width   The width between the individual sides of the wheelbase
+     * @return                  The left and right trajectories, in that order
+     */
+    public Trajectory[] generateTank(Waypoint[] waypoints, Trajectory.Config config, double wheelbase_width)
+            throws IOException, Pathfinder.GenerationException {
+        Protocol.Request request = request(Protocol.KIND_TANK, waypoints, config);
+        request.width = wheelbase_width;
+        return await(send(request));
+    }
+
+    /**
+     * Generate a trajectory and modify it for a swerve drive on the server
+     * @param waypoints         An array of waypoints (setpoints) for the trajectory path to intersect
+     * @param config            The configuration of the trajectory
+     * @param wheelbase_width   The width between the individual sides of the wheelbase
+     * @param wheelbase_depth   The width between the front and back sides of the wheelbase
+     * @param mode              The mode to use when modifying the trajectory
+     * @return                  The front left, front right, back left and back right trajectories, in that order
+     */
+    public Trajectory[] generateSwerve(Waypoint[] waypoints, Trajectory.Config config, double wheelbase_width,
+                                       double wheelbase_depth, SwerveModifier.Mode mode)
+            throws IOException, Pathfinder.GenerationException {
+        Protocol.Request request = request(Protocol.KIND_SWERVE, waypoints, config);
+        request.width = wheelbase_width;
+        request.depth = wheelbase_depth;
+        request.mode = mode;
+        return await(send(request));
+    }
+
+    private Protocol.Request request(byte kind, Waypoint[] waypoints, Trajectory.Config config) {
+        Protocol.Request request = new Protocol.Request();
+        request.id = nextId.getAndIncrement();
+        request.kind = kind;
+        request.waypoints = waypoints;
+        request.config = config;
+        return request;
+    }
+
+    private CompletableFuture<Trajectory[]> send(Protocol.Request request) {
+        CompletableFuture<Trajectory[]> future = new CompletableFuture<>();
+        pending.put(request.id, future);
+        try {
+            synchronized (out) {
+                Protocol.writeFrame(out, request.encode());
+            }
+        } catch (IOException e) {
+            pending.remove(request.id);
+            future.completeExceptionally(e);
+        }
+        // The connection may have failed before the request was added, in which case nothing else will complete it
+        IOException failed = failure;
+        if (failed != null && pending.remove(request.id) != null)
+            future.completeExceptionally(failed);
+        return future;
+    }
+
+    private static Trajectory[] await(CompletableFuture<Trajectory[]> future) throws IOException, Pathfinder.GenerationException {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            if (cause instanceof Pathfinder.GenerationException) throw (Pathfinder.GenerationException) cause;
+            throw e;
+        }
+    }
+
+    /**
+     * Close the connection. Requests still waiting for a response fail with an IOException.
+     */
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+
+}
@@ -0,0 +1,382 @@
+package jaci.pathfinder.server;
+
+import jaci.pathfinder.Trajectory;
+import jaci.pathfinder.TrajectoryCache;
+import jaci.pathfinder.Waypoint;
+import jaci.pathfinder.modifiers.SwerveModifier;
+import jaci.pathfinder.modifiers.TankModifier;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A local server that generates trajectories for other processes, so a dashboard, simulator and planner running
+ * on the same machine share one native library, one cache and one pool of generator threads instead of each
+ * generating the same paths themselves. Connect to it with a {@link GenerationClient}.
+ *
+ * Requests are generated on a fixed pool of worker threads. Identical requests that arrive while one is already
+ * being generated wait for that generation instead of starting another, and finished responses are kept in a
+ * bounded cache, already encoded, so repeated requests are answered without generating or encoding again.
+ * Requests queue up for the workers, and each worker takes every waiting request (up to {@link #MAX_BATCH}) at
+ * once, generating the paths that share a configuration together with one call into the native library.
+ * Trajectories are generated through a {@link TrajectoryCache}, so tank and swerve requests for the same path
+ * share the one generation, and with a cache directory, generations survive restarts of the server.
+ *
+ * The server only listens on the loopback interface unless given another address. It can be started on its own
+ * with {@link #main(String[])}, or embedded in another process.
+ */
+public class GenerationServer implements AutoCloseable {
+
+    /**
+     * The most requests a worker takes from the queue at once
+     */
+    public static final int MAX_BATCH = 16;
+
+    private final ServerSocket socket;
+    private final ExecutorService workers;
+    private final TrajectoryCache trajectories;
+    private final Map<String, byte[]> responses;
+    private final Map<String, CompletableFuture<byte[]>> inFlight = new ConcurrentHashMap<>();
+    private final Queue<Job> pending = new ConcurrentLinkedQueue<>();
+    private final Set<Socket> connections = ConcurrentHashMap.newKeySet();
+    private final Thread acceptor;
+    private volatile boolean closed;
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong responseHits = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+
+    // A request waiting for a worker, and the response its callers are waiting on
+    private static final class Job {
+        final String key;
+        final Protocol.Request request;
+        final CompletableFuture<byte[]> response;
+
+        Job(String key, Protocol.Request request, CompletableFuture<byte[]> response) {
+            this.key = key;
+            this.request = request;
+            this.response = response;
+        }
+    }
+
+    /**
+     * Start a server on an ephemeral port on the loopback interface, with one worker per processor and a
+     * memory-only cache. See {@link #getPort()} for the port it is listening on.
+     */
+    public GenerationServer() throws IOException {
+        this(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), Runtime.getRuntime().availableProcessors(), 256, null);
+    }
+
+    /**
+     * Start a server
+     * @param address       The address to listen on. Use a port of 0 to pick any free port.
+     * @param threads       The number of worker threads generating trajectories
+     * @param capacity      The number of trajectories and responses each kept in memory
+     * @param directory     The directory for the disk tier of the trajectory cache, or null for memory only
+     */
+    public GenerationServer(SocketAddress address, int threads, int capacity, File directory) throws IOException {
+        if (threads <= 0)
+            throw new IllegalArgumentException("Thread count must be positive, got " + threads);
+
+        this.trajectories = new TrajectoryCache(capacity, directory);
+        this.responses = new LinkedHashMap<String, byte[]>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, byte[]> eldest) {
+                return size() > capacity;
+            }
+        };
+
+        AtomicInteger workerCount = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(threads, r -> daemon(r, "Pathfinder generation worker " + workerCount.incrementAndGet()));
+        this.socket = new ServerSocket();
+        try {
+            socket.bind(address);
+        } catch (IOException e) {
+            workers.shutdown();
+            throw e;
+        }
+        this.acceptor = daemon(this::accept, "Pathfinder generation server");
+        acceptor.start();
+    }
+
+    private static Thread daemon(Runnable r, String name) {
+        Thread t = new Thread(r, name);
+        t.setDaemon(true);
+        return t;
+    }
+
+    /**
+     * @return the port the server is listening on
+     */
+    public int getPort() {
+        return socket.getLocalPort();
+    }
+
+    /**
+     * @return the address the server is listening on
+     */
+    public InetSocketAddress getAddress() {
+        return (InetSocketAddress) socket.getLocalSocketAddress();
+    }
+
+    private void accept() {
+        while (!closed) {
+            Socket client;
+            try {
+                client = socket.accept();
+            } catch (IOException e) {
+                // Closing the server socket stops the accept, which is the only way out of this loop
+                return;
+            }
+            connections.add(client);
+            daemon(() -> serve(client), "Pathfinder generation connection " + client.getRemoteSocketAddress()).start();
+        }
+    }
+
+    private void serve(Socket client) {
+        try {
+            client.setTcpNoDelay(true);
+            InputStream in = new BufferedInputStream(client.getInputStream());
+            OutputStream out = new BufferedOutputStream(client.getOutputStream());
+            Protocol.writeHello(out);
+            Protocol.readHello(in);
+
+            ByteBuffer frame;
+            while ((frame = Protocol.readFrame(in)) != null) {
+                if (frame.remaining() < 4)
+                    throw new IOException("Request too short for an id");
+                int id = frame.getInt(0);
+                Protocol.Request request;
+                try {
+                    request = Protocol.Request.decode(frame);
+                } catch (IOException e) {
+                    respond(out, id, Protocol.STATUS_BAD_REQUEST, Protocol.encodeMessage(e.getMessage()));
+                    continue;
+                }
+                requests.incrementAndGet();
+                submit(request).whenComplete((body, error) -> {
+                    try {
+                        if (error == null)
+                            respond(out, id, Protocol.STATUS_OK, body);
+                        else
+                            respond(out, id, Protocol.STATUS_GENERATION_ERROR, Protocol.encodeMessage(rootCause(error).getMessage()));
+                    } catch (IOException e) {
+                        // The client has gone, and the reader will notice too
+                    }
+                });
+            }
+        } catch (IOException e) {
+            // Protocol errors and dropped connections only end this connection
+        } finally {
+            connections.remove(client);
+            try {
+                client.close();
+            } catch (IOException e) { }
+        }
+    }
+
+    private static void respond(OutputStream out, int id, byte status, byte[] body) throws IOException {
+        synchronized (out) {
+            Protocol.writeResponse(out, id, status, body);
+        }
+    }
+
+    private static Throwable rootCause(Throwable t) {
+        while (t.getCause() != null && t.getCause() != t) t = t.getCause();
+        return t;
+    }
+
+    /**
+     * Find the response to a request, from the response cache, from a generation already in progress, or by
+     * queueing a new generation for the worker pool.
+     */
+    private CompletableFuture<byte[]> submit(Protocol.Request request) {
+        String key = request.key();
+        synchronized (responses) {
+            byte[] cached = responses.get(key);
+            if (cached != null) {
+                responseHits.incrementAndGet();
+                return CompletableFuture.completedFuture(cached);
+            }
+        }
+
+        CompletableFuture<byte[]> created = new CompletableFuture<>();
+        CompletableFuture<byte[]> existing = inFlight.putIfAbsent(key, created);
+        if (existing != null) {
+            coalesced.incrementAndGet();
+            return existing;
+        }
+
+        Job job = new Job(key, request, created);
+        pending.add(job);
+        try {
+            workers.execute(this::drain);
+        } catch (RejectedExecutionException e) {
+            // The server has been closed
+            pending.remove(job);
+            inFlight.remove(key, created);
+            created.completeExceptionally(e);
+        }
+        return created;
+    }
+
+    /**
+     * Take every waiting request, up to {@link #MAX_BATCH}, and answer them. Each request queues one drain, so
+     * by the time a drain runs, an earlier one may already have taken its request.
+     */
+    private void drain() {
+        List<Job> batch = new ArrayList<>();
+        Job next;
+        while (batch.size() < MAX_BATCH && (next = pending.poll()) != null)
+            batch.add(next);
+        if (batch.isEmpty()) return;
+        batches.incrementAndGet();
+
+        // Requests sharing a configuration (keyed without any waypoints) are generated together
+        Map<String, List<Job>> groups = new LinkedHashMap<>();
+        for (Job job : batch)
+            groups.computeIfAbsent(TrajectoryCache.key(new Waypoint[0], job.request.config), k -> new ArrayList<>()).add(job);
+
+        for (List<Job> group : groups.values()) {
+            List<Waypoint[]> paths = new ArrayList<>(group.size());
+            for (Job job : group)
+                paths.add(job.request.waypoints);
+            Trajectory[] sources;
+            try {
+                sources = trajectories.generateAll(paths, group.get(0).request.config);
+            } catch (Throwable t) {
+                // Each request is retried on its own below, so it fails with its own reason
+                sources = new Trajectory[group.size()];
+            }
+            for (int i = 0; i < group.size(); i++)
+                finish(group.get(i), sources[i]);
+        }
+    }
+
+    private void finish(Job job, Trajectory source) {
+        try {
+            // Paths that failed in the batch are generated again on their own, for the reason they failed
+            if (source == null)
+                source = trajectories.generate(job.request.waypoints, job.request.config);
+            byte[] body = Protocol.encodeTrajectories(modify(job.request, source));
+            synchronized (responses) {
+                responses.put(job.key, body);
+            }
+            job.response.complete(body);
+        } catch (Throwable t) {
+            job.response.completeExceptionally(t);
+        } finally {
+            // Removed after the response is cached, so a request in between is still answered by one or other
+            inFlight.remove(job.key);
+        }
+    }
+
+    private Trajectory[] modify(Protocol.Request request, Trajectory source) {
+        switch (request.kind) {
+            case Protocol.KIND_TANK: {
+                TankModifier tank = new TankModifier(source).modify(request.width);
+                return new Trajectory[] { tank.getLeftTrajectory(), tank.getRightTrajectory() };
+            }
+            case Protocol.KIND_SWERVE: {
+                SwerveModifier swerve = new SwerveModifier(source).modify(request.width, request.depth, request.mode);
+                return new Trajectory[] {
+                        swerve.getFrontLeftTrajectory(), swerve.getFrontRightTrajectory(),
+                        swerve.getBackLeftTrajectory(), swerve.getBackRightTrajectory()
+                };
+            }
+            default:
+                return new Trajectory[] { source };
+        }
+    }
+
+    /**
+     * @return The number of requests received, over all connections
+     */
+    public long getRequests() {
+        return requests.get();
+    }
+
+    /**
+     * @return The number of requests that waited on an identical request already being generated
+     */
+    public long getCoalesced() {
+        return coalesced.get();
+    }
+
+    /**
+     * @return The number of requests answered from the response cache
+     */
+    public long getResponseHits() {
+        return responseHits.get();
+    }
+
+    /**
+     * @return The number of batches the workers have taken from the queue, each of one or more requests
+     */
+    public long getBatches() {
+        return batches.get();
+    }
+
+    /**
+     * @return The trajectory cache shared by all connections
+     */
+    public TrajectoryCache getCache() {
+        return trajectories;
+    }
+
+    /**
+     * Stop listening, close every connection and stop the workers. Requests still being generated are abandoned.
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        socket.close();
+        for (Socket s : connections) {
+            try {
+                s.close();
+            } catch (IOException e) { }
+        }
+        workers.shutdownNow();
+    }
+
+    /**
+     * Run a server until the process is stopped.
+     * Arguments: [port [threads [cache directory]]], defaulting to port 5805, one thread per processor and a
+     * memory-only cache. The server listens on the loopback interface only.
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 5805;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        File directory = args.length > 2 ? new File(args[2]) : null;
+
+        GenerationServer server = new GenerationServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), threads, 256, directory);
+        System.out.println("Pathfinder generation server listening on " + server.getAddress() + " with " + threads + " workers");
+        server.acceptor.join();
+    }
+
+}
@@ -0,0 +1,262 @@
+package jaci.pathfinder.server;
+
+import jaci.pathfinder.Trajectory;
+import jaci.pathfinder.TrajectoryCache;
+import jaci.pathfinder.TrajectoryFile;
+import jaci.pathfinder.Waypoint;
+import jaci.pathfinder.modifiers.SwerveModifier;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The wire protocol between {@link GenerationClient} and {@link GenerationServer}.
+ *
+ * Both sides start by sending the magic number and version. After that, every message is a frame: a little endian
+ * int holding the length of the payload, then the payload. Requests are:
+ * <pre>
+ *   int     request id, echoed in the response
+ *   byte    kind: 0 trajectory, 1 tank, 2 swerve
+ *   int     fit method (ordinal)
+ *   int     sample count
+ *   double  tolerance, dt, max velocity, max acceleration, max jerk
+ *   int     waypoint count, then x, y, angle (doubles) of each waypoint
+ *   double  wheelbase width (tank and swerve only)
+ *   double  wheelbase depth, int swerve mode (ordinal) (swerve only)
+ * </pre>
+ * Responses are:
+ * <pre>
+ *   int     request id
+ *   byte    status: 0 ok, 1 the trajectory could not be generated, 2 the request was invalid
+ *   ok:     int trajectory count, then each trajectory as an int length and a {@link TrajectoryFile}
+ *   error:  int length, then the UTF-8 message
+ * </pre>
+ * Responses are sent as soon as they are ready, so may come back in a different order to the requests.
+ */
+final class Protocol {
+
+    static final int MAGIC = 0x53474650;     // "PFGS", little endian
+    static final int VERSION = 1;
+
+    static final byte KIND_TRAJECTORY = 0, KIND_TANK = 1, KIND_SWERVE = 2;
+    static final byte STATUS_OK = 0, STATUS_GENERATION_ERROR = 1, STATUS_BAD_REQUEST = 2;
+
+    /**
+     * Frames larger than this are refused, so a corrupt length can't run the reader out of memory
+     */
+    static final int MAX_FRAME = 1 << 28;
+
+    /**
+     * The largest sample count a request may ask for. Each spline's arc length table holds this many values, and
+     * the generator is shared by every client, so one request can't be allowed to exhaust its memory.
+     */
+    static final int MAX_SAMPLES = Trajectory.Config.SAMPLES_HIGH;
+
+    private Protocol() { }
+
+    static final class Request {
+        int id;
+        byte kind;
+        Waypoint[] waypoints;
+        Trajectory.Config config;
+        double width, depth;
+        SwerveModifier.Mode mode;
+
+        ByteBuffer encode() {
+            ByteBuffer buf = allocate(57 + waypoints.length * 24 + 20);
+            buf.putInt(id).put(kind);
+            buf.putInt(config.fit.ordinal()).putInt(config.sample_count);
+            buf.putDouble(config.tolerance).putDouble(config.dt);
+            buf.putDouble(config.max_velocity).putDouble(config.max_acceleration).putDouble(config.max_jerk);
+            buf.putInt(waypoints.length);
+            for (Waypoint w : waypoints)
+                buf.putDouble(w.x).putDouble(w.y).putDouble(w.angle);
+            if (kind != KIND_TRAJECTORY) buf.putDouble(width);
+            if (kind == KIND_SWERVE) buf.putDouble(depth).putInt(mode.ordinal());
+            buf.flip();
+            return buf;
+        }
+
+        static Request decode(ByteBuffer buf) throws IOException {
+            try {
+                Request r = new Request();
+                r.id = buf.getInt();
+                r.kind = buf.get();
+                if (r.kind < KIND_TRAJECTORY || r.kind > KIND_SWERVE)
+                    throw new IOException("Unknown request kind " + r.kind);
+
+                Trajectory.FitMethod fit = enumAt(Trajectory.FitMethod.values(), buf.getInt());
+                int samples = buf.getInt();
+                if (samples < 1 || samples > MAX_SAMPLES)
+                    throw new IOException("Invalid sample count " + samples + " (must be 1 to " + MAX_SAMPLES + ")");
+                double tolerance = buf.getDouble();
+                if (!(tolerance >= 0) || Double.isInfinite(tolerance))
+                    throw new IOException("Invalid tolerance " + tolerance + " (must be finite and not negative)");
+                double dt = positive("dt", buf.getDouble());
+                r.config = new Trajectory.Config(fit, samples, dt, positive("max velocity", buf.getDouble()),
+                        positive("max acceleration", buf.getDouble()), positive("max jerk", buf.getDouble()));
+                r.config.tolerance = tolerance;
+
+                int count = buf.getInt();
+                if (count < 0 || count > buf.remaining() / 24)
+                    throw new IOException("Invalid waypoint count " + count);
+                r.waypoints = new Waypoint[count];
+                for (int i = 0; i < count; i++)
+                    r.waypoints[i] = new Waypoint(buf.getDouble(), buf.getDouble(), buf.getDouble());
+
+                if (r.kind != KIND_TRAJECTORY) r.width = buf.getDouble();
+                if (r.kind == KIND_SWERVE) {
+                    r.depth = buf.getDouble();
+                    r.mode = enumAt(SwerveModifier.Mode.values(), buf.getInt());
+                }
+                return r;
+            } catch (BufferUnderflowException e) {
+                throw new IOException("Truncated request");
+            }
+        }
+
+        /**
+         * @return a key identifying everything that affects the response, for coalescing and caching
+         */
+        String key() {
+            String key = TrajectoryCache.key(waypoints, config);
+            if (kind == KIND_TANK)
+                key += ":tank:" + Double.doubleToLongBits(width);
+            else if (kind == KIND_SWERVE)
+                key += ":swerve:" + Double.doubleToLongBits(width) + ":" + Double.doubleToLongBits(depth) + ":" + mode.name();
+            return key;
+        }
+    }
+
+    private static double positive(String name, double value) throws IOException {
+        if (!(value > 0) || Double.isInfinite(value))
+            throw new IOException("Invalid " + name + " " + value + " (must be finite and positive)");
+        return value;
+    }
+
+    private static <E> E enumAt(E[] values, int ordinal) throws IOException {
+        if (ordinal < 0 || ordinal >= values.length)
+            throw new IOException("Invalid enum ordinal " + ordinal);
+        return values[ordinal];
+    }
+
+    /**
+     * Encode the body of a successful response, everything after the status. This doesn't depend on the request
+     * id, so one body can be sent to every client that asked for the same thing.
+     */
+    static byte[] encodeTrajectories(Trajectory[] trajectories) {
+        ByteBuffer[] encoded = new ByteBuffer[trajectories.length];
+        int size = 4;
+        for (int i = 0; i < trajectories.length; i++) {
+            encoded[i] = TrajectoryFile.encode(trajectories[i]);
+            size += 4 + encoded[i].remaining();
+        }
+        ByteBuffer buf = allocate(size);
+        buf.putInt(trajectories.length);
+        for (ByteBuffer e : encoded)
+            buf.putInt(e.remaining()).put(e);
+        return buf.array();
+    }
+
+    static Trajectory[] decodeTrajectories(ByteBuffer buf) throws IOException {
+        try {
+            int count = buf.getInt();
+            if (count < 0 || count > buf.remaining() / 4)
+                throw new IOException("Invalid trajectory count " + count);
+            Trajectory[] trajectories = new Trajectory[count];
+            for (int i = 0; i < count; i++) {
+                int length = buf.getInt();
+                if (length < 0 || length > buf.remaining())
+                    throw new IOException("Truncated response");
+                ByteBuffer data = buf.slice();
+                data.limit(length);
+                trajectories[i] = TrajectoryFile.decode(data, true);
+                buf.position(buf.position() + length);
+            }
+            return trajectories;
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Truncated response");
+        }
+    }
+
+    static byte[] encodeMessage(String message) {
+        byte[] text = (message == null ? "" : message).getBytes(StandardCharsets.UTF_8);
+        return allocate(4 + text.length).putInt(text.length).put(text).array();
+    }
+
+    static String decodeMessage(ByteBuffer buf) throws IOException {
+        try {
+            byte[] text = new byte[buf.getInt()];
+            buf.get(text);
+            return new String(text, StandardCharsets.UTF_8);
+        } catch (BufferUnderflowException | NegativeArraySizeException e) {
+            throw new IOException("Truncated response");
+        }
+    }
+
+    static void writeHello(OutputStream out) throws IOException {
+        out.write(allocate(8).putInt(MAGIC).putInt(VERSION).array());
+        out.flush();
+    }
+
+    static void readHello(InputStream in) throws IOException {
+        ByteBuffer hello = ByteBuffer.wrap(readFully(in, 8)).order(ByteOrder.LITTLE_ENDIAN);
+        if (hello.getInt() != MAGIC)
+            throw new IOException("Not a Pathfinder generation server");
+        int version = hello.getInt();
+        if (version != VERSION)
+            throw new IOException("Unsupported protocol version " + version + " (expected " + VERSION + ")");
+    }
+
+    /**
+     * Write a response frame. Callers must hold the lock on the stream, so frames aren't interleaved.
+     */
+    static void writeResponse(OutputStream out, int id, byte status, byte[] body) throws IOException {
+        out.write(allocate(9).putInt(5 + body.length).putInt(id).put(status).array());
+        out.write(body);
+        out.flush();
+    }
+
+    static void writeFrame(OutputStream out, ByteBuffer payload) throws IOException {
+        out.write(allocate(4).putInt(payload.remaining()).array());
+        out.write(payload.array(), payload.arrayOffset() + payload.position(), payload.remaining());
+        out.flush();
+    }
+
+    /**
+     * Read a frame's payload
+     * @return  The payload, or null if the stream ended cleanly before the frame
+     */
+    static ByteBuffer readFrame(InputStream in) throws IOException {
+        int b0 = in.read();
+        if (b0 < 0) return null;
+        ByteBuffer header = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+        header.put((byte) b0).put(readFully(in, 3)).flip();
+        int length = header.getInt();
+        if (length < 0 || length > MAX_FRAME)
+            throw new IOException("Invalid frame length " + length);
+        return ByteBuffer.wrap(readFully(in, length)).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static byte[] readFully(InputStream in, int length) throws IOException {
+        byte[] data = new byte[length];
+        int read = 0;
+        while (read < length) {
+            int n = in.read(data, read, length - read);
+            if (n < 0) throw new EOFException("Connection closed part way through a frame");
+            read += n;
+        }
+        return data;
+    }
+
+    private static ByteBuffer allocate(int size) {
+        return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+}